@@ -0,0 +1,139 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Measures the work done by the thread processing events for every
+ * event: filtering the file name with a realistic set of rules, finding
+ * the mapping and the remote path of the file, and {@link FileMonitor#dispatch(Path)}
+ * of a file already waiting for a transfer (a repeated event) and of
+ * a file filtered out.
+ *
+ */
+public class DispatchBenchmark extends MicroBenchmark {
+
+	/**
+	 * The number of monitored directories.
+	 */
+	private static final int DIRECTORIES = 200;
+
+	/**
+	 * The number of files in each directory.
+	 */
+	private static final int FILES = 10;
+
+	private static final String[] NAMES = {
+		"Item20131212_0001.txt", "Demand20131212_0001.txt",
+		"Item20131212_0002.txt.part", "Forecast_2013.csv",
+		"Item20131212_0003.tmp", "README", "Demand.txt", "Prices.xml",
+	};
+
+	public static void main(String[] args) throws IOException {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		Path root = Files.createTempDirectory("dispatch-bench");
+		final List<Path> files = new ArrayList<Path>();
+		final List<Path> skipped = new ArrayList<Path>();
+		Map<Path, MonitoredDirectory> directories = new HashMap<Path, MonitoredDirectory>();
+		for (int i = 0; i < DIRECTORIES; i++) {
+			Path directory = Files.createDirectory(root.resolve("dir" + i));
+			MonitoredDirectory mapping = new MonitoredDirectory(directory.toString(),
+					"/remote/dir" + i);
+			configure(mapping);
+			directories.put(directory, mapping);
+			for (int j = 0; j < FILES; j++) {
+				files.add(Files.createFile(directory.resolve("Item" + j + ".txt")));
+				skipped.add(directory.resolve("Item" + j + ".txt.part"));
+			}
+		}
+
+		// Keep all files pending while the events are measured
+		final CountDownLatch blocked = new CountDownLatch(1);
+		FileMonitor monitor = new FileMonitor(directories, new AbstractFileSender() {
+			@Override
+			public void transferFile(Path path, String remoteDir, Compression compression) {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, 1);
+		for (Path file : files) {
+			monitor.dispatch(file);
+		}
+
+		final MonitoredDirectory mapping = directories.values().iterator().next();
+		measure("filter, 12 rules", new Operation() {
+			@Override
+			public long run(int iteration) {
+				return mapping.filter(NAMES[iteration % NAMES.length]) ? 1 : 0;
+			}
+		});
+
+		final FileMonitor resolver = monitor;
+		measure("remote path, " + DIRECTORIES + " directories", new Operation() {
+			@Override
+			public long run(int iteration) {
+				Path file = files.get(iteration % files.size());
+				MonitoredDirectory directory = resolver.getMonitoredDirectory(file.getParent());
+				return directory.getRemoteDirectory().length()
+						+ directory.getCompression().getRemoteName(
+								file.getFileName().toString()).length();
+			}
+		});
+
+		measure("dispatch, file already pending", new Operation() {
+			@Override
+			public long run(int iteration) {
+				resolver.dispatch(files.get(iteration % files.size()));
+				return iteration;
+			}
+		});
+
+		measure("dispatch, file filtered out", new Operation() {
+			@Override
+			public long run(int iteration) {
+				resolver.dispatch(skipped.get(iteration % skipped.size()));
+				return iteration;
+			}
+		});
+
+		blocked.countDown();
+		monitor.getDestination(Destination.DEFAULT_NAME).shutdown();
+		done();
+	}
+
+	/**
+	 * Configures rules in the shape of a production configuration:
+	 * temporary files excluded first, then data files included.
+	 */
+	private static void configure(MonitoredDirectory mapping) {
+		mapping.registerExclude("^(.)+\\.(tmp|part)$");
+		mapping.registerExclude("^~(.)*");
+		mapping.registerMask("^Item(.)+\\.txt$");
+		mapping.registerMask("^Demand(.)*\\.txt$");
+		mapping.registerMask("^Forecast_[0-9]{4}\\.csv$");
+		mapping.registerMask("^Prices\\.xml$");
+		mapping.registerMask("^Stock\\.xml$");
+		mapping.registerExclude("^Orders_test(.)*");
+		mapping.registerMask("^Orders(.)+\\.csv$");
+		mapping.registerMask("^Supplier_[A-Z]{3}_[0-9]+\\.dat$");
+		mapping.registerMask("^Calendar\\.txt$");
+		mapping.registerMask("^Locations(.)*\\.txt$");
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Creates files in a set of directories at a steady rate, the way
+ * producers do in production:
+ * <ul>
+ * <li>file sizes are drawn from a log-uniform distribution between
+ * a minimum and a maximum, so most files are small and a few are large,</li>
+ * <li>optionally a part of the files is written in two steps: the first
+ * half, then the rest after a pause, with the file open in between.</li>
+ * </ul>
+ * File names are unique over all directories. The time each file was
+ * completed is kept, so that delivery latencies can be computed.
+ *
+ */
+public class LoadGenerator {
+
+	private final List<Path> directories;
+
+	private final long minSize;
+	private final long maxSize;
+
+	/**
+	 * The fraction of files written in two steps.
+	 */
+	private final double partialFraction;
+
+	/**
+	 * The pause (in milliseconds) between the two steps.
+	 */
+	private final long partialPause;
+
+	private final Random random = new Random(42);
+
+	/**
+	 * Completion times (from {@link System#nanoTime()}) by file name.
+	 */
+	private final Map<String, Long> completed = new ConcurrentHashMap<String, Long>();
+
+	private final Map<String, Integer> sizes = new ConcurrentHashMap<String, Integer>();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final ScheduledExecutorService writers = Executors.newScheduledThreadPool(4);
+
+	private long sequence = 0;
+
+	/**
+	 * @param directories		The directories files are created in, in turn.
+	 * @param minSize			The minimal size of a file in bytes.
+	 * @param maxSize			The maximal size of a file in bytes.
+	 * @param partialFraction	The fraction of files written in two steps.
+	 * @param partialPause		The pause (in milliseconds) between the steps.
+	 */
+	public LoadGenerator(List<Path> directories, long minSize, long maxSize,
+			double partialFraction, long partialPause) {
+		this.directories = directories;
+		this.minSize = Math.max(1, minSize);
+		this.maxSize = Math.max(this.minSize, maxSize);
+		this.partialFraction = partialFraction;
+		this.partialPause = partialPause;
+	}
+
+	/**
+	 * Creates files at the given rate for the given time. Returns when
+	 * all files are started; files written in two steps may be completed
+	 * up to {@link #partialPause} later.
+	 * @param filesPerSecond	The rate.
+	 * @param duration			The time in milliseconds.
+	 * @return					The number of files created.
+	 * @throws IOException		If a file cannot be written.
+	 * @throws InterruptedException
+	 */
+	public long run(double filesPerSecond, long duration)
+			throws IOException, InterruptedException {
+
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+		double interval = TimeUnit.SECONDS.toNanos(1) / filesPerSecond;
+		long created = 0;
+
+		while (true) {
+			long due = start + (long) (created * interval);
+			if (due >= end) {
+				break;
+			}
+			long wait = due - System.nanoTime();
+			if (wait > 1000000) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			create();
+			created++;
+		}
+		return created;
+	}
+
+	/**
+	 * Waits until files written in two steps are completed.
+	 * @throws InterruptedException
+	 */
+	public void finish() throws InterruptedException {
+		writers.shutdown();
+		writers.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private void create() throws IOException {
+		Path directory = directories.get((int) (sequence % directories.size()));
+		final String name = "Item" + sequence++ + ".txt";
+		final Path file = directory.resolve(name);
+		final byte[] content = new byte[(int) nextSize()];
+		sizes.put(name, content.length);
+		bytes.addAndGet(content.length);
+
+		if (random.nextDouble() >= partialFraction) {
+			Files.write(file, content);
+			completed.put(name, System.nanoTime());
+			return;
+		}
+
+		final OutputStream out = Files.newOutputStream(file);
+		out.write(content, 0, content.length / 2);
+		out.flush();
+		writers.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					out.write(content, content.length / 2,
+							content.length - content.length / 2);
+					out.close();
+					completed.put(name, System.nanoTime());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, partialPause, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Draws a size from the log-uniform distribution.
+	 */
+	private long nextSize() {
+		double logMin = Math.log(minSize);
+		double logMax = Math.log(maxSize);
+		return Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+	}
+
+	/**
+	 * @param name	The name of a created file.
+	 * @return		The time (from {@link System#nanoTime()}) the file was
+	 * 				completed, or {@code null} if it's not complete.
+	 */
+	public Long getCompletionTime(String name) {
+		return completed.get(name);
+	}
+
+	/**
+	 * @param name	The name of a created file.
+	 * @return		The size of the complete file, or {@code null}
+	 * 				if there is no such file.
+	 */
+	public Integer getSize(String name) {
+		return sizes.get(name);
+	}
+
+	/**
+	 * @return	The number of completed files.
+	 */
+	public int getCompleted() {
+		return completed.size();
+	}
+
+	/**
+	 * @return	The number of bytes written.
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+}
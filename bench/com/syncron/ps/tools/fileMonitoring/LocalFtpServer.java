@@ -0,0 +1,332 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * A minimal in-process FTP server receiving files for load tests.
+ * It accepts any user, supports passive transfers and exactly the
+ * commands {@link FTPFileSender} uses, and keeps only sizes of files
+ * being uploaded in memory. Every completed file (a rename to the final name) is
+ * reported to a {@link Listener}. Directories are tracked, so that changing
+ * to a missing directory, or creating one in a missing parent, fails like
+ * on a real server.
+ * <br/>
+ * Not a general purpose server: there is no authentication, no listing
+ * and no active mode.
+ *
+ */
+public class LocalFtpServer {
+
+	/**
+	 * Receives files renamed to their final names.
+	 */
+	public interface Listener {
+		void received(String directory, String name, long size);
+	}
+
+	private final ServerSocket server;
+
+	private final Listener listener;
+
+	/**
+	 * Sizes of stored files by their full remote paths.
+	 */
+	private final Map<String, Long> files = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Full paths of existing directories.
+	 */
+	private final Set<String> directories = Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * The current directory of new sessions.
+	 */
+	private volatile String home = "/";
+
+	private final ExecutorService sessions = Executors.newCachedThreadPool(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "local-ftp");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private volatile boolean running = true;
+
+	/**
+	 * Every n-th upload is rejected with a transient error, 0 if none.
+	 */
+	private volatile int failEvery = 0;
+
+	private final AtomicLong uploads = new AtomicLong();
+
+	/**
+	 * The constructor binds the control port on the loopback interface.
+	 * @param port		The port, 0 for any free one.
+	 * @param listener	Receives completed files.
+	 * @throws IOException	If the port cannot be bound.
+	 */
+	public LocalFtpServer(int port, Listener listener) throws IOException {
+		this.server = new ServerSocket(port, 100, InetAddress.getLoopbackAddress());
+		this.listener = listener;
+		directories.add("/");
+	}
+
+	/**
+	 * Starts accepting connections in a background thread.
+	 */
+	public void start() {
+		sessions.execute(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						final Socket socket = server.accept();
+						sessions.execute(new Runnable() {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						});
+					} catch (IOException e) {
+						if (running) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	public void stop() throws IOException {
+		running = false;
+		server.close();
+		sessions.shutdownNow();
+	}
+
+	/**
+	 * Makes the server reject every n-th upload with a transient error,
+	 * so that retries are exercised.
+	 * @param failEvery	n, 0 to accept all uploads.
+	 */
+	public void setFailEvery(int failEvery) {
+		this.failEvery = failEvery;
+	}
+
+	/**
+	 * Sets the directory sessions start in after logging in. The directory
+	 * and its parents are created.
+	 * @param home	An absolute path.
+	 */
+	public void setHome(String home) {
+		String path = resolve("/", home);
+		this.home = path;
+		while (path.length() > 1) {
+			directories.add(path);
+			path = getParent(path);
+		}
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	private void serve(Socket socket) {
+		String directory = home;
+		String renameFrom = null;
+		ServerSocket passive = null;
+		try (Socket control = socket) {
+			// Replies are small; with Nagle's algorithm they wait for delayed ACKs
+			control.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					control.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new OutputStreamWriter(control.getOutputStream(),
+					StandardCharsets.UTF_8);
+			reply(out, "220 Ready");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String command = (space < 0 ? line : line.substring(0, space))
+						.toUpperCase();
+				String argument = space < 0 ? "" : line.substring(space + 1);
+
+				switch (command) {
+				case "USER":
+					reply(out, "331 Password required");
+					break;
+				case "PASS":
+					reply(out, "230 Logged in");
+					break;
+				case "TYPE":
+				case "MODE":
+				case "STRU":
+				case "NOOP":
+					reply(out, "200 OK");
+					break;
+				case "SYST":
+					reply(out, "215 UNIX Type: L8");
+					break;
+				case "PWD":
+					reply(out, "257 \"" + directory + "\"");
+					break;
+				case "CWD":
+					String changed = resolve(directory, argument);
+					if (!directories.contains(changed)) {
+						reply(out, "550 No such directory");
+						break;
+					}
+					directory = changed;
+					reply(out, "250 OK");
+					break;
+				case "MKD":
+					String created = resolve(directory, argument);
+					if (!directories.contains(getParent(created))
+							|| !directories.add(created)) {
+						reply(out, "550 Cannot create directory");
+						break;
+					}
+					reply(out, "257 \"" + created + "\"");
+					break;
+				case "PASV":
+					if (passive != null) {
+						passive.close();
+					}
+					passive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+					int port = passive.getLocalPort();
+					reply(out, "227 Entering Passive Mode (127,0,0,1,"
+							+ (port >> 8) + "," + (port & 0xff) + ")");
+					break;
+				case "STOR":
+					if (passive == null) {
+						reply(out, "425 Use PASV first");
+						break;
+					}
+					int every = failEvery;
+					if (every > 0 && uploads.incrementAndGet() % every == 0) {
+						passive.close();
+						passive = null;
+						reply(out, "451 Transient failure");
+						break;
+					}
+					reply(out, "150 Opening data connection");
+					long size = 0;
+					try (Socket data = passive.accept();
+							InputStream stream = data.getInputStream()) {
+						byte[] buffer = new byte[65536];
+						int read;
+						while ((read = stream.read(buffer)) >= 0) {
+							size += read;
+						}
+					}
+					passive.close();
+					passive = null;
+					files.put(resolve(directory, argument), size);
+					reply(out, "226 Transfer complete");
+					break;
+				case "RNFR":
+					renameFrom = resolve(directory, argument);
+					reply(out, files.containsKey(renameFrom)
+							? "350 Ready for RNTO" : "550 No such file");
+					break;
+				case "RNTO":
+					Long stored = renameFrom == null ? null : files.remove(renameFrom);
+					renameFrom = null;
+					if (stored == null) {
+						reply(out, "550 No such file");
+						break;
+					}
+					// Completed files are forgotten to keep memory bounded
+					String target = resolve(directory, argument);
+					reply(out, "250 Renamed");
+					int slash = target.lastIndexOf('/');
+					listener.received(target.substring(0, Math.max(slash, 1)),
+							target.substring(slash + 1), stored);
+					break;
+				case "DELE":
+					reply(out, files.remove(resolve(directory, argument)) != null
+							? "250 Deleted" : "550 No such file");
+					break;
+				case "QUIT":
+					reply(out, "221 Bye");
+					return;
+				default:
+					reply(out, "502 Not implemented");
+				}
+			}
+		} catch (IOException e) {
+			// The client disconnected
+		} finally {
+			if (passive != null) {
+				try {
+					passive.close();
+				} catch (IOException e) {
+					// Ignored
+				}
+			}
+		}
+	}
+
+	private static void reply(Writer out, String reply) throws IOException {
+		out.write(reply);
+		out.write("\r\n");
+		out.flush();
+	}
+
+	/**
+	 * Resolves a path against the working directory. Only absolute
+	 * and plain relative paths are supported.
+	 */
+	private static String resolve(String directory, String path) {
+		if (path.startsWith("/")) {
+			return path.length() > 1 && path.endsWith("/")
+					? path.substring(0, path.length() - 1) : path;
+		}
+		return directory.endsWith("/") ? directory + path : directory + "/" + path;
+	}
+
+	private static String getParent(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash <= 0 ? "/" : path.substring(0, slash);
+	}
+
+	/**
+	 * Runs a server on the given port until the process is killed,
+	 * e.g. for {@link TransferBenchmark}.
+	 * @param args	The port number, 2121 by default.
+	 * @throws IOException	If the port cannot be bound.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 2121;
+		LocalFtpServer ftp = new LocalFtpServer(port, new Listener() {
+			@Override
+			public void received(String directory, String name, long size) {
+			}
+		});
+		ftp.start();
+		System.out.println("Listening on port " + ftp.getPort());
+		Thread.currentThread().join();
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 
+ * Compares filtering file names with <code>String.matches</code> for
+ * every mask (the former {@link MonitoredDirectory#filter(String)})
+ * with the compiled {@link MaskMatcher}, for mask sets of various sizes.
+ * 
+ */
+public class MaskMatcherBenchmark extends MicroBenchmark {
+	
+	/**
+	 * File names produced by a typical producer.
+	 */
+	private static final String[] NAMES = {
+		"Item20131212_0001.txt", "Demand20131212_0001.txt",
+		"Item20131212_0002.txt.part", "Forecast_2013.csv",
+		"Item20131212_0003.tmp", "README", "Demand.txt",
+	};
+	
+	public static void main(String[] args) {
+		for (int masks : new int[] { 2, 100, 500 }) {
+			run(masks);
+		}
+		done();
+	}
+	
+	private static void run(int count) {
+		
+		final List<String> masks = createMasks(count);
+		final List<String> oldMasks = new LinkedList<String>(masks);
+		final MaskMatcher matcher = new MaskMatcher();
+		for (String mask : masks) {
+			matcher.add(mask);
+		}
+		
+		measure("filter String.matches, " + count + " masks", new Operation() {
+			@Override
+			public long run(int iteration) {
+				String name = NAMES[iteration % NAMES.length];
+				for (String mask : oldMasks) {
+					if (name.matches(mask)) {
+						return 1;
+					}
+				}
+				return 0;
+			}
+		});
+		
+		measure("filter MaskMatcher, " + count + " masks", new Operation() {
+			@Override
+			public long run(int iteration) {
+				return matcher.matches(NAMES[iteration % NAMES.length]) ? 1 : 0;
+			}
+		});
+	}
+	
+	/**
+	 * Creates masks in the shapes used in configurations: prefix and
+	 * suffix masks, literal names and a few general expressions. The
+	 * masks matching the sample names come last, the worst case for
+	 * a sequential scan.
+	 */
+	private static List<String> createMasks(int count) {
+		List<String> masks = new ArrayList<String>();
+		for (int i = 0; masks.size() < count - 2; i++) {
+			switch (i % 4) {
+			case 0:
+				masks.add("^Feed" + i + "(.)+\\.txt$");
+				break;
+			case 1:
+				masks.add("^Export" + i + "\\.csv$");
+				break;
+			case 2:
+				masks.add("^Report" + i + "_[0-9]{8}\\.xml$");
+				break;
+			default:
+				masks.add("^Log" + i + ".*\\.log$");
+			}
+		}
+		masks.add("^Demand(.)*\\.txt$");
+		masks.add("^Item(.)+\\.txt$");
+		return masks.subList(masks.size() - count, masks.size());
+	}
+	
+}
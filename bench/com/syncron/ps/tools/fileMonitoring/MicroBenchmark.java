@@ -0,0 +1,141 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.Locale;
+
+/**
+ * 
+ * A minimal harness for micro benchmarks run from a <code>main</code>
+ * method. Every case is warmed up first and then measured in several
+ * rounds; the mean and the best time per operation are printed, one
+ * line per case, so results of different commits can be compared
+ * with <code>diff</code>.
+ * 
+ */
+public abstract class MicroBenchmark {
+	
+	/**
+	 * An operation being measured. Returns a value so that the JIT
+	 * cannot eliminate the work.
+	 */
+	public interface Operation {
+		long run(int iteration);
+	}
+	
+	/**
+	 * A round of work of its own size, e.g. delivering a set of files
+	 * through the monitor. {@link #prepare()} is not measured;
+	 * {@link #run()} returns the number of operations done.
+	 */
+	public interface Round {
+		void prepare() throws Exception;
+		long run() throws Exception;
+	}
+	
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	private static final long ROUND_NANOS = 200000000L;
+	
+	/**
+	 * Consumes results of operations.
+	 */
+	private static long sink;
+	
+	/**
+	 * Measures the operation and prints the result.
+	 * @param name			The name of the case.
+	 * @param operation		The measured operation.
+	 */
+	protected static void measure(String name, Operation operation) {
+		int batch = calibrate(operation);
+		
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			round(operation, batch);
+		}
+		
+		double total = 0;
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			double nanos = round(operation, batch);
+			total += nanos;
+			best = Math.min(best, nanos);
+		}
+		
+		print(name, total / ROUNDS, best);
+	}
+	
+	/**
+	 * Measures rounds of work and prints the time per operation.
+	 * Rounds are not batched, so each should take at least milliseconds.
+	 * @param name			The name of the case.
+	 * @param warmup		The number of rounds not measured.
+	 * @param rounds		The number of measured rounds.
+	 * @param round			The measured work.
+	 * @throws Exception	If a round failed.
+	 */
+	protected static void measureRounds(String name, int warmup, int rounds,
+			Round round) throws Exception {
+		for (int i = 0; i < warmup; i++) {
+			round.prepare();
+			sink += round.run();
+		}
+		
+		double total = 0;
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			round.prepare();
+			long start = System.nanoTime();
+			long operations = round.run();
+			double nanos = (double) (System.nanoTime() - start) / operations;
+			sink += operations;
+			total += nanos;
+			best = Math.min(best, nanos);
+		}
+		
+		print(name, total / rounds, best);
+	}
+	
+	private static void print(String name, double mean, double best) {
+		System.out.println(String.format(Locale.ROOT,
+				"%-50s %12.1f ns/op (best %.1f)", name, mean, best));
+	}
+	
+	/**
+	 * Finds the number of operations taking about {@link #ROUND_NANOS}.
+	 */
+	private static int calibrate(Operation operation) {
+		int batch = 1;
+		while (batch < Integer.MAX_VALUE / 2) {
+			long start = System.nanoTime();
+			for (int i = 0; i < batch; i++) {
+				sink += operation.run(i);
+			}
+			if (System.nanoTime() - start > ROUND_NANOS / 10) {
+				return batch * 10;
+			}
+			batch *= 2;
+		}
+		return batch;
+	}
+	
+	/**
+	 * @return	The time per operation in nanoseconds.
+	 */
+	private static double round(Operation operation, int batch) {
+		long start = System.nanoTime();
+		long result = 0;
+		for (int i = 0; i < batch; i++) {
+			result += operation.run(i);
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += result;
+		return (double) elapsed / batch;
+	}
+	
+	/**
+	 * Prints the consumed value, so that it's observable.
+	 */
+	protected static void done() {
+		System.out.println("# sink " + sink);
+	}
+	
+}
@@ -0,0 +1,250 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Runs the whole application, started with {@link FileMonStarter} from
+ * a generated properties file, against a {@link LocalFtpServer} while
+ * a {@link LoadGenerator} creates files, and prints:
+ * <ul>
+ * <li>the numbers of created, delivered, lost, duplicated and truncated
+ * files (a truncated file was sent before the producer finished it),</li>
+ * <li>percentiles of the latency from completing a file until the server
+ * received it under the final name,</li>
+ * <li>the throughput and the monitor's own counters (lost events,
+ * retries) read from its metrics file.</li>
+ * </ul>
+ * Options are system properties, with defaults:
+ * <pre>
+ * soak.dirs=20            monitored directories
+ * soak.rate=1000          files created per second
+ * soak.duration=30000     time (ms) of creating files
+ * soak.minSize=100        minimal file size
+ * soak.maxSize=1048576    maximal file size
+ * soak.partial=0.1        fraction of files written in two steps
+ * soak.partialPause=500   pause (ms) between the steps
+ * soak.ready=stable       readiness of directories: stable or immediate
+ * soak.stableTime=1000
+ * soak.workers=8          transfer workers and pooled connections
+ * soak.batchSize=50
+ * soak.failEvery=0        every n-th upload fails transiently
+ * soak.drain=60000        maximal time (ms) to wait for deliveries
+ * </pre>
+ *
+ */
+public class SoakTest {
+
+	public static void main(String[] args) throws Exception {
+
+		int dirs = Integer.getInteger("soak.dirs", 20);
+		double rate = Double.parseDouble(System.getProperty("soak.rate", "1000"));
+		long duration = Long.getLong("soak.duration", 30000);
+		long minSize = Long.getLong("soak.minSize", 100);
+		long maxSize = Long.getLong("soak.maxSize", 1048576);
+		double partial = Double.parseDouble(System.getProperty("soak.partial", "0.1"));
+		long partialPause = Long.getLong("soak.partialPause", 500);
+		String ready = System.getProperty("soak.ready", "stable");
+		long stableTime = Long.getLong("soak.stableTime", 1000);
+		int workers = Integer.getInteger("soak.workers", 8);
+		int batchSize = Integer.getInteger("soak.batchSize", 50);
+		int failEvery = Integer.getInteger("soak.failEvery", 0);
+		long drain = Long.getLong("soak.drain", 60000);
+
+		Path work = Files.createTempDirectory("soak");
+		List<Path> directories = new ArrayList<Path>();
+		for (int i = 0; i < dirs; i++) {
+			directories.add(Files.createDirectory(work.resolve("dir" + i)));
+		}
+		final LoadGenerator generator = new LoadGenerator(directories, minSize, maxSize,
+				partial, partialPause);
+
+		// The server records the first reception of every file
+		final Map<String, Long> received = new ConcurrentHashMap<String, Long>();
+		final ConcurrentHashMap<String, AtomicInteger> receptions =
+				new ConcurrentHashMap<String, AtomicInteger>();
+		final AtomicInteger truncated = new AtomicInteger();
+		LocalFtpServer server = new LocalFtpServer(0, new LocalFtpServer.Listener() {
+			@Override
+			public void received(String directory, String name, long size) {
+				long now = System.nanoTime();
+				AtomicInteger count = new AtomicInteger();
+				AtomicInteger previous = receptions.putIfAbsent(name, count);
+				(previous == null ? count : previous).incrementAndGet();
+				if (previous == null) {
+					received.put(name, now);
+				}
+				Integer expected = generator.getSize(name);
+				if (expected != null && expected != size) {
+					truncated.incrementAndGet();
+				}
+			}
+		});
+		server.setFailEvery(failEvery);
+		server.start();
+
+		Path metrics = work.resolve("metrics.prom");
+		Path properties = writeProperties(work, directories, server.getPort(), ready,
+				stableTime, workers, batchSize, metrics);
+		new FileMonStarter().start(properties.toString());
+		Thread.sleep(1000);
+
+		long start = System.nanoTime();
+		long created = generator.run(rate, duration);
+		generator.finish();
+		long generated = System.nanoTime() - start;
+
+		// Wait until deliveries stop arriving
+		long deadline = System.currentTimeMillis() + drain;
+		while (received.size() < created && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// Duplicates may arrive later
+		Thread.sleep(2000);
+
+		report(generator, created, generated, elapsed, received, receptions,
+				truncated.get(), metrics);
+		delete(work);
+		System.exit(0);
+	}
+
+	/**
+	 * Deletes the working directory with all generated files.
+	 */
+	private static void delete(Path work) throws IOException {
+		Files.walkFileTree(work, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+					throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e)
+					throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void report(LoadGenerator generator, long created, long generated,
+			long elapsed, Map<String, Long> received,
+			Map<String, AtomicInteger> receptions, int truncated, Path metrics)
+			throws IOException {
+
+		long[] latencies = new long[received.size()];
+		int n = 0;
+		for (Map.Entry<String, Long> entry : received.entrySet()) {
+			Long completed = generator.getCompletionTime(entry.getKey());
+			if (completed != null) {
+				latencies[n++] = Math.max(0, entry.getValue() - completed) / 1000000;
+			}
+		}
+		latencies = Arrays.copyOf(latencies, n);
+		Arrays.sort(latencies);
+
+		int duplicates = 0;
+		for (AtomicInteger count : receptions.values()) {
+			duplicates += count.get() - 1;
+		}
+
+		print("created", created);
+		print("created per second", Math.round(created * 1e9 / generated));
+		print("delivered", received.size());
+		print("lost", created - received.size());
+		print("duplicates", duplicates);
+		print("truncated", truncated);
+		print("latency p50 (ms)", percentile(latencies, 50));
+		print("latency p99 (ms)", percentile(latencies, 99));
+		print("latency max (ms)", percentile(latencies, 100));
+		print("delivered per second", Math.round(received.size() * 1e9 / elapsed));
+		print("MB written", generator.getBytes() / 1048576);
+
+		if (Files.exists(metrics)) {
+			for (String line : Files.readAllLines(metrics, StandardCharsets.UTF_8)) {
+				if (line.startsWith("filemonitor_events_lost_total")
+						|| line.startsWith("filemonitor_files_retried_total")
+						|| line.startsWith("filemonitor_files_given_up_total")
+						|| line.startsWith("filemonitor_files_failed_total")) {
+					System.out.println(line);
+				}
+			}
+		}
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static void print(String name, long value) {
+		System.out.println(String.format(Locale.ROOT, "%-30s %12d", name, value));
+	}
+
+	/**
+	 * Writes a properties file monitoring all directories and sending
+	 * files over FTP to the local server, and a log configuration
+	 * logging warnings only.
+	 */
+	private static Path writeProperties(Path work, List<Path> directories, int port,
+			String ready, long stableTime, int workers, int batchSize, Path metrics)
+			throws IOException {
+
+		Path log = work.resolve("log4j.properties");
+		Files.write(log, Arrays.asList(
+				"log4j.rootLogger=WARN, console",
+				"log4j.appender.console=org.apache.log4j.ConsoleAppender",
+				"log4j.appender.console.layout=org.apache.log4j.PatternLayout",
+				"log4j.appender.console.layout.ConversionPattern=%d [%t] %-5p %c - %m%n"),
+				StandardCharsets.UTF_8);
+
+		StringBuilder xml = new StringBuilder();
+		xml.append("<properties>\n");
+		xml.append("\t<connection name=\"local\" protocol=\"ftp\">\n");
+		xml.append("\t\t<user>soak</user>\n");
+		xml.append("\t\t<password>soak</password>\n");
+		xml.append("\t\t<host>127.0.0.1</host>\n");
+		xml.append("\t\t<port>").append(port).append("</port>\n");
+		xml.append("\t\t<poolSize>").append(workers).append("</poolSize>\n");
+		xml.append("\t\t<workers>").append(workers).append("</workers>\n");
+		xml.append("\t\t<batchSize>").append(batchSize).append("</batchSize>\n");
+		xml.append("\t</connection>\n");
+		xml.append("\t<log configFile=\"").append(log).append("\" />\n");
+		xml.append("\t<metrics file=\"").append(metrics).append("\" interval=\"1000\" />\n");
+		xml.append("\t<retry initialDelay=\"200\" maxDelay=\"2000\" maxAttempts=\"20\" />\n");
+		for (int i = 0; i < directories.size(); i++) {
+			xml.append("\t<dir local=\"").append(directories.get(i))
+					.append("\" remote=\"/soak/dir").append(i)
+					.append("\" ready=\"").append(ready)
+					.append("\" stableTime=\"").append(stableTime).append("\">\n");
+			xml.append("\t\t<mask>^Item(.)+\\.txt$</mask>\n");
+			xml.append("\t</dir>\n");
+		}
+		xml.append("</properties>\n");
+
+		Path properties = work.resolve("properties.xml");
+		Files.write(properties, xml.toString().getBytes(StandardCharsets.UTF_8));
+		return properties;
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Measures delivering files through the whole transfer stage: dispatch,
+ * transfer workers, batching, the sender and recording the delivery.
+ * The time per operation is the time per delivered file.
+ * <br/>
+ * By default files are sent to a sender doing nothing, so the overhead
+ * of the monitor itself is measured. A real FTP server is used in
+ * addition if the system property {@value #FTP_PROPERTY} is set to
+ * <code>user:password@host:port/remote/dir</code>, e.g. a
+ * {@link LocalFtpServer} started from its <code>main</code> method.
+ *
+ */
+public class TransferBenchmark extends MicroBenchmark {
+
+	/**
+	 * The system property with the FTP server to send files to.
+	 */
+	private static final String FTP_PROPERTY = "bench.ftp";
+
+	private static final int FILES = 2000;
+	private static final int FTP_FILES = 200;
+	private static final int FILE_SIZE = 4096;
+
+	public static void main(String[] args) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		for (int workers : new int[] { 1, 4 }) {
+			for (int batchSize : new int[] { 1, 50 }) {
+				run("transfer, stub sender", new StubSender(), "/remote", FILES,
+						workers, batchSize);
+			}
+		}
+
+		String ftp = System.getProperty(FTP_PROPERTY);
+		if (ftp != null) {
+			String credentials = ftp.substring(0, ftp.lastIndexOf('@'));
+			String address = ftp.substring(ftp.lastIndexOf('@') + 1);
+			String hostPort = address.contains("/")
+					? address.substring(0, address.indexOf('/')) : address;
+			String remoteDir = address.contains("/")
+					? address.substring(address.indexOf('/')) : "/";
+			String[] userPassword = credentials.split(":", 2);
+			String[] host = hostPort.split(":");
+			FTPFileSender sender = new FTPFileSender(userPassword[0], userPassword[1],
+					host[0], host.length > 1 ? Integer.parseInt(host[1]) : 21);
+			for (int batchSize : new int[] { 1, 50 }) {
+				run("transfer, FTP", sender, remoteDir, FTP_FILES, 4, batchSize);
+			}
+			sender.close();
+		}
+		done();
+	}
+
+	/**
+	 * Delivers a set of files through a monitor in every round.
+	 * Files are touched before each round, so they are sent again.
+	 * A round ends when every file has been sent once; failed files
+	 * are retried before the next round.
+	 */
+	private static void run(String name, final FileSender sender, String remoteDir,
+			int count, int workers, int batchSize) throws Exception {
+
+		Path directory = Files.createTempDirectory("transfer-bench");
+		final List<Path> files = new ArrayList<Path>();
+		byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < count; i++) {
+			files.add(Files.write(directory.resolve("Item" + i + ".txt"), content));
+		}
+		MonitoredDirectory mapping = new MonitoredDirectory(directory.toString(), remoteDir);
+		mapping.registerMask("^Item(.)+\\.txt$");
+		Map<Path, MonitoredDirectory> directories =
+				Collections.singletonMap(directory, mapping);
+
+		final CountingSender counting = new CountingSender(sender);
+		final FileMonitor monitor = new FileMonitor(directories, counting, workers);
+		final Destination destination = monitor.getDestination(Destination.DEFAULT_NAME);
+		destination.setBatching(batchSize, 20);
+		destination.getRetryScheduler().setInitialDelay(10);
+		destination.getRetryScheduler().start();
+
+		measureRounds(name + ", " + workers + " worker(s), batches of " + batchSize,
+				2, 5, new Round() {
+
+			private long version = System.currentTimeMillis() - 3600000;
+
+			@Override
+			public void prepare() throws Exception {
+				// Deliveries of the previous round are recorded after sending
+				while (monitor.getPendingCount() > 0) {
+					Thread.sleep(1);
+				}
+				version += 1000;
+				for (Path file : files) {
+					Files.setLastModifiedTime(file, FileTime.fromMillis(version));
+				}
+				counting.expect(files.size());
+			}
+
+			@Override
+			public long run() throws Exception {
+				for (Path file : files) {
+					monitor.dispatch(file);
+				}
+				counting.await();
+				return files.size();
+			}
+		});
+
+		destination.shutdown();
+		for (Path file : files) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * A sender doing nothing.
+	 */
+	private static class StubSender extends AbstractFileSender {
+
+		@Override
+		public void transferFile(Path path, String remoteDir, Compression compression) {
+		}
+	}
+
+	/**
+	 * Counts down files passed to another sender, so that a round
+	 * can wait for all of them.
+	 */
+	private static class CountingSender extends AbstractFileSender {
+
+		private final FileSender sender;
+
+		private volatile CountDownLatch latch;
+
+		CountingSender(FileSender sender) {
+			this.sender = sender;
+		}
+
+		void expect(int files) {
+			latch = new CountDownLatch(files);
+		}
+
+		void await() throws InterruptedException {
+			if (!latch.await(10, TimeUnit.MINUTES)) {
+				throw new IllegalStateException(latch.getCount() + " file(s) not delivered");
+			}
+		}
+
+		@Override
+		public void transferFile(Path path, String remoteDir, Compression compression)
+				throws TransferFailedException {
+			try {
+				sender.transferFile(path, remoteDir, compression);
+			} finally {
+				latch.countDown();
+			}
+		}
+
+		@Override
+		public void transferFiles(List<Path> paths, String remoteDir,
+				Compression compression) throws BatchTransferException {
+			try {
+				sender.transferFiles(paths, remoteDir, compression);
+			} finally {
+				for (int i = 0; i < paths.size(); i++) {
+					latch.countDown();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 
+ * A base for implementations of FileSender. A file is transferred
+ * without compression by default, and a batch is transferred by calling
+ * {@link #transferFile(Path, String, Compression)} for each file.
+ * Implementations able to transfer batches at once override
+ * {@link #transferFiles(List, String, Compression)}.
+ * <br/>
+ * Implementations uploading through a temporary remote file may verify
+ * and resume uploads. With verification on, the size of the temporary
+ * file (and its checksum, if the server can compute one) is compared
+ * with the data read before it's renamed. With resuming on, an upload
+ * failed midway continues from the size of the temporary file, as long
+ * as the local file hasn't been modified since the failed upload started.
+ * <br/>
+ * Uploads reading local files through {@link #open(Path, Compression)}
+ * can be aborted, e.g. at shutdown, and throttled: with a
+ * {@link #setThrottle(TokenBucket) throttle} set, every chunk read is
+ * charged to it, so the upload itself runs at the limited rate.
+ * 
+ */
+public abstract class AbstractFileSender implements FileSender {
+	
+	private volatile boolean verify = false;
+	
+	private volatile boolean resume = false;
+	
+	private volatile boolean aborted = false;
+	
+	/**
+	 * Limits the number of bytes read per second, {@code null} if unlimited.
+	 */
+	private volatile TokenBucket throttle;
+	
+	/**
+	 * Times of last modification of local files whose uploads have been
+	 * started and not completed, recorded when the uploads started.
+	 */
+	private final ConcurrentMap<Path, Long> partialUploads =
+			new ConcurrentHashMap<Path, Long>();
+	
+	@Override
+	public void transferFile(Path path, String remoteDir)
+			throws TransferFailedException {
+		transferFile(path, remoteDir, Compression.NONE);
+	}
+	
+	@Override
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) throws BatchTransferException {
+		
+		Map<Path, TransferFailedException> failures =
+				new LinkedHashMap<Path, TransferFailedException>();
+		
+		for (Path path : paths) {
+			try {
+				transferFile(path, remoteDir, compression);
+			} catch (TransferFailedException e) {
+				failures.put(path, e);
+			}
+		}
+		
+		if (!failures.isEmpty()) {
+			throw new BatchTransferException(failures);
+		}
+	}
+	
+	/**
+	 * Releases resources of the sender, e.g. after it's been replaced.
+	 * Transfers in progress are finished. Does nothing by default.
+	 */
+	public void close() {
+	}
+	
+	/**
+	 * Makes uploads in progress fail at their next read of the local
+	 * file, and later uploads fail at once. An upload through a temporary
+	 * remote file leaves it behind, to be replaced or resumed by the next
+	 * upload of the file.
+	 */
+	public void abort() {
+		aborted = true;
+	}
+	
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	/**
+	 * Opens a local file for an upload, compressed if needed. Reads fail
+	 * once the sender has been aborted, and wait for the throttle.
+	 * @param path			The local file.
+	 * @param compression	The compression of the upload.
+	 * @return				The data to upload.
+	 * @throws IOException	If the file cannot be read.
+	 */
+	protected InputStream open(Path path, Compression compression) throws IOException {
+		checkAborted();
+		return new FilterInputStream(compression.open(path)) {
+			@Override
+			public int read() throws IOException {
+				checkAborted();
+				int b = super.read();
+				if (b >= 0) {
+					throttle(1);
+				}
+				return b;
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				checkAborted();
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					throttle(n);
+				}
+				return n;
+			}
+		};
+	}
+	
+	/**
+	 * Charges bytes read to the throttle, waiting while it's in debt.
+	 * Does nothing without a throttle.
+	 * @param count		The number of bytes read.
+	 * @throws IOException	If interrupted while waiting.
+	 */
+	protected void throttle(long count) throws IOException {
+		TokenBucket throttle = this.throttle;
+		if (throttle == null) {
+			return;
+		}
+		try {
+			throttle.acquire(count);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Upload interrupted.");
+		}
+	}
+	
+	/**
+	 * @throws IOException	If the sender has been aborted.
+	 */
+	protected void checkAborted() throws IOException {
+		if (aborted) {
+			throw new IOException("Upload aborted.");
+		}
+	}
+	
+	/**
+	 * @return	Times of opening connections to the remote host,
+	 * 			{@code null} if the sender doesn't measure them.
+	 */
+	public LatencyHistogram getConnectTimes() {
+		return null;
+	}
+	
+	/**
+	 * Records that an upload of a file to a temporary remote file starts.
+	 * Does nothing unless resuming is on.
+	 * @param path	The local file.
+	 * @throws IOException	If the file cannot be read.
+	 */
+	protected void uploadStarted(Path path) throws IOException {
+		if (resume) {
+			partialUploads.put(path, Files.getLastModifiedTime(path).toMillis());
+		}
+	}
+	
+	/**
+	 * Records that an upload of a file completed, or that its temporary
+	 * remote file has been discarded.
+	 * @param path	The local file.
+	 */
+	protected void uploadFinished(Path path) {
+		partialUploads.remove(path);
+	}
+	
+	/**
+	 * Gets the offset an upload of a file can be resumed from.
+	 * @param path			The local file.
+	 * @param partialSize	The size of the temporary remote file,
+	 * 						-1 if there is none.
+	 * @return				The size of the temporary file if resuming is on,
+	 * 						an upload of the local file started earlier and
+	 * 						the file hasn't been modified or shrunk since,
+	 * 						0 otherwise.
+	 * @throws IOException	If the file cannot be read.
+	 */
+	protected long getResumeOffset(Path path, long partialSize) throws IOException {
+		if (!resume || partialSize <= 0) {
+			return 0;
+		}
+		Long started = partialUploads.get(path);
+		if (started == null
+				|| started != Files.getLastModifiedTime(path).toMillis()
+				|| partialSize > Files.size(path)) {
+			return 0;
+		}
+		return partialSize;
+	}
+	
+	public TokenBucket getThrottle() {
+		return throttle;
+	}
+	
+	/**
+	 * Limits the rate of reading local files for uploads. The bucket may
+	 * be shared by several senders, and its rate changed at any time.
+	 * @param throttle	Tokens are bytes, {@code null} if unlimited.
+	 */
+	public void setThrottle(TokenBucket throttle) {
+		this.throttle = throttle;
+	}
+	
+	public boolean isVerify() {
+		return verify;
+	}
+	
+	/**
+	 * Turns verification of uploaded files on or off.
+	 * @param verify	{@code true} to compare the remote size (and checksum,
+	 * 					if supported) with the data read.
+	 */
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+	
+	public boolean isResume() {
+		return resume;
+	}
+	
+	/**
+	 * Turns resuming of failed uploads on or off.
+	 * @param resume	{@code true} to continue a failed upload from the size
+	 * 					of its temporary remote file.
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+		if (!resume) {
+			partialUploads.clear();
+		}
+	}
+	
+}
@@ -0,0 +1,39 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 
+ * An exception thrown when transfers of some files of a batch failed.
+ * Files of the batch without a failure have been transferred.
+ * 
+ */
+public class BatchTransferException extends Exception {
+
+	private static final long serialVersionUID = 4181936416524187374L;
+
+	/**
+	 * The files transfer of which failed, with the failure of each.
+	 */
+	private Map<Path, TransferFailedException> failures;
+	
+	/**
+	 * The constructor sets the failed files.
+	 * @param failures	The files transfer of which failed, with
+	 * 					the failure of each.
+	 */
+	public BatchTransferException(Map<Path, TransferFailedException> failures) {
+		this.failures = failures;
+	}
+	
+	@Override
+	public String getMessage() {
+		return "Transfer of " + failures.size() + " file(s) of the batch failed.";
+	}
+	
+	public Map<Path, TransferFailedException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+}
@@ -0,0 +1,111 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * An input stream computing the MD5 digest and counting the bytes of
+ * another stream as it's read, so an upload is checksummed in the same
+ * pass that reads the file. Skipped bytes are read as well, so the digest
+ * covers the whole stream even if a part of it isn't sent.
+ *
+ */
+public class ChecksumInputStream extends FilterInputStream {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest digest;
+
+	private long count = 0;
+
+	/**
+	 * The constructor wraps the source stream.
+	 * @param in	The data being checksummed.
+	 */
+	public ChecksumInputStream(InputStream in) {
+		super(in);
+		try {
+			this.digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0) {
+			digest.update((byte) b);
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) {
+			digest.update(b, off, n);
+			count += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Reads and checksums up to {@code n} bytes without returning them.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(n, 64 * 1024)];
+		long skipped = 0;
+		while (skipped < n) {
+			int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+			if (read < 0) {
+				break;
+			}
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark not supported.");
+	}
+
+	/**
+	 * @return	The number of bytes read or skipped so far.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Completes the digest; call once, after reading the whole stream.
+	 * @return	The MD5 digest of all bytes read, in lowercase hexadecimal.
+	 */
+	public String getChecksum() {
+		byte[] bytes = digest.digest();
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+}
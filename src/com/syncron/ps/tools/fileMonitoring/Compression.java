@@ -0,0 +1,94 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+/**
+ *
+ * Describes how files of a monitored directory are compressed on the way
+ * to the remote side and how compressed files are named there. Files are
+ * compressed while being uploaded, see {@link #open(Path)}.
+ * <br/>
+ * Only gzip is supported.
+ *
+ */
+public class Compression {
+
+	/**
+	 * The name of the gzip codec.
+	 */
+	public static final String GZIP = "gzip";
+
+	/**
+	 * The default suffix of gzipped files.
+	 */
+	public static final String GZIP_SUFFIX = ".gz";
+
+	/**
+	 * Files are sent as they are.
+	 */
+	public static final Compression NONE = new Compression(null, "", 0);
+
+	private final String codec;
+	private final String suffix;
+	private final int level;
+
+	private Compression(String codec, String suffix, int level) {
+		this.codec = codec;
+		this.suffix = suffix;
+		this.level = level;
+	}
+
+	/**
+	 * Creates a compression of the given codec.
+	 * @param codec		The name of the codec, only {@value #GZIP}.
+	 * @param suffix	The suffix appended to remote file names,
+	 * 					or {@code null} for the default one.
+	 * @param level		The compression level, from 1 (fastest) to 9
+	 * 					(smallest), or -1 for the default one.
+	 * @return			The compression.
+	 * @throws IllegalArgumentException		If the codec is not supported.
+	 */
+	public static Compression forName(String codec, String suffix, int level) {
+		if (!GZIP.equalsIgnoreCase(codec)) {
+			throw new IllegalArgumentException("Unsupported compression " + codec);
+		}
+		return new Compression(GZIP, suffix == null ? GZIP_SUFFIX : suffix,
+				level < 0 ? Deflater.DEFAULT_COMPRESSION : level);
+	}
+
+	/**
+	 * @return	{@code true} if files are compressed.
+	 */
+	public boolean isEnabled() {
+		return codec != null;
+	}
+
+	/**
+	 * Opens a local file for an upload.
+	 * @param file	The path to the local file.
+	 * @return		A stream of the compressed content of the file.
+	 * @throws IOException	If the file cannot be opened.
+	 */
+	public InputStream open(Path file) throws IOException {
+		InputStream in = Files.newInputStream(file);
+		return isEnabled() ? new GzipCompressingInputStream(in, level) : in;
+	}
+
+	/**
+	 * @param name	The name of a local file.
+	 * @return		The name of the file on the remote side.
+	 */
+	public String getRemoteName(String name) {
+		return name + suffix;
+	}
+
+	@Override
+	public String toString() {
+		return isEnabled() ? codec : "none";
+	}
+
+}
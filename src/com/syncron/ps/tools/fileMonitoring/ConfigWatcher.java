@@ -0,0 +1,126 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Watches a configuration file and calls a listener when it changes.
+ * The file's time of modification and size are checked every
+ * {@link #interval} milliseconds; a change is reported once they stayed
+ * the same for one interval, so a file still being written is not read.
+ * A change is thus reported one to two intervals after the last write.
+ * <br/>
+ * The file is polled rather than watched, so that editors replacing it
+ * by renaming a new file over it, and files on network shares, are
+ * handled alike. A missing file is not a change, e.g. while an editor
+ * replaces it. The listener is called on the watcher's thread, one call
+ * at a time.
+ *
+ */
+public class ConfigWatcher {
+
+	public static final Logger logger = Logger.getLogger(ConfigWatcher.class);
+
+	private final Path file;
+
+	private final long interval;
+
+	private final Runnable listener;
+
+	private ScheduledExecutorService timer;
+
+	/**
+	 * The version of the file reported last (or read at start).
+	 */
+	private String reported;
+
+	/**
+	 * The version of the file seen by the previous check.
+	 */
+	private String previous;
+
+	/**
+	 * @param file		The path to the watched file.
+	 * @param interval	The interval (in milliseconds) of checks.
+	 * @param listener	Called when the file changes.
+	 */
+	public ConfigWatcher(Path file, long interval, Runnable listener) {
+		this.file = file;
+		this.interval = interval;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts checking the file. The current version of the file is not
+	 * reported, it's assumed to be already read.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		reported = version();
+		previous = reported;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "config-watcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+		logger.info("Watching " + file + " for changes every " + interval + " ms.");
+	}
+
+	/**
+	 * Stops checking the file. A listener being called finishes.
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.shutdown();
+			timer = null;
+		}
+	}
+
+	private void check() {
+		String current = version();
+		if (current != null && current.equals(previous) && !current.equals(reported)) {
+			reported = current;
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				logger.error("Cannot apply changes of " + file + ".", e);
+			}
+		}
+		previous = current;
+	}
+
+	/**
+	 * @return	The time of modification and the size of the file,
+	 * 			{@code null} if it cannot be read.
+	 */
+	private String version() {
+		try {
+			BasicFileAttributes attributes =
+					Files.readAttributes(file, BasicFileAttributes.class);
+			return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
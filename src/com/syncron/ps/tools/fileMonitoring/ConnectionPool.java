@@ -0,0 +1,373 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * A bounded pool of authenticated connections to a single host.
+ * Connections are kept alive between transfers, checked before being
+ * handed out again and closed after staying idle longer than
+ * {@link #idleTimeout}. Subclasses open, check and close connections
+ * of their protocol.
+ * <br/>
+ * Idle connections are reused in LIFO order, so that a steady stream
+ * of files keeps going over the most recently used (warm) connections
+ * and the surplus ones can expire. Connections are opened, checked and
+ * closed outside of the pool's lock, so a server that stopped answering
+ * only holds up the thread talking to it.
+ *
+ * @param <C>	The type of pooled connections.
+ */
+public abstract class ConnectionPool<C extends ConnectionPool.Connection> {
+
+	public static final Logger logger = Logger.getLogger(ConnectionPool.class);
+
+	/**
+	 * The default maximum number of connections opened to the host.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+	/**
+	 * The default time (in milliseconds) after which an idle connection
+	 * is closed.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	/**
+	 * The default interval (in milliseconds) after which an idle connection
+	 * is checked before reuse.
+	 */
+	public static final int DEFAULT_KEEP_ALIVE_INTERVAL = 15000;
+
+	protected final String user;
+	protected final String password;
+	protected final String host;
+	protected final Integer port;
+
+	/**
+	 * The protocol, used in names of threads.
+	 */
+	private final String protocol;
+
+	private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile int keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+
+	/**
+	 * Idle connections, the most recently used first.
+	 * Guarded by {@code this}.
+	 */
+	private final Deque<C> idle = new ArrayDeque<C>();
+
+	/**
+	 * The number of opened connections, both idle and borrowed.
+	 * Guarded by {@code this}.
+	 */
+	private int opened = 0;
+
+	/**
+	 * Times of opening new connections.
+	 */
+	private final LatencyHistogram connectTimes = new LatencyHistogram();
+
+	private boolean closed = false;
+
+	private ScheduledExecutorService evictor;
+
+	/**
+	 * The constructor sets connection details. No connection is opened
+	 * until the first call to {@link #borrow()}.
+	 * @param protocol		The protocol, e.g. {@code ftp}.
+	 * @param user			The user name.
+	 * @param password		The password.
+	 * @param host			The host name or IP address.
+	 * @param port			The port number.
+	 */
+	protected ConnectionPool(String protocol, String user, String password,
+			String host, Integer port) {
+		this.protocol = protocol;
+		this.user = user;
+		this.password = password;
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Opens and authenticates a new connection.
+	 * @return	The connection.
+	 * @throws IOException	If the connection cannot be opened.
+	 */
+	protected abstract C open() throws IOException;
+
+	/**
+	 * Makes a cheap round trip to make sure the server still answers.
+	 * @param connection	A connected connection.
+	 * @return				{@code true} if the connection can be used.
+	 */
+	protected abstract boolean isHealthy(C connection);
+
+	/**
+	 * Closes a connection, ignoring errors.
+	 * @param connection	The connection.
+	 */
+	protected abstract void disconnect(C connection);
+
+	/**
+	 * Gets a healthy connection from the pool. If there is no idle
+	 * connection and the limit {@link #maxConnections} is not reached,
+	 * a new one is opened; otherwise the method waits until some
+	 * connection is released.
+	 * <br/>
+	 * The connection must be given back with {@link #release(Connection)}
+	 * or, if it is broken, {@link #invalidate(Connection)}.
+	 * @return	An open connection.
+	 * @throws IOException			If a new connection cannot be opened.
+	 * @throws InterruptedException	If interrupted while waiting.
+	 */
+	public C borrow() throws IOException, InterruptedException {
+
+		evictIdle();
+		while (true) {
+			C connection;
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("Connection pool to " + host + " is closed.");
+				}
+				connection = idle.pollFirst();
+				if (connection == null) {
+					if (opened < maxConnections) {
+						opened++;
+						break;
+					}
+					wait();
+					continue;
+				}
+			}
+			// Check the connection outside of the lock - it may take a round trip
+			if (connection.isConnected()
+					&& (System.currentTimeMillis() - connection.getLastUsed() < keepAliveInterval
+							|| isHealthy(connection))) {
+				return connection;
+			}
+			logger.debug("Discarding a broken connection to " + host);
+			invalidate(connection);
+		}
+
+		// Open a new connection outside of the lock - it takes a login
+		try {
+			long start = System.currentTimeMillis();
+			C connection = open();
+			connectTimes.record(System.currentTimeMillis() - start);
+			logger.debug("Opened a new connection to " + host);
+			startEvictor();
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				opened--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool.
+	 * @param connection	The connection obtained from {@link #borrow()}.
+	 */
+	public void release(C connection) {
+		synchronized (this) {
+			if (!closed && connection.isConnected()) {
+				connection.touch();
+				idle.addFirst(connection);
+				notifyAll();
+				return;
+			}
+		}
+		invalidate(connection);
+	}
+
+	/**
+	 * Closes a borrowed connection that should not be used anymore,
+	 * e.g. after it has been dropped.
+	 * @param connection	The connection obtained from {@link #borrow()}.
+	 */
+	public void invalidate(C connection) {
+		synchronized (this) {
+			opened--;
+			notifyAll();
+		}
+		disconnect(connection);
+	}
+
+	/**
+	 * Closes all idle connections and rejects further borrowing.
+	 * Connections borrowed at the moment are closed when released.
+	 */
+	public void close() {
+		List<C> closing;
+		synchronized (this) {
+			closed = true;
+			closing = new ArrayList<C>(idle);
+			idle.clear();
+			opened -= closing.size();
+			if (evictor != null) {
+				evictor.shutdownNow();
+			}
+			notifyAll();
+		}
+		for (C connection : closing) {
+			disconnect(connection);
+		}
+	}
+
+	/**
+	 * Closes idle connections that exceeded {@link #idleTimeout}.
+	 * The oldest connections are at the end of {@link #idle}. They are
+	 * taken out under the lock and disconnected after leaving it.
+	 */
+	private void evictIdle() {
+		List<C> expired = new ArrayList<C>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<C> iterator = idle.descendingIterator();
+			while (iterator.hasNext()) {
+				C connection = iterator.next();
+				if (now - connection.getLastUsed() < idleTimeout) {
+					break;
+				}
+				iterator.remove();
+				expired.add(connection);
+			}
+			if (!expired.isEmpty()) {
+				opened -= expired.size();
+				notifyAll();
+			}
+		}
+		for (C connection : expired) {
+			logger.debug("Closing a connection to " + host + " idle for "
+					+ (now - connection.getLastUsed()) + " ms.");
+			disconnect(connection);
+		}
+	}
+
+	/**
+	 * Starts the background thread closing idle connections,
+	 * so that they don't linger when no files arrive.
+	 */
+	private synchronized void startEvictor() {
+		if (evictor != null || closed) {
+			return;
+		}
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, protocol + "-evictor-" + host);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(idleTimeout / 2, 1000);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public LatencyHistogram getConnectTimes() {
+		return connectTimes;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the maximum number of connections opened to the host.
+	 * @param maxConnections	A positive number.
+	 */
+	public synchronized void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		this.maxConnections = maxConnections;
+		notifyAll();
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public int getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	/**
+	 * Sets the time after which an idle connection is checked with
+	 * a round trip before reuse.
+	 * @param keepAliveInterval	The interval in milliseconds.
+	 */
+	public void setKeepAliveInterval(int keepAliveInterval) {
+		this.keepAliveInterval = keepAliveInterval;
+	}
+
+	/**
+	 *
+	 * A connection handed out by a pool.
+	 *
+	 */
+	public abstract static class Connection {
+
+		private final RemoteDirectoryCache directories;
+		private long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * @param home	The current directory right after logging in,
+		 * 				which relative remote directories are resolved
+		 * 				against.
+		 */
+		protected Connection(String home) {
+			directories = new RemoteDirectoryCache(home);
+		}
+
+		/**
+		 * @return	Remote directories known to exist over this connection.
+		 */
+		public RemoteDirectoryCache getDirectories() {
+			return directories;
+		}
+
+		long getLastUsed() {
+			return lastUsed;
+		}
+
+		void touch() {
+			lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return	{@code true} if the connection hasn't been closed, as
+		 * 			far as known locally, without a round trip.
+		 */
+		abstract boolean isConnected();
+	}
+
+}
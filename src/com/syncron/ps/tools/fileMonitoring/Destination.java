@@ -0,0 +1,167 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+/**
+ *
+ * A named remote host files are delivered to. Every destination has
+ * its own sender (and so its own connection pool), transfer workers,
+ * batches and retries, so that a slow or unreachable host doesn't hold
+ * back deliveries to the other ones.
+ * <br/>
+ * Destinations are created with
+ * {@link FileMonitor#addDestination(String, FileSender, int)}.
+ *
+ */
+public class Destination {
+
+	/**
+	 * The name of the destination used when only one is configured.
+	 */
+	public static final String DEFAULT_NAME = "default";
+
+	private final String name;
+
+	private final FileSender sender;
+
+	private final TransferExecutor executor;
+
+	private final RetryScheduler retryScheduler;
+
+	private final DestinationMetrics metrics;
+
+	/**
+	 * Collects files into batches, {@code null} if files are
+	 * transferred one by one.
+	 */
+	private volatile TransferBatcher batcher;
+
+	private final FileMonitor monitor;
+
+	private volatile boolean aborted = false;
+
+	/**
+	 * The constructor creates transfer workers of the destination.
+	 * @param monitor	The monitor files are delivered by.
+	 * @param name		The name of the destination.
+	 * @param sender	The sender transferring files to the destination.
+	 * @param workers	The number of transfer worker threads.
+	 */
+	Destination(FileMonitor monitor, String name, FileSender sender, int workers) {
+		this.monitor = monitor;
+		this.name = name;
+		this.sender = sender;
+		this.executor = new TransferExecutor(name, workers);
+		this.retryScheduler = new RetryScheduler(monitor, this);
+		this.metrics = new DestinationMetrics(this);
+	}
+
+	/**
+	 * Enables transferring files of a directory in batches over one
+	 * connection. If batching is changed while the monitor runs, open
+	 * batches are submitted right away.
+	 * @param maxFiles	The maximum number of files in a batch,
+	 * 					1 transfers files one by one.
+	 * @param linger	The maximum time (in milliseconds) a file waits
+	 * 					for a batch to fill up.
+	 */
+	public synchronized void setBatching(int maxFiles, long linger) {
+		TransferBatcher previous = batcher;
+		this.batcher = maxFiles > 1
+				? new TransferBatcher(monitor, this, maxFiles, linger) : null;
+		if (previous != null) {
+			previous.shutdown();
+		}
+	}
+
+	/**
+	 * Changes the number of transfer worker threads.
+	 * @param workers	The number of worker threads.
+	 */
+	public void setWorkers(int workers) {
+		executor.setThreads(workers);
+	}
+
+	/**
+	 * @return	The number of files waiting for a transfer worker
+	 * 			of this destination.
+	 */
+	public int getQueueSize() {
+		int size = executor.getQueueSize();
+		return batcher == null ? size : size + batcher.size();
+	}
+
+	/**
+	 * Stops retries and batching, and lets workers finish transfers
+	 * already enqueued.
+	 */
+	void shutdown() {
+		retryScheduler.stop();
+		TransferBatcher batcher = this.batcher;
+		if (batcher != null) {
+			batcher.shutdown();
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Aborts transfers still running after {@link #shutdown()} and drops
+	 * the enqueued ones. Their files stay pending.
+	 * @return	The number of dropped transfers.
+	 */
+	int abort() {
+		aborted = true;
+		if (sender instanceof AbstractFileSender) {
+			((AbstractFileSender) sender).abort();
+		}
+		return executor.shutdownNow();
+	}
+
+	/**
+	 * @return	{@code true} if transfers have been aborted by {@link #abort()}.
+	 */
+	boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Closes the sender, once transfers of the destination are finished.
+	 */
+	void close() {
+		if (sender instanceof AbstractFileSender) {
+			((AbstractFileSender) sender).close();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FileSender getSender() {
+		return sender;
+	}
+
+	TransferExecutor getExecutor() {
+		return executor;
+	}
+
+	TransferBatcher getBatcher() {
+		return batcher;
+	}
+
+	/**
+	 * @return	The scheduler of retries, to be configured before
+	 * 			{@link FileMonitor#processEvents()}.
+	 */
+	public RetryScheduler getRetryScheduler() {
+		return retryScheduler;
+	}
+
+	public DestinationMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+/**
+ *
+ * The management interface of a {@link Destination}, registered by
+ * {@link MetricsExporter#registerMBeans()}. Times are in milliseconds.
+ * Limits of transfers can be changed only if the sender of the destination
+ * is a {@link ThrottledFileSender}; otherwise they read as 0 and setting
+ * them has no effect.
+ *
+ */
+public interface DestinationMXBean {
+
+	long getFilesDelivered();
+
+	long getFilesFailed();
+
+	long getFilesRetried();
+
+	long getFilesGivenUp();
+
+	long getBytesSent();
+
+	int getQueueSize();
+
+	int getRetryQueueSize();
+
+	double getMeanDeliveryTime();
+
+	long getDeliveryTime99thPercentile();
+
+	double getMeanUploadTime();
+
+	long getUploadTime99thPercentile();
+
+	double getMeanConnectTime();
+
+	int getInFlight();
+
+	double getMaxBytesPerSecond();
+
+	void setMaxBytesPerSecond(double maxBytesPerSecond);
+
+	double getMaxFilesPerSecond();
+
+	void setMaxFilesPerSecond(double maxFilesPerSecond);
+
+	int getMaxInFlight();
+
+	void setMaxInFlight(int maxInFlight);
+
+}
@@ -0,0 +1,201 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Counters and latencies of transfers to a {@link Destination}:
+ * <ul>
+ * <li>the delivery time, from handing a file over to transfer workers
+ * until it's transferred, including waiting in queues, batches
+ * and for retries,</li>
+ * <li>the upload time of a single call to the sender (a whole batch
+ * if files are batched),</li>
+ * <li>the time of opening connections, if the sender reports it.</li>
+ * </ul>
+ * Sent bytes are counted before compression.
+ *
+ */
+public class DestinationMetrics implements DestinationMXBean {
+
+	private final Destination destination;
+
+	private final AtomicLong delivered = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong retried = new AtomicLong();
+
+	private final AtomicLong givenUp = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final LatencyHistogram deliveryTimes = new LatencyHistogram();
+
+	private final LatencyHistogram uploadTimes = new LatencyHistogram();
+
+	DestinationMetrics(Destination destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Records a delivered file.
+	 * @param size			The size of the file in bytes.
+	 * @param deliveryTime	The time since the file was enqueued.
+	 */
+	void delivered(long size, long deliveryTime) {
+		delivered.incrementAndGet();
+		bytesSent.addAndGet(size);
+		deliveryTimes.record(deliveryTime);
+	}
+
+	void failed() {
+		failed.incrementAndGet();
+	}
+
+	void retried() {
+		retried.incrementAndGet();
+	}
+
+	void givenUp() {
+		givenUp.incrementAndGet();
+	}
+
+	void uploaded(long uploadTime) {
+		uploadTimes.record(uploadTime);
+	}
+
+	public LatencyHistogram getDeliveryTimes() {
+		return deliveryTimes;
+	}
+
+	public LatencyHistogram getUploadTimes() {
+		return uploadTimes;
+	}
+
+	/**
+	 * @return	Times of opening connections, {@code null} if the sender
+	 * 			doesn't report them.
+	 */
+	public LatencyHistogram getConnectTimes() {
+		FileSender sender = destination.getSender();
+		return sender instanceof AbstractFileSender
+				? ((AbstractFileSender) sender).getConnectTimes() : null;
+	}
+
+	private ThrottledFileSender getThrottledSender() {
+		FileSender sender = destination.getSender();
+		return sender instanceof ThrottledFileSender
+				? (ThrottledFileSender) sender : null;
+	}
+
+	@Override
+	public long getFilesDelivered() {
+		return delivered.get();
+	}
+
+	@Override
+	public long getFilesFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public long getFilesRetried() {
+		return retried.get();
+	}
+
+	@Override
+	public long getFilesGivenUp() {
+		return givenUp.get();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	@Override
+	public int getQueueSize() {
+		return destination.getQueueSize();
+	}
+
+	@Override
+	public int getRetryQueueSize() {
+		return destination.getRetryScheduler().size();
+	}
+
+	@Override
+	public double getMeanDeliveryTime() {
+		return deliveryTimes.getMean();
+	}
+
+	@Override
+	public long getDeliveryTime99thPercentile() {
+		return deliveryTimes.getPercentile(99);
+	}
+
+	@Override
+	public double getMeanUploadTime() {
+		return uploadTimes.getMean();
+	}
+
+	@Override
+	public long getUploadTime99thPercentile() {
+		return uploadTimes.getPercentile(99);
+	}
+
+	@Override
+	public double getMeanConnectTime() {
+		LatencyHistogram connectTimes = getConnectTimes();
+		return connectTimes == null ? 0 : connectTimes.getMean();
+	}
+
+	@Override
+	public int getInFlight() {
+		ThrottledFileSender sender = getThrottledSender();
+		return sender == null ? 0 : sender.getInFlight();
+	}
+
+	@Override
+	public double getMaxBytesPerSecond() {
+		ThrottledFileSender sender = getThrottledSender();
+		return sender == null ? 0 : sender.getMaxBytesPerSecond();
+	}
+
+	@Override
+	public void setMaxBytesPerSecond(double maxBytesPerSecond) {
+		ThrottledFileSender sender = getThrottledSender();
+		if (sender != null) {
+			sender.setMaxBytesPerSecond(maxBytesPerSecond);
+		}
+	}
+
+	@Override
+	public double getMaxFilesPerSecond() {
+		ThrottledFileSender sender = getThrottledSender();
+		return sender == null ? 0 : sender.getMaxFilesPerSecond();
+	}
+
+	@Override
+	public void setMaxFilesPerSecond(double maxFilesPerSecond) {
+		ThrottledFileSender sender = getThrottledSender();
+		if (sender != null) {
+			sender.setMaxFilesPerSecond(maxFilesPerSecond);
+		}
+	}
+
+	@Override
+	public int getMaxInFlight() {
+		ThrottledFileSender sender = getThrottledSender();
+		return sender == null ? 0 : sender.getMaxInFlight();
+	}
+
+	@Override
+	public void setMaxInFlight(int maxInFlight) {
+		ThrottledFileSender sender = getThrottledSender();
+		if (sender != null) {
+			sender.setMaxInFlight(maxInFlight);
+		}
+	}
+
+}
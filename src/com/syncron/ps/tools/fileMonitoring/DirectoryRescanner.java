@@ -0,0 +1,245 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Rescans monitored directories after events have been lost
+ * (an {@code OVERFLOW} event) and dispatches files that have not been
+ * delivered yet, according to {@link TransferHistory}.
+ * <br/>
+ * Rescans run on a separate thread, so the thread processing events
+ * is not stalled by large directories. Entries are streamed from the
+ * directory and handed over as they are found; the rescan pauses while
+ * the transfer queue is longer than {@link #MAX_QUEUED_TRANSFERS}, so a
+ * directory with a huge number of files doesn't flood the memory.
+ * Multiple overflows of a directory not yet rescanned result in
+ * a single rescan.
+ * <br/>
+ * The same scan is used at startup by {@link #catchUp(Collection, int)}
+ * to find files that arrived while the monitor was not running.
+ *
+ */
+public class DirectoryRescanner {
+
+	public static final Logger logger = Logger.getLogger(DirectoryRescanner.class);
+
+	/**
+	 * The length of the transfer queue above which a rescan waits.
+	 */
+	private static final int MAX_QUEUED_TRANSFERS = 1000;
+
+	/**
+	 * The time (in milliseconds) a rescan waits for the transfer queue
+	 * to get shorter.
+	 */
+	private static final long BACKOFF_INTERVAL = 100;
+
+	/**
+	 * The minimal interval (in milliseconds) between progress reports
+	 * of the startup catch-up.
+	 */
+	private static final long PROGRESS_INTERVAL = 5000;
+
+	private final FileMonitor monitor;
+
+	private final TransferHistory history;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Directories with a rescan scheduled but not started yet.
+	 */
+	private final Set<Path> scheduled =
+			Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+	/**
+	 * The constructor creates the rescanning thread.
+	 * @param monitor	The monitor the found files are dispatched to.
+	 * @param history	The record of delivered and pending files.
+	 */
+	public DirectoryRescanner(FileMonitor monitor, TransferHistory history) {
+		this.monitor = monitor;
+		this.history = history;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rescanner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Schedules a rescan of the directory, unless one is already waiting.
+	 * @param directory		The path to the monitored directory.
+	 */
+	public void rescan(final Path directory) {
+		if (!scheduled.add(directory)) {
+			logger.debug("Rescan of " + directory + " already scheduled.");
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Events arriving from now on may be missed by this scan,
+				// so a next overflow must schedule a new one
+				scheduled.remove(directory);
+				try {
+					long start = System.currentTimeMillis();
+					int found = scan(directory);
+					logger.info("Rescan of " + directory + " finished in "
+							+ (System.currentTimeMillis() - start) + " ms, "
+							+ found + " missed file(s) enqueued.");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					logger.error("Rescan of " + directory + " failed.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Scans all directories in parallel and dispatches files that are
+	 * neither delivered nor pending. Returns when all directories
+	 * have been scanned; the progress is reported periodically.
+	 * @param directories	The paths to monitored directories.
+	 * @param threads		The number of directories scanned at once.
+	 * @return				The number of enqueued files.
+	 * @throws InterruptedException
+	 */
+	public int catchUp(Collection<Path> directories, int threads)
+			throws InterruptedException {
+
+		ExecutorService scanners = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(threads, directories.size())),
+				new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "catch-up-"
+								+ counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		CompletionService<Integer> completion =
+				new ExecutorCompletionService<Integer>(scanners);
+
+		for (final Path directory : directories) {
+			completion.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return scan(directory);
+				}
+			});
+		}
+
+		int total = directories.size();
+		int found = 0;
+		long lastReport = System.currentTimeMillis();
+		try {
+			for (int done = 1; done <= total; done++) {
+				try {
+					found += completion.take().get();
+				} catch (ExecutionException e) {
+					logger.error("Catch-up scan failed.", e.getCause());
+				}
+				long now = System.currentTimeMillis();
+				if (now - lastReport >= PROGRESS_INTERVAL) {
+					logger.info("Catch-up: " + done + "/" + total
+							+ " directories scanned, " + found
+							+ " file(s) enqueued.");
+					lastReport = now;
+				}
+			}
+		} finally {
+			scanners.shutdownNow();
+		}
+		return found;
+	}
+
+	/**
+	 * Dispatches files of the directory matching its masks that are
+	 * neither delivered nor pending.
+	 * @return	The number of dispatched files.
+	 */
+	private int scan(Path directory) throws InterruptedException {
+
+		MonitoredDirectory mapping = monitor.getMonitoredDirectory(directory);
+		if (mapping == null) {
+			return 0;
+		}
+
+		int found = 0;
+		Set<String> existing = new HashSet<String>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+				if (!mapping.filter(name)) {
+					continue;
+				}
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(file,
+							BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				} catch (IOException e) {
+					// Removed in the meantime
+					continue;
+				}
+				if (!attributes.isRegularFile()) {
+					continue;
+				}
+				existing.add(name);
+				if (history.isPending(file)
+						|| history.isDelivered(file, attributes.lastModifiedTime().toMillis())) {
+					continue;
+				}
+
+				while (monitor.getQueueSize() > MAX_QUEUED_TRANSFERS) {
+					Thread.sleep(BACKOFF_INTERVAL);
+				}
+				monitor.dispatch(file);
+				found++;
+			}
+		} catch (IOException | DirectoryIteratorException e) {
+			logger.error("Cannot list " + directory, e);
+			return found;
+		}
+
+		history.retain(directory, existing);
+		return found;
+	}
+
+	/**
+	 * Stops the rescanning thread.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Collapses events reported for the same file within a short window
+ * into one. A file is held back for the window after its first event;
+ * further events for it during the window are dropped, and then the file
+ * is dispatched once. Producers writing, renaming and touching a file
+ * thus cause a single unit of work.
+ * <br/>
+ * Only files seen during the last window are kept, so memory use depends
+ * on the rate of events, not on the number of distinct files seen over
+ * time. Not thread-safe; used by the thread processing events.
+ *
+ */
+public class EventCoalescer {
+
+	/**
+	 * Held back files with the times (in milliseconds) of their first
+	 * events, the oldest first.
+	 */
+	private final Map<Path, Long> held = new LinkedHashMap<Path, Long>();
+
+	private final long window;
+
+	/**
+	 * @param window	The time (in milliseconds) a file is held back after
+	 * 					its first event.
+	 */
+	public EventCoalescer(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * Holds back a file an event has been reported for.
+	 * @param file	The path to the file.
+	 * @param now	The current time in milliseconds.
+	 * @return		{@code false} if the file is already held back,
+	 * 				i.e. the event has been collapsed.
+	 */
+	public boolean add(Path file, long now) {
+		if (held.containsKey(file)) {
+			return false;
+		}
+		held.put(file, now);
+		return true;
+	}
+
+	/**
+	 * Releases files whose window has elapsed.
+	 * @param now	The current time in milliseconds.
+	 * @return		The files in the order of their first events.
+	 */
+	public List<Path> poll(long now) {
+		if (held.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Path> due = new ArrayList<Path>();
+		Iterator<Map.Entry<Path, Long>> iterator = held.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, Long> entry = iterator.next();
+			if (entry.getValue() + window > now) {
+				break;
+			}
+			due.add(entry.getKey());
+			iterator.remove();
+		}
+		return due;
+	}
+
+	/**
+	 * Releases all held back files.
+	 * @return	The files in the order of their first events.
+	 */
+	public List<Path> pollAll() {
+		List<Path> all = new ArrayList<Path>(held.keySet());
+		held.clear();
+		return all;
+	}
+
+	/**
+	 * @param now	The current time in milliseconds.
+	 * @return		The time (in milliseconds) until the oldest file is due,
+	 * 				-1 if no file is held back.
+	 */
+	public long getDelay(long now) {
+		if (held.isEmpty()) {
+			return -1;
+		}
+		return Math.max(0, held.values().iterator().next() + window - now);
+	}
+
+	/**
+	 * @return	The number of held back files.
+	 */
+	public int size() {
+		return held.size();
+	}
+
+}
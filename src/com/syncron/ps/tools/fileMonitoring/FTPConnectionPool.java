@@ -0,0 +1,170 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * A bounded pool of logged in FTP control connections to a single host.
+ * Each pooled connection is an {@link FTPClient} in binary, passive
+ * mode. An idle connection is checked with {@code NOOP} before reuse.
+ *
+ */
+public class FTPConnectionPool extends ConnectionPool<FTPConnectionPool.FTPConnection> {
+
+	public static final Logger logger = Logger.getLogger(FTPConnectionPool.class);
+
+	/**
+	 * The default size (in bytes) of transfer buffers.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * The default timeout (in milliseconds) of connecting and of reads.
+	 */
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+	private volatile int timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * The constructor sets connection details. No connection is opened
+	 * until the first call to {@link #borrow()}.
+	 * @param user			The user name.
+	 * @param password		The password.
+	 * @param host			The host name or IP address.
+	 * @param port			The port number.
+	 */
+	public FTPConnectionPool(String user, String password, String host,
+			Integer port) {
+		super("ftp", user, password, host, port);
+	}
+
+	/**
+	 * Opens a new control connection, logs in and switches to binary,
+	 * passive transfers. The current directory right after logging in is
+	 * recorded as the home directory of the connection.
+	 */
+	@Override
+	protected FTPConnection open() throws IOException {
+
+		FTPClient client = new FTPClient();
+		client.setConnectTimeout(timeout);
+		client.setDefaultTimeout(timeout);
+		client.setDataTimeout(timeout);
+		client.setBufferSize(bufferSize);
+		client.setSendBufferSize(bufferSize);
+		client.setReceiveBufferSize(bufferSize);
+		client.connect(host, port);
+
+		try {
+			client.setSoTimeout(timeout);
+			if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+				throw new IOException("Connection to " + host + " refused: "
+						+ client.getReplyString());
+			}
+			if (!client.login(user, password)) {
+				throw new IOException("Cannot log in to " + host + ": "
+						+ client.getReplyString());
+			}
+			if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+				throw new IOException("Cannot switch to binary mode: "
+						+ client.getReplyString());
+			}
+			client.enterLocalPassiveMode();
+			String home = client.printWorkingDirectory();
+			if (home == null) {
+				throw new IOException("Cannot get the current directory: "
+						+ client.getReplyString());
+			}
+			return new FTPConnection(client, home);
+		} catch (IOException | RuntimeException e) {
+			disconnect(client);
+			throw e;
+		}
+	}
+
+	@Override
+	protected boolean isHealthy(FTPConnection connection) {
+		try {
+			return connection.getClient().sendNoOp();
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	@Override
+	protected void disconnect(FTPConnection connection) {
+		FTPClient client = connection.getClient();
+		try {
+			if (client.isConnected()) {
+				client.logout();
+			}
+		} catch (IOException e) {
+			logger.debug("Cannot log out.", e);
+		}
+		disconnect(client);
+	}
+
+	private static void disconnect(FTPClient client) {
+		try {
+			client.disconnect();
+		} catch (IOException e) {
+			logger.debug("Cannot close the connection.", e);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Sets the size of the stream buffers and of socket buffers of data
+	 * connections. Applies to connections opened afterwards.
+	 * @param bufferSize	The size in bytes.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the timeout of connecting and of reads on control and data
+	 * connections. Applies to connections opened afterwards.
+	 * @param timeout	The timeout in milliseconds.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 *
+	 * A logged in FTP client, handed out by the pool.
+	 *
+	 */
+	public static class FTPConnection extends ConnectionPool.Connection {
+
+		private final FTPClient client;
+
+		private FTPConnection(FTPClient client, String home) {
+			super(home);
+			this.client = client;
+		}
+
+		public FTPClient getClient() {
+			return client;
+		}
+
+		@Override
+		boolean isConnected() {
+			return client.isConnected();
+		}
+	}
+
+}
@@ -1,60 +1,473 @@
 package com.syncron.ps.tools.fileMonitoring;
 
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPReply;
 import org.apache.log4j.Logger;
 
+import com.syncron.ps.tools.fileMonitoring.FTPConnectionPool.FTPConnection;
+
 /**
- * 
+ *
  * An implementation of FileSender that uses FTP
  * to transfer local files to a remote location.
+ * Connections are taken from a {@link FTPConnectionPool}, so
+ * consecutive transfers reuse already logged in control connections.
  * <br/>
- * TODO: No 'retry' functionality implemented.
+ * A file is stored under a temporary name in the remote directory
+ * and renamed when it's complete, so that the remote side never sees
+ * a partial file under the final name. Uploads are verified and
+ * resumed as described in {@link AbstractFileSender}; the checksum is
+ * compared if the server supports the {@code XMD5} command.
  * <br/>
- * TODO: No temp directory on the remote side implemented (is it necessary?)
- * 
+ * Missing remote directories are created. Each connection remembers
+ * its current directory and the directories known to exist, see
+ * {@link RemoteDirectoryCache}.
+ *
  * @author micsie
  *
  */
-public class FTPFileSender implements FileSender {
-	
-	public static final Logger logger = Logger.getLogger(SFTPFileSender.class);
-	
+public class FTPFileSender extends AbstractFileSender {
+
+	public static final Logger logger = Logger.getLogger(FTPFileSender.class);
+
+	/**
+	 * The suffix of a file being uploaded.
+	 */
+	private static final String PART_SUFFIX = ".part";
+
 	private String user;
 	private String password;
 	private String host;
+	private Integer port;
+
+	private FTPConnectionPool pool;
+
+	/**
+	 * Whether the server may support the {@code XMD5} command.
+	 */
+	private volatile boolean xmd5Supported = true;
+
+	/**
+	 * The constructor uses the default FTP port number 21.
+	 * @param user			The user name.
+	 * @param password		The password.
+	 * @param host			The host name or IP address.
+	 */
+	public FTPFileSender(String user, String password, String host) {
+		initialize(user, password, host, 21);
+	}
+
+	/**
+	 * The constructor uses the port number provided as an argument.
+	 * @param user			The user name.
+	 * @param password		The password.
+	 * @param host			The host name or IP address.
+	 * @param port			The port number
+	 */
+	public FTPFileSender(String user, String password, String host,
+			Integer port) {
+
+		initialize(user, password, host, port);
+	}
+
+	/**
+	 * Initializes {@link #user}, {@link #password}, {@link #host},
+	 * and {@link #port} from arguments, and creates the connection pool.
+	 * @param user
+	 * @param password
+	 * @param host
+	 * @param port
+	 */
+	private void initialize(String user, String password, String host,
+			Integer port) {
+		this.user = user;
+		this.password = password;
+		this.host = host;
+		this.port = port;
+		this.pool = new FTPConnectionPool(user, password, host, port);
+	}
 
 	@Override
-	public void transferFile(Path path, String remoteDir)
+	public void transferFile(Path path, String remoteDir, Compression compression)
 			throws TransferFailedException {
-		
-		FTPClient ftpClient = new FTPClient();
-		FileInputStream inputStream = null;
-		
 		try {
-			
-			ftpClient.connect(host);
-			
-			try {
-				ftpClient.login(user, password);
-				inputStream = new FileInputStream(path.toFile());
-				ftpClient.storeFile(remoteDir, inputStream);
-			} catch (IOException e) {
-				if (inputStream != null) {
-					inputStream.close();
+			transferFiles(Collections.singletonList(path), remoteDir, compression);
+		} catch (BatchTransferException e) {
+			throw e.getFailures().get(path);
+		}
+	}
+
+	/**
+	 * Transfers all files over one pooled connection, changing
+	 * the remote directory once. If the connection drops, the remaining
+	 * files fail as retryable.
+	 */
+	@Override
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) throws BatchTransferException {
+
+		Map<Path, TransferFailedException> failures =
+				new LinkedHashMap<Path, TransferFailedException>();
+
+		FTPConnection connection;
+		try {
+			connection = pool.borrow();
+		} catch (IOException e) {
+			// The host may be temporarily unreachable
+			logger.warn("Cannot connect to " + host + ".", e);
+			throw new BatchTransferException(failAll(paths, 0, failures));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BatchTransferException(failAll(paths, 0, failures));
+		}
+
+		try {
+
+			FTPClient client = connection.getClient();
+			if (!changeDirectory(client, connection.getDirectories(), remoteDir)) {
+				int reply = client.getReplyCode();
+				logger.error("Cannot change the remote directory to " + remoteDir
+						+ ": " + client.getReplyString());
+				pool.release(connection);
+				for (Path path : paths) {
+					failures.put(path, new TransferFailedException(
+							path.getFileName().toString(), isTransient(reply)));
+				}
+				throw new BatchTransferException(failures);
+			}
+
+			for (int i = 0; i < paths.size(); i++) {
+				Path path = paths.get(i);
+				try {
+					store(client, path, compression);
+				} catch (TransferFailedException e) {
+					// The directory may have been removed
+					connection.getDirectories().invalidate(remoteDir);
+					failures.put(path, e);
+				} catch (IOException e) {
+					if (isConnectionLost(e) || !client.isConnected()) {
+						logger.warn("Connection to " + host + " lost.", e);
+						pool.invalidate(connection);
+						throw new BatchTransferException(failAll(paths, i, failures));
+					}
+					logger.warn("Cannot upload " + path + ".", e);
+					failures.put(path, new TransferFailedException(
+							path.getFileName().toString(), isLocalFileLocked(e, path)));
+				}
+			}
+
+			pool.release(connection);
+
+		} catch (IOException | RuntimeException e) {
+			// Changing the directory failed on the connection level
+			pool.invalidate(connection);
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			logger.warn("Connection to " + host + " lost.", e);
+			throw new BatchTransferException(failAll(paths, 0, failures));
+		}
+
+		if (!failures.isEmpty()) {
+			throw new BatchTransferException(failures);
+		}
+	}
+
+	/**
+	 * Changes the current remote directory, unless it's the current one
+	 * already. A missing directory is created, with its missing parents.
+	 * <br/>
+	 * A relative directory is resolved against the home directory of the
+	 * connection first, and only absolute paths are sent to the server:
+	 * both a reused connection and the probes for missing parents leave
+	 * the server in some other directory.
+	 * @return	{@code false} if the server rejected a command, its reply
+	 * 			is the last one of the client.
+	 */
+	static boolean changeDirectory(FTPClient client,
+			RemoteDirectoryCache directories, String remoteDir) throws IOException {
+
+		String directory = directories.resolve(remoteDir);
+		if (directories.isCurrent(directory)) {
+			return true;
+		}
+		if (!client.changeWorkingDirectory(directory)
+				&& (!FTPReply.isNegativePermanent(client.getReplyCode())
+						|| !makeDirectories(client, directories, directory)
+						|| !client.changeWorkingDirectory(directory))) {
+			directories.invalidate(directory);
+			return false;
+		}
+		directories.setCurrent(directory);
+		return true;
+	}
+
+	/**
+	 * Creates a missing remote directory and its missing parents.
+	 * Parents are checked from the innermost one, so usually a single
+	 * round trip finds the one to create directories in. The checks change
+	 * the current directory, so the caller changes it to the absolute
+	 * path of the directory afterwards.
+	 * @return	{@code false} if a directory cannot be created.
+	 */
+	private static boolean makeDirectories(FTPClient client,
+			RemoteDirectoryCache directories, String directory) throws IOException {
+
+		List<String> missing = directories.getMissing(directory);
+		int first = missing.size() - 1;
+		while (first > 0 && !client.changeWorkingDirectory(missing.get(first - 1))) {
+			first--;
+		}
+		if (first > 0) {
+			directories.add(missing.get(first - 1));
+		}
+		for (String created : missing.subList(first, missing.size())) {
+			if (client.makeDirectory(created)) {
+				logger.info("Created remote directory " + created + ".");
+			}
+			// Another connection may have created it
+			else if (!client.changeWorkingDirectory(created)) {
+				return false;
+			}
+			directories.add(created);
+		}
+		return true;
+	}
+
+	/**
+	 * Stores a file under a temporary name in the current remote directory,
+	 * compressing it on the way, and renames it. An existing remote file
+	 * of the same name is replaced. If resuming is on, an uncompressed file
+	 * is appended to the temporary file left by a failed upload.
+	 * @throws TransferFailedException	If the server rejected a command
+	 * 									or the upload cannot be verified.
+	 * @throws IOException				If the local file cannot be read
+	 * 									or the connection failed.
+	 */
+	private void store(FTPClient client, Path path, Compression compression)
+			throws TransferFailedException, IOException {
+
+		String name = compression.getRemoteName(path.getFileName().toString());
+		String part = name + PART_SUFFIX;
+
+		long offset = 0;
+		if (isResume() && !compression.isEnabled()) {
+			offset = getResumeOffset(path, size(client, part));
+		}
+		if (offset == 0) {
+			uploadStarted(path);
+		}
+
+		boolean stored;
+		try (ChecksumInputStream in = new ChecksumInputStream(open(path, compression))) {
+			if (offset > 0) {
+				logger.info("Resuming upload of " + path + " at byte " + offset + ".");
+				if (in.skip(offset) < offset) {
+					uploadFinished(path);
+					throw new IOException(path + " is shorter than its partial upload.");
 				}
-				ftpClient.disconnect();
-				throw e;
 			}
-			
-			
+			stored = copy(client, part, in, offset > 0);
+			if (stored && isVerify()) {
+				verify(client, path, part, in);
+			}
+		}
+		if (!stored) {
+			throw rejected(client, path);
+		}
+
+		// Some servers don't overwrite on rename
+		if (!client.rename(part, name)) {
+			client.deleteFile(name);
+			if (!client.rename(part, name)) {
+				throw rejected(client, path);
+			}
+		}
+		uploadFinished(path);
+	}
+
+	/**
+	 * Sends the data of a file with {@code STOR} or {@code APPE}. If the
+	 * copy fails halfway, e.g. the local file cannot be read or the upload
+	 * is aborted, the data connection is closed but the final reply of the
+	 * command is never read. The next command would get that reply, so the
+	 * control connection is closed as well and must not be reused.
+	 * @return	{@code false} if the server rejected the command.
+	 */
+	private static boolean copy(FTPClient client, String part, InputStream in,
+			boolean append) throws IOException {
+		try {
+			return append ? client.appendFile(part, in) : client.storeFile(part, in);
 		} catch (IOException e) {
-			throw new TransferFailedException(path.getFileName().toString());
+			try {
+				client.disconnect();
+			} catch (IOException f) {
+				logger.debug("Cannot close the connection.", f);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Compares the size of the temporary remote file with the number
+	 * of bytes read, and its MD5 digest with the one computed while
+	 * reading, if the server supports {@code XMD5}. A temporary file
+	 * that doesn't match is deleted, so the retry starts from scratch.
+	 * @throws TransferFailedException	If the remote file doesn't match.
+	 */
+	private void verify(FTPClient client, Path path, String part,
+			ChecksumInputStream in) throws TransferFailedException, IOException {
+
+		String checksum = in.getChecksum();
+		long size = size(client, part);
+		String remoteChecksum = xmd5Supported ? xmd5(client, part) : null;
+
+		if ((size >= 0 && size != in.getCount())
+				|| (remoteChecksum != null && !remoteChecksum.equalsIgnoreCase(checksum))) {
+			logger.warn("Upload of " + path + " doesn't match: " + size + " bytes, MD5 "
+					+ remoteChecksum + " remotely, " + in.getCount() + " bytes, MD5 "
+					+ checksum + " sent.");
+			client.deleteFile(part);
+			uploadFinished(path);
+			throw new TransferFailedException(path.getFileName().toString(), true);
+		}
+		logger.debug("Upload of " + path + " verified, MD5 " + checksum + ".");
+	}
+
+	/**
+	 * Gets the size of a remote file with the {@code SIZE} command.
+	 * @return	The size, -1 if the file doesn't exist or the server
+	 * 			doesn't support the command.
+	 */
+	private static long size(FTPClient client, String name) throws IOException {
+		if (client.sendCommand("SIZE", name) != FTPReply.FILE_STATUS) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(lastWord(client.getReplyString()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Gets the MD5 digest of a remote file computed by the server with
+	 * the {@code XMD5} command. Once the server doesn't recognize the
+	 * command, it's not sent anymore.
+	 * @return	The digest in hexadecimal, {@code null} if not available.
+	 */
+	private String xmd5(FTPClient client, String name) throws IOException {
+		int reply = client.sendCommand("XMD5", name);
+		if (reply == FTPReply.UNRECOGNIZED_COMMAND
+				|| reply == FTPReply.COMMAND_NOT_IMPLEMENTED) {
+			logger.info(host + " doesn't compute MD5 digests, verifying sizes only.");
+			xmd5Supported = false;
+			return null;
+		}
+		if (!FTPReply.isPositiveCompletion(reply)) {
+			return null;
+		}
+		return lastWord(client.getReplyString());
+	}
+
+	private static String lastWord(String reply) {
+		String[] words = reply.trim().split("\\s+");
+		return words[words.length - 1];
+	}
+
+	/**
+	 * Creates the failure of a command rejected by the server.
+	 * Transient negative replies (4xx) are retried.
+	 */
+	private static TransferFailedException rejected(FTPClient client, Path path) {
+		boolean retry = isTransient(client.getReplyCode());
+		if (retry) {
+			logger.warn("Transfer of " + path + " rejected: " + client.getReplyString());
+		}
+		else {
+			logger.error("Transfer of " + path + " rejected: " + client.getReplyString());
 		}
-		
+		return new TransferFailedException(path.getFileName().toString(), retry);
+	}
+
+	/**
+	 * Marks files starting from {@code from} as failed, to be retried.
+	 * @return	{@code failures}
+	 */
+	private static Map<Path, TransferFailedException> failAll(List<Path> paths,
+			int from, Map<Path, TransferFailedException> failures) {
+		for (Path path : paths.subList(from, paths.size())) {
+			failures.put(path, new TransferFailedException(
+					path.getFileName().toString(), true));
+		}
+		return failures;
+	}
+
+	/**
+	 * Checks if the reply of the server is a transient negative one.
+	 * @param reply		The reply code.
+	 * @return			{@code true} if the command can be retried later.
+	 */
+	private static boolean isTransient(int reply) {
+		return FTPReply.isNegativeTransient(reply);
+	}
+
+	/**
+	 * Checks if the error was caused by a dropped control connection.
+	 * @param e		The error.
+	 * @return		{@code true} if the transfer can be retried
+	 * 				over a new connection.
+	 */
+	private static boolean isConnectionLost(IOException e) {
+		return e instanceof FTPConnectionClosedException
+				|| e instanceof SocketException
+				|| e instanceof SocketTimeoutException;
+	}
+
+	/**
+	 * Checks if the error was caused by failing to open the local
+	 * file, e.g. because it's still locked by the producer.
+	 * @param e		The error.
+	 * @param path	The local file.
+	 * @return		{@code true} if the transfer can be retried later.
+	 */
+	private static boolean isLocalFileLocked(IOException e, Path path) {
+		if (e instanceof NoSuchFileException) {
+			return false;
+		}
+		return e instanceof FileNotFoundException || Files.exists(path);
+	}
+
+	/**
+	 * Closes all pooled connections. Uploads in progress are finished,
+	 * their connections are closed when released.
+	 */
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	public FTPConnectionPool getPool() {
+		return pool;
+	}
+
+	@Override
+	public LatencyHistogram getConnectTimes() {
+		return pool.getConnectTimes();
 	}
 
 }
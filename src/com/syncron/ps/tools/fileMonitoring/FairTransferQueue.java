@@ -0,0 +1,514 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * The queue of transfers waiting for a worker of a {@link TransferExecutor}.
+ * Transfers are queued in lanes, one per configured directory, so that
+ * a directory with a large backlog doesn't hold back the other ones:
+ * <ul>
+ * <li>a lane of a higher {@link MonitoredDirectory#getPriority()} is
+ * always served first,</li>
+ * <li>lanes of the same priority share workers in proportion to their
+ * {@link MonitoredDirectory#getWeight()}, measured in bytes plus
+ * {@link #FILE_COST} per transfer (self-clocked fair queueing),</li>
+ * <li>a lane never occupies more than
+ * {@link MonitoredDirectory#getMaxShare()} percent of the workers, even
+ * if other lanes are empty,</li>
+ * <li>a lane of a directory with {@link MonitoredDirectory#isSmallFirst()}
+ * hands out its smallest files first, otherwise files leave a lane in
+ * the order they were enqueued.</li>
+ * </ul>
+ * Settings of a lane are taken from the last transfer enqueued into it,
+ * so changes of a directory apply to its next file.
+ * <br/>
+ * The queue counts transfers taken by workers until they finish, so it
+ * must only be used by the executor running them; anything else put
+ * into it runs in the default lane.
+ *
+ */
+public class FairTransferQueue extends AbstractQueue<Runnable>
+		implements BlockingQueue<Runnable> {
+
+	/**
+	 * The cost of a transfer besides its bytes, in bytes: a few round
+	 * trips take about as long as sending this much data.
+	 */
+	public static final long FILE_COST = 64 * 1024;
+
+	/**
+	 * The lane of transfers without a directory.
+	 */
+	private static final String DEFAULT_LANE = "";
+
+	private static final Comparator<Transfer> FIRST_IN = new Comparator<Transfer>() {
+		@Override
+		public int compare(Transfer a, Transfer b) {
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<Transfer> SMALLEST_FIRST = new Comparator<Transfer>() {
+		@Override
+		public int compare(Transfer a, Transfer b) {
+			if (a.size != b.size) {
+				return a.size < b.size ? -1 : 1;
+			}
+			return FIRST_IN.compare(a, b);
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when a transfer may be taken.
+	 */
+	private final Condition available = lock.newCondition();
+
+	/**
+	 * Lanes with queued or running transfers by the root directory.
+	 * Guarded by {@link #lock}.
+	 */
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+	/**
+	 * The number of queued transfers. Guarded by {@link #lock}.
+	 */
+	private int count = 0;
+
+	/**
+	 * The finish tag of the transfer taken last. Guarded by {@link #lock}.
+	 */
+	private double virtualTime = 0;
+
+	/**
+	 * The order of enqueuing. Guarded by {@link #lock}.
+	 */
+	private long sequence = 0;
+
+	/**
+	 * The number of workers, to compute the maximal share of a lane.
+	 */
+	private volatile int threads;
+
+	/**
+	 * @param threads	The number of workers taking transfers.
+	 */
+	public FairTransferQueue(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Changes the number of workers taking transfers.
+	 * @param threads	The number of workers.
+	 */
+	public void setThreads(int threads) {
+		lock.lock();
+		try {
+			this.threads = threads;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Runnable task) {
+		Transfer transfer = task instanceof Transfer
+				? (Transfer) task : new Transfer(task, null, 0);
+		lock.lock();
+		try {
+			String key = transfer.directory == null
+					? DEFAULT_LANE : transfer.directory.getRootDirectory();
+			Lane lane = lanes.get(key);
+			if (lane == null) {
+				lane = new Lane(key);
+				lanes.put(key, lane);
+			}
+			lane.configure(transfer.directory);
+			transfer.sequence = sequence++;
+			lane.queue.add(transfer);
+			count++;
+			available.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(Runnable task) {
+		offer(task);
+	}
+
+	@Override
+	public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+		return offer(task);
+	}
+
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return take(select());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			Lane lane;
+			while ((lane = select()) == null) {
+				available.await();
+			}
+			return take(lane);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			Lane lane;
+			while ((lane = select()) == null) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = available.awaitNanos(nanos);
+			}
+			return take(lane);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			Lane lane = select();
+			return lane == null ? null : lane.queue.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the lane to take the next transfer from: of the highest
+	 * priority, then with the lowest finish tag. Lanes without queued
+	 * transfers or at their maximal share are skipped.
+	 * <br/>
+	 * The first transfer of a lane is tagged once, when it becomes
+	 * eligible, with the finish tag of the lane (or the virtual time if
+	 * that is later) plus its cost divided by the weight. A lane waiting
+	 * for its turn keeps its tag, so it's served once the virtual time
+	 * reaches it.
+	 * Must be called while holding the lock.
+	 * @return	The lane or {@code null} if no transfer may be taken.
+	 */
+	private Lane select() {
+		Lane selected = null;
+		for (Lane lane : lanes.values()) {
+			if (lane.queue.isEmpty() || lane.running >= lane.getMaxRunning(threads)) {
+				continue;
+			}
+			if (!lane.tagged) {
+				lane.tag = Math.max(virtualTime, lane.finish)
+						+ (double) (lane.queue.peek().size + FILE_COST) / lane.weight;
+				lane.tagged = true;
+			}
+			if (selected == null || lane.priority > selected.priority
+					|| (lane.priority == selected.priority && lane.tag < selected.tag)) {
+				selected = lane;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Takes the next transfer of a lane for a worker.
+	 * Must be called while holding the lock.
+	 */
+	private Transfer take(Lane lane) {
+		if (lane == null) {
+			return null;
+		}
+		Transfer transfer = lane.queue.poll();
+		count--;
+		lane.running++;
+		lane.finish = lane.tag;
+		lane.tagged = false;
+		virtualTime = lane.tag;
+		transfer.queue = this;
+		transfer.lane = lane;
+		return transfer;
+	}
+
+	/**
+	 * Records that a transfer taken by a worker has finished.
+	 */
+	private void finished(Lane lane) {
+		lock.lock();
+		try {
+			lane.running--;
+			removeIfIdle(lane);
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets a lane without queued and running transfers, so that lanes
+	 * of removed directories don't pile up.
+	 * Must be called while holding the lock.
+	 */
+	private void removeIfIdle(Lane lane) {
+		if (lane.queue.isEmpty()) {
+			lane.tagged = false;
+		}
+		if (lane.running == 0 && lane.queue.isEmpty() && lanes.get(lane.key) == lane) {
+			lanes.remove(lane.key);
+		}
+	}
+
+	@Override
+	public boolean remove(Object task) {
+		lock.lock();
+		try {
+			for (Lane lane : lanes.values()) {
+				if (lane.queue.remove(task)) {
+					count--;
+					removeIfIdle(lane);
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> collection) {
+		return drainTo(collection, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes queued transfers regardless of lanes, e.g. when the
+	 * executor shuts down now.
+	 */
+	@Override
+	public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+		lock.lock();
+		try {
+			int drained = 0;
+			Iterator<Lane> iterator = lanes.values().iterator();
+			while (iterator.hasNext() && drained < maxElements) {
+				Lane lane = iterator.next();
+				while (drained < maxElements && !lane.queue.isEmpty()) {
+					collection.add(lane.queue.poll());
+					count--;
+					drained++;
+				}
+				if (lane.queue.isEmpty()) {
+					lane.tagged = false;
+					if (lane.running == 0) {
+						iterator.remove();
+					}
+				}
+			}
+			return drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return	An iterator over a snapshot of queued transfers, in no
+	 * 			particular order.
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		lock.lock();
+		try {
+			List<Runnable> snapshot = new ArrayList<Runnable>(count);
+			for (Lane lane : lanes.values()) {
+				snapshot.addAll(lane.queue);
+			}
+			return snapshot.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * A transfer waiting in a lane. Settings of its lane are taken from
+	 * its directory.
+	 *
+	 */
+	public static final class Transfer implements Runnable {
+
+		private final Runnable task;
+
+		private final MonitoredDirectory directory;
+
+		private final long size;
+
+		private long sequence;
+
+		/**
+		 * The queue and the lane the transfer has been taken from,
+		 * {@code null} until a worker takes it.
+		 */
+		private FairTransferQueue queue;
+		private Lane lane;
+
+		/**
+		 * @param task		The transfer.
+		 * @param directory	The directory of the transferred files,
+		 * 					{@code null} for the default lane.
+		 * @param size		The number of transferred bytes.
+		 */
+		public Transfer(Runnable task, MonitoredDirectory directory, long size) {
+			this.task = task;
+			this.directory = directory;
+			this.size = size;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				// Transfers started without the queue aren't counted
+				if (lane != null) {
+					queue.finished(lane);
+				}
+			}
+		}
+
+		/**
+		 * Creates a transfer of the same directory and size running
+		 * another task, e.g. a wrapper of this one.
+		 * @param task	The task.
+		 * @return		The new transfer.
+		 */
+		public Transfer wrap(Runnable task) {
+			return new Transfer(task, directory, size);
+		}
+
+	}
+
+	/**
+	 *
+	 * Transfers of a configured directory. Guarded by {@link #lock}.
+	 *
+	 */
+	private static final class Lane {
+
+		private final String key;
+
+		private Queue<Transfer> queue = new ArrayDeque<Transfer>();
+
+		private boolean smallFirst = false;
+
+		private int priority = 0;
+
+		private int weight = 1;
+
+		private int maxShare = 100;
+
+		/**
+		 * The number of transfers taken by workers and not finished yet.
+		 */
+		private int running = 0;
+
+		/**
+		 * The finish tag of the transfer taken last.
+		 */
+		private double finish = 0;
+
+		/**
+		 * The finish tag of the first queued transfer, valid if
+		 * {@link #tagged}. Computed by {@link FairTransferQueue#select()}.
+		 */
+		private double tag;
+		private boolean tagged = false;
+
+		private Lane(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * Applies settings of a directory. Queued transfers are reordered
+		 * if small files first is switched.
+		 */
+		private void configure(MonitoredDirectory directory) {
+			if (directory == null) {
+				return;
+			}
+			priority = directory.getPriority();
+			weight = Math.max(1, directory.getWeight());
+			maxShare = directory.getMaxShare();
+			if (directory.isSmallFirst() != smallFirst) {
+				smallFirst = directory.isSmallFirst();
+				Queue<Transfer> reordered = smallFirst
+						? new PriorityQueue<Transfer>(Math.max(1, queue.size()), SMALLEST_FIRST)
+						: new ArrayDeque<Transfer>();
+				List<Transfer> transfers = new ArrayList<Transfer>(queue);
+				Collections.sort(transfers, FIRST_IN);
+				reordered.addAll(transfers);
+				queue = reordered;
+			}
+		}
+
+		/**
+		 * @return	The maximal number of transfers of the lane running
+		 * 			at once, at least one.
+		 */
+		private int getMaxRunning(int threads) {
+			return Math.max(1, threads * maxShare / 100);
+		}
+
+	}
+
+}
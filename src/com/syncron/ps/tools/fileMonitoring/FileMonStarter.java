@@ -6,14 +6,23 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import javax.management.JMException;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
+import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
 
@@ -47,6 +56,86 @@ public class FileMonStarter {
 	 * The name of the property containing a port number.
 	 */
 	private static final String PORT = "port";
+	/**
+	 * The name of the property containing the maximum number
+	 * of pooled connections.
+	 */
+	private static final String POOL_SIZE = "poolSize";
+	/**
+	 * The name of the property containing the time (in milliseconds)
+	 * after which an idle pooled connection is closed.
+	 */
+	private static final String IDLE_TIMEOUT = "idleTimeout";
+	/**
+	 * The name of the property containing the interval (in milliseconds)
+	 * of keep-alive messages.
+	 */
+	private static final String KEEP_ALIVE = "keepAlive";
+	/**
+	 * The name of the property containing the number of transfer workers.
+	 */
+	private static final String WORKERS = "workers";
+	/**
+	 * The name of the property containing the size (in bytes)
+	 * of FTP transfer buffers.
+	 */
+	private static final String BUFFER_SIZE = "bufferSize";
+	/**
+	 * The name of the property containing the maximum average number
+	 * of bytes sent per second.
+	 */
+	private static final String MAX_BYTES_PER_SECOND = "maxBytesPerSecond";
+	/**
+	 * The name of the property containing the maximum average number
+	 * of files sent per second.
+	 */
+	private static final String MAX_FILES_PER_SECOND = "maxFilesPerSecond";
+	/**
+	 * The name of the property containing the maximum number of transfers
+	 * in progress at once.
+	 */
+	private static final String MAX_IN_FLIGHT = "maxInFlight";
+	/**
+	 * The name of the property containing the timeout (in milliseconds)
+	 * of FTP connections.
+	 */
+	private static final String TIMEOUT = "timeout";
+	/**
+	 * The value of attribute {@value #XPATH_PROTOCOL} selecting FTP.
+	 */
+	private static final String PROTOCOL_FTP = "ftp";
+	/**
+	 * The name of the property containing the minimal size (in bytes)
+	 * of files uploaded in ranges at once.
+	 */
+	private static final String LARGE_FILE_THRESHOLD = "largeFileThreshold";
+	/**
+	 * The name of the property containing the number of ranges
+	 * of a large file uploaded at once.
+	 */
+	private static final String LARGE_FILE_CHANNELS = "largeFileChannels";
+	/**
+	 * The name of the property turning on verification of uploaded files.
+	 */
+	private static final String VERIFY = "verify";
+	/**
+	 * The name of the property turning on resuming of failed uploads.
+	 */
+	private static final String RESUME = "resume";
+	/**
+	 * The name of the property containing the maximum number of files
+	 * transferred over a connection at once.
+	 */
+	private static final String BATCH_SIZE = "batchSize";
+	/**
+	 * The name of the property containing the maximum time (in milliseconds)
+	 * a file waits for a batch to fill up.
+	 */
+	private static final String BATCH_LINGER = "batchLinger";
+	/**
+	 * The default time (in milliseconds) a file waits for a batch.
+	 */
+	private static final int DEFAULT_BATCH_LINGER = 200;
 	
 	/**
 	 * The default path to the properties file.
@@ -56,16 +145,97 @@ public class FileMonStarter {
 	private static final String XPATH_LOCAL_DIRECTORY = "@local";
 	private static final String XPATH_REMOTE_DIRECTORY = "@remote";
 	private static final String XPATH_RECURSIVE = "@recursive";
+	private static final String XPATH_ORDERED = "@ordered";
+	private static final String XPATH_READY = "@ready";
+	private static final String XPATH_STABLE_TIME = "@stableTime";
+	private static final String XPATH_MARKER = "@marker";
+	private static final String XPATH_PRIORITY = "@priority";
+	private static final String XPATH_WEIGHT = "@weight";
+	private static final String XPATH_MAX_SHARE = "@maxShare";
+	private static final String XPATH_SMALL_FIRST = "@smallFirst";
 	private static final String XPATH_CONNECTION_DETAILS = "/properties/connection";
+	private static final String XPATH_PROTOCOL = "@protocol";
+	private static final String XPATH_NAME = "@name";
+	private static final String XPATH_DESTINATIONS = "@to";
+	private static final String XPATH_COMPRESS = "@compress";
+	private static final String XPATH_COMPRESS_SUFFIX = "@compressSuffix";
+	private static final String XPATH_COMPRESS_LEVEL = "@compressLevel";
 	private static final String XPATH_LOG_FILE_PATH = "/properties/log/@configFile";
 	private static final String XPATH_DIR = "/properties/dir";
 	private static final String XPATH_MASK = "mask";
+	private static final String XPATH_EXCLUDE = "exclude";
+	private static final String XPATH_EXCLUDE_TYPE = "@type";
+	private static final String EXCLUDE_DIRECTORY = "dir";
+	private static final String XPATH_CATCH_UP = "/properties/startup/@catchUp";
+	private static final String XPATH_CATCH_UP_THREADS = "/properties/startup/@threads";
+	private static final String XPATH_STATE_DIRECTORY = "/properties/state/@dir";
+	private static final String XPATH_RETRY = "/properties/retry";
+	private static final String XPATH_INITIAL_DELAY = "@initialDelay";
+	private static final String XPATH_MAX_DELAY = "@maxDelay";
+	private static final String XPATH_MAX_ATTEMPTS = "@maxAttempts";
+	private static final String XPATH_DEAD_LETTER_DIRECTORY = "@deadLetterDir";
+	private static final String XPATH_COALESCING_WINDOW = "/properties/events/@coalesceWindow";
+	private static final String XPATH_METRICS = "/properties/metrics";
+	private static final String XPATH_METRICS_JMX = "@jmx";
+	private static final String XPATH_METRICS_FILE = "@file";
+	private static final String XPATH_METRICS_INTERVAL = "@interval";
+	private static final String XPATH_METRICS_PORT = "@port";
+	private static final String XPATH_RELOAD = "/properties/reload";
+	private static final String XPATH_RELOAD_INTERVAL = "@interval";
+	private static final String XPATH_DRAIN_TIMEOUT = "/properties/shutdown/@drainTimeout";
+	private static final String ELEMENT_CONNECTION = "connection";
+	private static final String ELEMENT_DIR = "dir";
+	private static final String ELEMENT_RETRY = "retry";
+	
+	/**
+	 * The default number of directories scanned at once at startup.
+	 */
+	private static final int DEFAULT_CATCH_UP_THREADS = 4;
+	
+	/**
+	 * The default interval (in milliseconds) of writing the metrics file.
+	 */
+	private static final int DEFAULT_METRICS_INTERVAL = 15000;
+	
+	/**
+	 * The default interval (in milliseconds) of checking the properties
+	 * file for changes.
+	 */
+	private static final int DEFAULT_RELOAD_INTERVAL = 2000;
 	
 	/**
 	 * The directories monitored by the application.
 	 */
 	private Map<Path, MonitoredDirectory> monitoredDirectories;
 	
+	private String propertyFilePath;
+	
+	private FileMonitor fileMonitor;
+	
+	/**
+	 * Watches the properties file, {@code null} if it's not reloaded.
+	 */
+	private ConfigWatcher configWatcher;
+	
+	/**
+	 * Registers MBeans of destinations added by a reload, {@code null}
+	 * if MBeans are not registered.
+	 */
+	private MetricsExporter mbeanExporter;
+	
+	/**
+	 * The applied configuration, as XML, of each configured directory
+	 * by its local path and of each connection by its name. Compared
+	 * with the properties file on reload.
+	 */
+	private final Map<Path, String> directoryConfigs = new HashMap<Path, String>();
+	private final Map<String, String> connectionConfigs = new HashMap<String, String>();
+	
+	/**
+	 * The configuration of settings read only at startup, as XML.
+	 */
+	private String startupConfig;
+	
 	/**
 	 * This static method creates a new object of the class and
 	 * executes <code>start</code> method with a property file path
@@ -82,7 +252,9 @@ public class FileMonStarter {
 			propertyFilePath = DEFAULT_PROPERTY_FILE_PATH;
 		}
 		FileMonStarter starter = new FileMonStarter();
-		starter.start(propertyFilePath);
+		if (!starter.start(propertyFilePath)) {
+			System.exit(1);
+		}
 	}
 	
 	/**
@@ -91,8 +263,12 @@ public class FileMonStarter {
 	 * directories. Finally the file monitor is created and the processing
 	 * of events is initiated.
 	 * @param propertyFilePath	A path to the properties file.
+	 * @return	{@code false} if the monitor cannot be started, e.g. the
+	 * 			properties are invalid or the transfer journal cannot be
+	 * 			read. The error is logged.
 	 */
-	public void start(String propertyFilePath) {
+	public boolean start(String propertyFilePath) {
+		this.propertyFilePath = propertyFilePath;
 		try {
 			SAXReader reader = new SAXReader();
 			Document document = reader.read(propertyFilePath);
@@ -100,59 +276,378 @@ public class FileMonStarter {
 			// Initialize logs
 			initializeLog(document);
 			
-			// Initialize the file sender
-			FileSender sender = getSFTPFileSender(document);
-			
 			// Get monitored directories
 			initMonitoredDirectories(document);
 			
-			// Create FileMonitor
-			FileMonitor fileMonitor = new FileMonitor(monitoredDirectories, sender);
+			// Create FileMonitor with a destination per connection
+			fileMonitor = new FileMonitor(monitoredDirectories);
+			@SuppressWarnings("unchecked")
+			List<Node> connections = document.selectNodes(XPATH_CONNECTION_DETAILS);
+			if (connections.isEmpty()) {
+				throw new ConnectionDetailsException(XPATH_CONNECTION_DETAILS);
+			}
+			for (Node connection : connections) {
+				addDestination(fileMonitor, connection, document);
+			}
+			checkDestinations(fileMonitor, monitoredDirectories.values());
+			
+			String stateDirectory = document.valueOf(XPATH_STATE_DIRECTORY);
+			if (!stateDirectory.isEmpty()) {
+				fileMonitor.setJournal(new TransferJournal(Paths.get(stateDirectory)));
+			}
+			String deadLetterDirectory = document.valueOf(XPATH_RETRY + "/"
+					+ XPATH_DEAD_LETTER_DIRECTORY);
+			if (!deadLetterDirectory.isEmpty()) {
+				fileMonitor.setDeadLetterDirectory(Paths.get(deadLetterDirectory));
+			}
+			if (Boolean.parseBoolean(document.valueOf(XPATH_CATCH_UP))) {
+				fileMonitor.setCatchUpThreads(getCatchUpThreads(document));
+			}
+			fileMonitor.setCoalescingWindow(getIntAttribute(document,
+					XPATH_COALESCING_WINDOW, 0));
+			fileMonitor.setDrainTimeout(getIntAttribute(document,
+					XPATH_DRAIN_TIMEOUT, FileMonitor.DEFAULT_DRAIN_TIMEOUT));
+			exportMetrics(fileMonitor, document);
+			startupConfig = getStartupConfig(document);
 			
 			// Run the monitor
 			fileMonitor.processEvents();
+			watchProperties(document);
+			addShutdownHook();
+			return true;
 			
 		} catch (DocumentException | ConnectionDetailsException | IOException e) {
 			logger.error(e.getMessage(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Adds a destination described by a connection node to the monitor.
+	 * The destination is named after the attribute {@value #XPATH_NAME},
+	 * {@value Destination#DEFAULT_NAME} if it's missing. It has its own
+	 * sender, {@value #WORKERS} transfer workers (by default as many as
+	 * pooled connections), batching, retries and throttling
+	 * ({@value #MAX_BYTES_PER_SECOND}, {@value #MAX_FILES_PER_SECOND},
+	 * {@value #MAX_IN_FLIGHT}). Limits of a destination can be changed
+	 * later through its {@link ThrottledFileSender}.
+	 * @param fileMonitor	The file monitor.
+	 * @param connection	The node describing connection details.
+	 * @param document		An XML document containing retry options.
+	 * @throws ConnectionDetailsException
+	 */
+	private void addDestination(FileMonitor fileMonitor, Node connection,
+			Document document) throws ConnectionDetailsException {
+		
+		String name = getConnectionName(connection);
+		if (fileMonitor.getDestination(name) != null) {
+			logger.error("Duplicate connection " + name + " ignored.");
+			return;
+		}
+		
+		ThrottledFileSender throttled = new ThrottledFileSender(createSender(connection));
+		configureThrottling(throttled, connection);
+		
+		int workers = getWorkers(connection);
+		Destination destination = fileMonitor.addDestination(name, throttled, workers);
+		destination.setBatching(getIntProperty(connection, BATCH_SIZE, 1),
+				getIntProperty(connection, BATCH_LINGER, DEFAULT_BATCH_LINGER));
+		configureRetries(document, destination.getRetryScheduler());
+		connectionConfigs.put(name, connection.asXML());
+		logger.info("Destination " + name + " uses " + workers + " worker(s).");
+	}
+	
+	/**
+	 * Applies a changed connection node to its destination. The destination
+	 * gets a new sender, so a new connection pool; transfers in progress
+	 * finish over the previous one, which is closed after the last of them.
+	 * Workers, batching and limits are changed in place.
+	 * @param destination	The destination of the connection.
+	 * @param connection	The node describing connection details.
+	 * @throws ConnectionDetailsException	If details are missing, the
+	 * 										destination is not changed then.
+	 */
+	private void updateDestination(Destination destination, Node connection)
+			throws ConnectionDetailsException {
+		
+		AbstractFileSender sender = createSender(connection);
+		ThrottledFileSender throttled = (ThrottledFileSender) destination.getSender();
+		configureThrottling(throttled, connection);
+		throttled.setSender(sender);
+		
+		int workers = getWorkers(connection);
+		destination.setWorkers(workers);
+		destination.setBatching(getIntProperty(connection, BATCH_SIZE, 1),
+				getIntProperty(connection, BATCH_LINGER, DEFAULT_BATCH_LINGER));
+		connectionConfigs.put(destination.getName(), connection.asXML());
+		logger.info("Destination " + destination + " changed, uses " + workers
+				+ " worker(s).");
+	}
+	
+	/**
+	 * Gets the name of the destination of a connection node.
+	 */
+	private String getConnectionName(Node connection) {
+		String name = connection.valueOf(XPATH_NAME).trim();
+		return name.isEmpty() ? Destination.DEFAULT_NAME : name;
+	}
+	
+	/**
+	 * Creates the FTP or SFTP sender of a connection node.
+	 */
+	private AbstractFileSender createSender(Node connection)
+			throws ConnectionDetailsException {
+		if (PROTOCOL_FTP.equalsIgnoreCase(connection.valueOf(XPATH_PROTOCOL))) {
+			return getFTPFileSender(connection);
 		}
+		return getSFTPFileSender(connection);
+	}
+	
+	private void configureThrottling(ThrottledFileSender throttled, Node connection) {
+		throttled.setMaxBytesPerSecond(getIntProperty(connection, MAX_BYTES_PER_SECOND, 0));
+		throttled.setMaxFilesPerSecond(getIntProperty(connection, MAX_FILES_PER_SECOND, 0));
+		throttled.setMaxInFlight(getIntProperty(connection, MAX_IN_FLIGHT, 0));
 	}
 	
 	/**
-	 * Gets an SFTP file sender based on properties in a document.
+	 * Gets the number of transfer workers of a connection node, by default
+	 * as many as pooled connections.
+	 */
+	private int getWorkers(Node connection) {
+		return Math.max(1, getIntProperty(connection, WORKERS,
+				getIntProperty(connection, POOL_SIZE,
+						SFTPConnectionPool.DEFAULT_MAX_CONNECTIONS)));
+	}
+	
+	/**
+	 * Reports destinations of monitored directories that don't match
+	 * any connection. Files are not transferred to such destinations.
+	 * @param fileMonitor	The file monitor with all destinations added.
+	 * @param mappings		The checked directories.
+	 */
+	private void checkDestinations(FileMonitor fileMonitor,
+			Collection<MonitoredDirectory> mappings) {
+		for (MonitoredDirectory mapping : mappings) {
+			if (!mapping.getLocalDirectory().equals(mapping.getRootDirectory())) {
+				continue;
+			}
+			for (String name : mapping.getDestinations()) {
+				if (fileMonitor.getDestination(name) == null) {
+					logger.error("Unknown destination " + name + " of "
+							+ mapping.getLocalDirectory() + ".");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Publishes metrics of the monitor as configured by the node
+	 * {@value #XPATH_METRICS}: as MBeans if {@value #XPATH_METRICS_JMX}
+	 * is {@code true}, written to the file {@value #XPATH_METRICS_FILE}
+	 * every {@value #XPATH_METRICS_INTERVAL} milliseconds, and served
+	 * over HTTP on the loopback port {@value #XPATH_METRICS_PORT}.
+	 * Failures are logged and don't stop the monitor.
+	 * @param fileMonitor	The file monitor with all destinations added.
+	 * @param document		An XML document containing metrics options.
+	 */
+	private void exportMetrics(FileMonitor fileMonitor, Document document) {
+		
+		Node metrics = document.selectSingleNode(XPATH_METRICS);
+		if (metrics == null) {
+			return;
+		}
+		
+		MetricsExporter exporter = new MetricsExporter(fileMonitor);
+		if (Boolean.parseBoolean(metrics.valueOf(XPATH_METRICS_JMX))) {
+			try {
+				exporter.registerMBeans();
+				mbeanExporter = exporter;
+			} catch (JMException e) {
+				logger.error("Cannot register MBeans.", e);
+			}
+		}
+		String file = metrics.valueOf(XPATH_METRICS_FILE);
+		if (!file.isEmpty()) {
+			exporter.startFile(Paths.get(file), Math.max(1000, getIntAttribute(
+					metrics, XPATH_METRICS_INTERVAL, DEFAULT_METRICS_INTERVAL)));
+		}
+		int port = getIntAttribute(metrics, XPATH_METRICS_PORT, 0);
+		if (port > 0) {
+			try {
+				exporter.startHttp(port);
+			} catch (IOException e) {
+				logger.error("Cannot serve metrics on port " + port + ".", e);
+			}
+		}
+	}
+	
+	/**
+	 * Gets an SFTP file sender based on connection properties.
 	 * If property {@value #PORT} not provided, by default the port number
-	 * is set to 22.
-	 * @param document		An XML document describing connection details
+	 * is set to 22. Optional properties {@value #POOL_SIZE},
+	 * {@value #IDLE_TIMEOUT} and {@value #KEEP_ALIVE} configure
+	 * the connection pool, {@value #LARGE_FILE_THRESHOLD} and
+	 * {@value #LARGE_FILE_CHANNELS} uploads of large files,
+	 * {@value #VERIFY} and {@value #RESUME} uploads of all files.
+	 * @param properties	The node describing connection details
 	 * @return				SFTP file sender.
 	 * @throws ConnectionDetailsException
 	 */
-	private SFTPFileSender getSFTPFileSender(Document document) throws ConnectionDetailsException {
+	private SFTPFileSender getSFTPFileSender(Node properties) throws ConnectionDetailsException {
 		
-		Node properties = document.selectSingleNode(XPATH_CONNECTION_DETAILS);
-		Node node;
+		String user = getRequiredProperty(properties, USER);
+		String password = getRequiredProperty(properties, PASSWORD);
+		String host = getRequiredProperty(properties, HOST);
+		Integer port = getIntProperty(properties, PORT, 22);
 		
-		node = properties.selectSingleNode(USER);
-		if (node == null) throw new ConnectionDetailsException(USER);
-		String user = node.getText();
+		SFTPFileSender sender = new SFTPFileSender(user, password, host, port);
+		SFTPConnectionPool pool = sender.getPool();
+		pool.setMaxConnections(getIntProperty(properties, POOL_SIZE,
+				SFTPConnectionPool.DEFAULT_MAX_CONNECTIONS));
+		pool.setIdleTimeout(getIntProperty(properties, IDLE_TIMEOUT,
+				(int) SFTPConnectionPool.DEFAULT_IDLE_TIMEOUT));
+		pool.setKeepAliveInterval(getIntProperty(properties, KEEP_ALIVE,
+				SFTPConnectionPool.DEFAULT_KEEP_ALIVE_INTERVAL));
+		sender.setLargeFileThreshold(getIntProperty(properties, LARGE_FILE_THRESHOLD,
+				(int) SFTPFileSender.DEFAULT_LARGE_FILE_THRESHOLD));
+		sender.setLargeFileChannels(getIntProperty(properties, LARGE_FILE_CHANNELS,
+				SFTPFileSender.DEFAULT_LARGE_FILE_CHANNELS));
+		configureUploads(properties, sender);
 		
-		node = properties.selectSingleNode(PASSWORD);
-		if (node == null) throw new ConnectionDetailsException(PASSWORD);
-		String password = node.getText();
+		return sender;
+	}
+	
+	/**
+	 * Gets an FTP file sender based on connection properties.
+	 * If property {@value #PORT} not provided, by default the port number
+	 * is set to 21. Optional properties {@value #POOL_SIZE},
+	 * {@value #IDLE_TIMEOUT}, {@value #KEEP_ALIVE}, {@value #BUFFER_SIZE}
+	 * and {@value #TIMEOUT} configure the connection pool, {@value #VERIFY}
+	 * and {@value #RESUME} uploads.
+	 * @param properties	The node describing connection details
+	 * @return				FTP file sender.
+	 * @throws ConnectionDetailsException
+	 */
+	private FTPFileSender getFTPFileSender(Node properties) throws ConnectionDetailsException {
+		
+		String user = getRequiredProperty(properties, USER);
+		String password = getRequiredProperty(properties, PASSWORD);
+		String host = getRequiredProperty(properties, HOST);
+		Integer port = getIntProperty(properties, PORT, 21);
 		
-		node = properties.selectSingleNode(HOST);
-		if (node == null) throw new ConnectionDetailsException(HOST);
-		String host = node.getText();
+		FTPFileSender sender = new FTPFileSender(user, password, host, port);
+		FTPConnectionPool pool = sender.getPool();
+		pool.setMaxConnections(getIntProperty(properties, POOL_SIZE,
+				FTPConnectionPool.DEFAULT_MAX_CONNECTIONS));
+		pool.setIdleTimeout(getIntProperty(properties, IDLE_TIMEOUT,
+				(int) FTPConnectionPool.DEFAULT_IDLE_TIMEOUT));
+		pool.setKeepAliveInterval(getIntProperty(properties, KEEP_ALIVE,
+				FTPConnectionPool.DEFAULT_KEEP_ALIVE_INTERVAL));
+		pool.setBufferSize(getIntProperty(properties, BUFFER_SIZE,
+				FTPConnectionPool.DEFAULT_BUFFER_SIZE));
+		pool.setTimeout(getIntProperty(properties, TIMEOUT,
+				FTPConnectionPool.DEFAULT_TIMEOUT));
+		configureUploads(properties, sender);
 		
-		Integer port = 22;
-		node = properties.selectSingleNode(PORT);
+		return sender;
+	}
+	
+	/**
+	 * Turns verification ({@value #VERIFY}) and resuming ({@value #RESUME})
+	 * of uploads on, if the properties are {@code true}.
+	 * @param properties	The node describing connection details.
+	 * @param sender		The sender.
+	 */
+	private void configureUploads(Node properties, AbstractFileSender sender) {
+		sender.setVerify(Boolean.parseBoolean(properties.valueOf(VERIFY).trim()));
+		sender.setResume(Boolean.parseBoolean(properties.valueOf(RESUME).trim()));
+	}
+	
+	/**
+	 * Reads a mandatory property of a node.
+	 * @param properties	The parent node.
+	 * @param name			The name of the property.
+	 * @return				The value of the property.
+	 * @throws ConnectionDetailsException	If the property is missing.
+	 */
+	private String getRequiredProperty(Node properties, String name)
+			throws ConnectionDetailsException {
+		Node node = properties.selectSingleNode(name);
+		if (node == null) throw new ConnectionDetailsException(name);
+		return node.getText();
+	}
+	
+	/**
+	 * Reads an optional integer property of a node.
+	 * @param properties	The parent node.
+	 * @param name			The name of the property.
+	 * @param defaultValue	The value used if the property is missing
+	 * 						or cannot be parsed.
+	 * @return				The value of the property.
+	 */
+	private int getIntProperty(Node properties, String name, int defaultValue) {
+		Node node = properties.selectSingleNode(name);
 		if (node != null) {
 			try {
-				Integer.parseInt(node.getText());
+				return Integer.parseInt(node.getText().trim());
 			} catch (NumberFormatException e) {
-				logger.warn("Couldn't parse the port number. Using default: " + port.toString());
+				logger.warn("Couldn't parse the property " + name
+						+ ". Using default: " + defaultValue);
 			}
 		}
+		return defaultValue;
+	}
+	
+	/**
+	 * Configures delays and the number of retries of failed transfers
+	 * based on properties in a document.
+	 * @param document		An XML document containing retry options.
+	 * @param scheduler		The scheduler of retries.
+	 */
+	private void configureRetries(Document document, RetryScheduler scheduler) {
+		
+		Node retry = document.selectSingleNode(XPATH_RETRY);
+		if (retry == null) {
+			return;
+		}
 		
-		return new SFTPFileSender(user, password, host, port);
+		scheduler.setInitialDelay(getIntAttribute(retry, XPATH_INITIAL_DELAY,
+				(int) RetryScheduler.DEFAULT_INITIAL_DELAY));
+		scheduler.setMaxDelay(getIntAttribute(retry, XPATH_MAX_DELAY,
+				(int) RetryScheduler.DEFAULT_MAX_DELAY));
+		scheduler.setMaxAttempts(getIntAttribute(retry, XPATH_MAX_ATTEMPTS,
+				RetryScheduler.DEFAULT_MAX_ATTEMPTS));
+	}
+	
+	/**
+	 * Reads an optional integer attribute of a node.
+	 * @param node			The node.
+	 * @param xpath			The XPath of the attribute.
+	 * @param defaultValue	The value used if the attribute is missing
+	 * 						or cannot be parsed.
+	 * @return				The value of the attribute.
+	 */
+	private int getIntAttribute(Node node, String xpath, int defaultValue) {
+		String value = node.valueOf(xpath);
+		if (!value.isEmpty()) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				logger.warn("Couldn't parse " + xpath + ". Using default: "
+						+ defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+	
+	/**
+	 * Gets the number of directories scanned at once at startup.
+	 * @param document		An XML document containing startup options.
+	 * @return				The number of threads.
+	 */
+	private int getCatchUpThreads(Document document) {
+		return Math.max(1, getIntAttribute(document, XPATH_CATCH_UP_THREADS,
+				DEFAULT_CATCH_UP_THREADS));
 	}
 	
 	/**
@@ -164,29 +659,52 @@ public class FileMonStarter {
 		
 		monitoredDirectories = new HashMap<Path, MonitoredDirectory>();
 		
-		@SuppressWarnings("unchecked")
-		List<Node> dirNodes = document.selectNodes(XPATH_DIR);
+		for (Map.Entry<Path, Node> dirNode : getDirectoryNodes(document).entrySet()) {
+			monitoredDirectories.putAll(readDirectory(dirNode.getValue()));
+			directoryConfigs.put(dirNode.getKey(), dirNode.getValue().asXML());
+		}
 		
-		for (Node dirNode : dirNodes) {
-			
-			String localDirectory = dirNode.valueOf(XPATH_LOCAL_DIRECTORY);
-			String remoteDirectory = dirNode.valueOf(XPATH_REMOTE_DIRECTORY);
-			boolean recursive =	Boolean.parseBoolean(dirNode.valueOf(XPATH_RECURSIVE));
-			
-			@SuppressWarnings("unchecked")
-			List<Node> maskNodes = dirNode.selectNodes(XPATH_MASK);
-			
-			registerDirectory(Paths.get(localDirectory), remoteDirectory,
-					maskNodes, recursive);
+	}
+	
+	/**
+	 * Gets directory nodes of a document by their local paths. If a path
+	 * is configured more than once, the last node is used.
+	 * @param document		An XML document containing monitored directories.
+	 * @return				The nodes in the order of the document.
+	 */
+	private Map<Path, Node> getDirectoryNodes(Document document) {
+		Map<Path, Node> dirNodes = new LinkedHashMap<Path, Node>();
+		@SuppressWarnings("unchecked")
+		List<Node> nodes = document.selectNodes(XPATH_DIR);
+		for (Node dirNode : nodes) {
+			dirNodes.put(Paths.get(dirNode.valueOf(XPATH_LOCAL_DIRECTORY)), dirNode);
 		}
+		return dirNodes;
+	}
+	
+	/**
+	 * Creates the mapping of a configured directory and, if it's recursive,
+	 * of its sub-directories.
+	 * @param dirNode	The XML node describing the directory.
+	 * @return			The mappings by local paths.
+	 */
+	private Map<Path, MonitoredDirectory> readDirectory(Node dirNode) {
+		String localDirectory = dirNode.valueOf(XPATH_LOCAL_DIRECTORY);
+		String remoteDirectory = dirNode.valueOf(XPATH_REMOTE_DIRECTORY);
+		MonitoredDirectory mapping = new MonitoredDirectory(localDirectory, remoteDirectory);
+		configureDirectory(mapping, dirNode);
 		
+		Map<Path, MonitoredDirectory> mappings = new HashMap<Path, MonitoredDirectory>();
+		registerDirectory(Paths.get(localDirectory), mapping, mappings);
+		return mappings;
 	}
 	
 	/**
 	 * This method registers a monitored directory based on the directory
-	 * path, remote directory path string, and list of masks.
-	 * If {@code recursive} is {@code true}, then all local sub-directories
-	 * are registered with corresponding sub-directories on the remote side.
+	 * path and its configured mapping.
+	 * If the mapping is recursive, then all local sub-directories
+	 * are registered with corresponding sub-directories on the remote side,
+	 * except for sub-directories matching directory exclude masks.
 	 * E.g., if {@code /path} that maps to {@code /remote} is registered
 	 * and it contains {@code /path/sub} folder, then {@code /path/sub} is
 	 * registered and maps to {@code /remote/sub} directory.
@@ -194,33 +712,30 @@ public class FileMonStarter {
 	 * TODO: inferring remote sub-directories are implemented by appending
 	 * string literals {@literal /} and sub-folders names. It probably should
 	 * be changed.
+	 * Sub-directories created later are registered by the monitor.
 	 * @param path				The path to the registered directory.
-	 * @param remoteDirectory	The corresponding remote directory.
-	 * @param maskNodes			XML nodes describing filter masks.
-	 * @param recursive			If {@code true}, sub-folders will be registered
-	 * 							as well.
+	 * @param mapping			The mapping of the directory.
+	 * @param mappings			The map the mappings are registered in.
 	 */
-	private void registerDirectory(Path path, String remoteDirectory,
-			List<Node> maskNodes, boolean recursive) {
+	private void registerDirectory(Path path, MonitoredDirectory mapping,
+			Map<Path, MonitoredDirectory> mappings) {
 		
 		logger.debug("Registering mapping from " + path.toString() +
-				" to " + remoteDirectory);
+				" to " + mapping.getRemoteDirectory());
 		
-		MonitoredDirectory mapping = new MonitoredDirectory(path.toString(), remoteDirectory);
-		monitoredDirectories.put(path, mapping);
-		for (Node maskNode : maskNodes) {
-			String mask = maskNode.getText();
-			mapping.registerMask(mask);
-		}
+		mappings.put(path, mapping);
 		
-		if (recursive) {
+		if (mapping.isRecursive()) {
 			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
 			    for (Path file: stream) {
-			    	if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
-				        registerDirectory(file,
-				        		remoteDirectory + "/" + file.getFileName(),
-				        		maskNodes,
-				        		recursive);
+			    	if (!Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+			    		continue;
+			    	}
+			    	if (mapping.excludesDirectory(file)) {
+			    		logger.debug("Directory " + file.toString() + " excluded.");
+			    		continue;
+			    	}
+			    	registerDirectory(file, mapping.createSubdirectory(file), mappings);
 			    }
 			} catch (IOException | DirectoryIteratorException x) {
 				logger.error("Error while registering directories recursively", x);
@@ -228,6 +743,300 @@ public class FileMonStarter {
 		}
 	}
 	
+	/**
+	 * Sets filter rules and options of a monitored directory based on
+	 * the XML node describing it. Include ({@value #XPATH_MASK}) and
+	 * exclude ({@value #XPATH_EXCLUDE}) rules are registered in the order
+	 * of the document. Transfers waiting for a worker are scheduled by
+	 * {@value #XPATH_PRIORITY}, {@value #XPATH_WEIGHT}, {@value #XPATH_MAX_SHARE}
+	 * (a percentage of workers) and {@value #XPATH_SMALL_FIRST}, see
+	 * {@link FairTransferQueue}.
+	 * @param mapping	The monitored directory.
+	 * @param dirNode	The XML node describing the directory.
+	 */
+	private void configureDirectory(MonitoredDirectory mapping, Node dirNode) {
+		
+		@SuppressWarnings("unchecked")
+		List<Node> ruleNodes = dirNode.selectNodes(XPATH_MASK + "|" + XPATH_EXCLUDE);
+		for (Node ruleNode : ruleNodes) {
+			String mask = ruleNode.getText();
+			try {
+				if (XPATH_MASK.equals(ruleNode.getName())) {
+					mapping.registerMask(mask);
+				}
+				else if (EXCLUDE_DIRECTORY.equals(ruleNode.valueOf(XPATH_EXCLUDE_TYPE))) {
+					mapping.registerDirectoryExclude(mask);
+				}
+				else {
+					mapping.registerExclude(mask);
+				}
+			} catch (PatternSyntaxException e) {
+				logger.error("Invalid mask " + mask + " ignored.", e);
+			}
+		}
+		
+		String destinations = dirNode.valueOf(XPATH_DESTINATIONS).trim();
+		if (!destinations.isEmpty()) {
+			mapping.setDestinations(Arrays.asList(destinations.split("[,\\s]+")));
+		}
+		
+		mapping.setOrdered(Boolean.parseBoolean(dirNode.valueOf(XPATH_ORDERED)));
+		mapping.setRecursive(Boolean.parseBoolean(dirNode.valueOf(XPATH_RECURSIVE)));
+		
+		String ready = dirNode.valueOf(XPATH_READY);
+		if (!ready.isEmpty()) {
+			try {
+				mapping.setReadiness(MonitoredDirectory.Readiness.valueOf(
+						ready.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				logger.warn("Unknown readiness " + ready + ". Using default: "
+						+ mapping.getReadiness());
+			}
+		}
+		mapping.setStableTime(getIntAttribute(dirNode, XPATH_STABLE_TIME,
+				(int) MonitoredDirectory.DEFAULT_STABLE_TIME));
+		String marker = dirNode.valueOf(XPATH_MARKER);
+		if (!marker.isEmpty()) {
+			mapping.setMarker(marker);
+		}
+		
+		mapping.setPriority(getIntAttribute(dirNode, XPATH_PRIORITY, 0));
+		mapping.setWeight(getIntAttribute(dirNode, XPATH_WEIGHT,
+				MonitoredDirectory.DEFAULT_WEIGHT));
+		mapping.setMaxShare(getIntAttribute(dirNode, XPATH_MAX_SHARE, 100));
+		mapping.setSmallFirst(Boolean.parseBoolean(dirNode.valueOf(XPATH_SMALL_FIRST)));
+		
+		String compress = dirNode.valueOf(XPATH_COMPRESS).trim();
+		if (!compress.isEmpty() && !"none".equalsIgnoreCase(compress)) {
+			Node suffix = dirNode.selectSingleNode(XPATH_COMPRESS_SUFFIX);
+			try {
+				mapping.setCompression(Compression.forName(compress,
+						suffix == null ? null : suffix.getText(),
+						getIntAttribute(dirNode, XPATH_COMPRESS_LEVEL, -1)));
+			} catch (IllegalArgumentException e) {
+				logger.error(e.getMessage() + ". Files of "
+						+ mapping.getLocalDirectory() + " won't be compressed.");
+			}
+		}
+	}
+	
+	/**
+	 * Starts watching the properties file for changes, if the node
+	 * {@value #XPATH_RELOAD} is present. The file is checked every
+	 * {@value #XPATH_RELOAD_INTERVAL} milliseconds (at least 500), and
+	 * changes are applied by {@link #reload()} one to two intervals after
+	 * the file was last written.
+	 * @param document		An XML document containing reload options.
+	 */
+	private void watchProperties(Document document) {
+		Node reload = document.selectSingleNode(XPATH_RELOAD);
+		if (reload == null) {
+			return;
+		}
+		long interval = Math.max(500, getIntAttribute(reload, XPATH_RELOAD_INTERVAL,
+				DEFAULT_RELOAD_INTERVAL));
+		configWatcher = new ConfigWatcher(Paths.get(propertyFilePath), interval,
+				new Runnable() {
+			@Override
+			public void run() {
+				reload();
+			}
+		});
+		configWatcher.start();
+	}
+	
+	/**
+	 * Stops the monitor when the JVM exits, e.g. on SIGTERM: the properties
+	 * file is not reloaded anymore, transfers already enqueued are given
+	 * {@value #XPATH_DRAIN_TIMEOUT} milliseconds to finish and the rest is
+	 * left pending for the next start, see {@link FileMonitor#shutdown()}.
+	 */
+	private void addShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				logger.info("Shutting down.");
+				if (configWatcher != null) {
+					configWatcher.stop();
+				}
+				try {
+					fileMonitor.shutdown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "shutdown"));
+	}
+	
+	/**
+	 * Reads the properties file again and applies changes to the running
+	 * monitor, without pausing transfers in progress:
+	 * <ul>
+	 * <li>added connections become destinations, changed ones get a new
+	 * sender (see {@link #updateDestination(Destination, Node)}), and
+	 * removed ones are removed once directories don't use them,</li>
+	 * <li>mappings of added, changed and removed directories are swapped,
+	 * see {@link FileMonitor#updateDirectories(Path, Map)}; unchanged
+	 * directories keep their watches and mappings,</li>
+	 * <li>retry options are applied to all destinations.</li>
+	 * </ul>
+	 * Other settings are read only at startup; their changes are reported.
+	 * <br/>
+	 * A file that cannot be parsed changes nothing. Otherwise every
+	 * connection and directory is applied on its own: one that fails
+	 * (missing connection details, a directory that cannot be watched)
+	 * is logged and keeps its previous state, and is applied again by
+	 * the next reload.
+	 */
+	void reload() {
+		
+		long start = System.currentTimeMillis();
+		Document document;
+		try {
+			document = new SAXReader().read(propertyFilePath);
+		} catch (DocumentException e) {
+			logger.error("Cannot read " + propertyFilePath
+					+ ". Configuration not changed.", e);
+			return;
+		}
+		int changes = 0;
+		int failures = 0;
+		
+		// Connections first, so that directories can use new ones
+		Map<String, Node> connections = getConnectionNodes(document);
+		for (Map.Entry<String, Node> connection : connections.entrySet()) {
+			String name = connection.getKey();
+			if (connection.getValue().asXML().equals(connectionConfigs.get(name))) {
+				continue;
+			}
+			changes++;
+			try {
+				Destination destination = fileMonitor.getDestination(name);
+				if (destination == null) {
+					addDestination(fileMonitor, connection.getValue(), document);
+					registerMBean(fileMonitor.getDestination(name));
+				}
+				else {
+					updateDestination(destination, connection.getValue());
+				}
+			} catch (ConnectionDetailsException e) {
+				logger.error("Connection " + name + " not applied: " + e.getMessage());
+				failures++;
+			}
+		}
+		
+		Map<Path, Node> dirNodes = getDirectoryNodes(document);
+		List<MonitoredDirectory> changed = new ArrayList<MonitoredDirectory>();
+		for (Map.Entry<Path, Node> dirNode : dirNodes.entrySet()) {
+			Path root = dirNode.getKey();
+			String config = dirNode.getValue().asXML();
+			if (config.equals(directoryConfigs.get(root))) {
+				continue;
+			}
+			changes++;
+			Map<Path, MonitoredDirectory> mappings = readDirectory(dirNode.getValue());
+			if (fileMonitor.updateDirectories(root, mappings)) {
+				directoryConfigs.put(root, config);
+			}
+			else {
+				failures++;
+			}
+			changed.add(mappings.get(root));
+		}
+		for (Path root : new ArrayList<Path>(directoryConfigs.keySet())) {
+			if (!dirNodes.containsKey(root)) {
+				changes++;
+				fileMonitor.updateDirectories(root,
+						Collections.<Path, MonitoredDirectory>emptyMap());
+				directoryConfigs.remove(root);
+			}
+		}
+		checkDestinations(fileMonitor, changed);
+		
+		// Connections last, once directories don't use them
+		for (String name : new ArrayList<String>(connectionConfigs.keySet())) {
+			if (!connections.containsKey(name)) {
+				changes++;
+				Destination removed = fileMonitor.removeDestination(name);
+				connectionConfigs.remove(name);
+				if (removed != null && mbeanExporter != null) {
+					try {
+						mbeanExporter.unregisterMBean(removed);
+					} catch (JMException e) {
+						logger.warn("Cannot unregister the MBean of " + name + ".", e);
+					}
+				}
+			}
+		}
+		
+		for (Destination destination : fileMonitor.getDestinations()) {
+			configureRetries(document, destination.getRetryScheduler());
+		}
+		String config = getStartupConfig(document);
+		if (!config.equals(startupConfig)) {
+			startupConfig = config;
+			logger.warn("Settings other than connections, directories and retries"
+					+ " changed. They take effect after a restart.");
+		}
+		
+		logger.info("Configuration reloaded in " + (System.currentTimeMillis() - start)
+				+ " ms: " + changes + " change(s), " + failures + " failed.");
+	}
+	
+	/**
+	 * Gets connection nodes of a document by the names of their
+	 * destinations. If a name is used more than once, the first node
+	 * is used, as at startup.
+	 * @param document		An XML document containing connections.
+	 * @return				The nodes in the order of the document.
+	 */
+	private Map<String, Node> getConnectionNodes(Document document) {
+		Map<String, Node> connections = new LinkedHashMap<String, Node>();
+		@SuppressWarnings("unchecked")
+		List<Node> nodes = document.selectNodes(XPATH_CONNECTION_DETAILS);
+		for (Node connection : nodes) {
+			String name = getConnectionName(connection);
+			if (!connections.containsKey(name)) {
+				connections.put(name, connection);
+			}
+		}
+		return connections;
+	}
+	
+	/**
+	 * Gets the settings of a document not applied by {@link #reload()}.
+	 * @param document		An XML document.
+	 * @return				The settings as XML.
+	 */
+	private String getStartupConfig(Document document) {
+		StringBuilder config = new StringBuilder();
+		@SuppressWarnings("unchecked")
+		List<Element> elements = document.getRootElement().elements();
+		for (Element element : elements) {
+			String name = element.getName();
+			if (!ELEMENT_CONNECTION.equals(name) && !ELEMENT_DIR.equals(name)
+					&& !ELEMENT_RETRY.equals(name)) {
+				config.append(element.asXML());
+			}
+		}
+		return config.toString();
+	}
+	
+	/**
+	 * Registers the MBean of a destination added by a reload, if MBeans
+	 * are registered.
+	 */
+	private void registerMBean(Destination destination) {
+		if (mbeanExporter == null || destination == null) {
+			return;
+		}
+		try {
+			mbeanExporter.registerMBean(destination);
+		} catch (JMException e) {
+			logger.warn("Cannot register the MBean of " + destination + ".", e);
+		}
+	}
+	
 	/**
 	 * Initialize the logger configuration.
 	 * @param document	The XML document containing the path to the log4j
@@ -1,7 +1,4 @@
 package com.syncron.ps.tools.fileMonitoring;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -10,12 +7,13 @@ import java.nio.file.*;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
-import org.apache.commons.net.ftp.*;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 import static java.nio.file.LinkOption.*;
 import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -27,18 +25,93 @@ public class FileMonitor implements Runnable {
  
     private final WatchService watcher;
     private final Map<WatchKey,Path> keys;
-    private boolean running = true;
-    private boolean recursive = false;
-    private String ftp_username;
-    private String ftp_password;
-    private String ftp_server;
+    /**
+     * Keys of watched directories, the inverse of {@link #keys}.
+     * Guarded by {@link #keys}.
+     */
+    private final Map<Path,WatchKey> watchedKeys;
+    private volatile boolean running = true;
+    
+    /**
+     * The thread processing events, {@code null} until
+     * {@link #processEvents()}.
+     */
+    private volatile Thread thread;
+    
+    /**
+     * The time (in milliseconds) transfers enqueued before a stop are
+     * waited for.
+     */
+    private long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
     private String fileInputFolder;
-    private LinkedList<Path> backlog;
     
-    private FileSender sender;
+    private TransferHistory history;
+    private DirectoryRescanner rescanner;
+    private TransferJournal journal;
+    private ReadinessTracker readinessTracker;
+    
+    /**
+     * Destinations by name, in the order they were added. The first one
+     * is used by directories without configured destinations. The map is
+     * replaced as a whole when destinations change, so it's read without
+     * locking.
+     */
+    private volatile Map<String, Destination> destinations =
+    		new LinkedHashMap<String, Destination>();
+    
+    /**
+     * Whether retry schedulers have been started, so that destinations
+     * added later start theirs right away.
+     */
+    private boolean destinationsStarted = false;
+    
+    /**
+     * Files being delivered, with destinations still to be done.
+     */
+    private final Map<Path, Delivery> deliveries = new ConcurrentHashMap<Path, Delivery>();
+    
+    private final MonitorMetrics metrics = new MonitorMetrics(this);
+    
+    /**
+     * Collapses repeated events for the same file, {@code null} if every
+     * event is dispatched right away.
+     */
+    private EventCoalescer coalescer;
+    
+    /**
+     * The directory files given up by retries are moved to, or {@code null}.
+     */
+    private Path deadLetterDirectory;
+    
+    /**
+     * The number of threads scanning directories at startup,
+     * 0 if the startup catch-up is disabled.
+     */
+    private int catchUpThreads = 0;
+    
+    /**
+     * The time of creation of the monitor.
+     */
+    private final long createdAt = System.currentTimeMillis();
+    
+    /**
+     * The time (in milliseconds) from creation of the monitor until
+     * it started processing live events, -1 before that.
+     */
+    private volatile long timeToReady = -1;
     private Map<Path, MonitoredDirectory> directories;
  
 	static Logger logger = Logger.getLogger(FileMonitor.class.getName());
+	
+	/**
+	 * The default time (in milliseconds) transfers are drained at a stop.
+	 */
+	public static final int DEFAULT_DRAIN_TIMEOUT = 30000;
+	
+	/**
+	 * The time (in milliseconds) aborted transfers are waited for.
+	 */
+	private static final long ABORT_TIMEOUT = 5000;
     
     @SuppressWarnings("unchecked")
     static <T> WatchEvent<T> cast(WatchEvent<?> event) {
@@ -46,28 +119,76 @@ public class FileMonitor implements Runnable {
     }
  
     /**
-     * Register the given directory with the WatchService
+     * Register the given directory with the WatchService. Modifications
+     * are watched only if needed to detect complete files, deletions
+     * so that deleted files are forgotten by the history. Registering
+     * a directory again changes the watched events of its key.
+     */
+    private void register(Path dir, MonitoredDirectory directory) throws IOException {
+    	// The key must be known before the thread processing events sees it
+    	synchronized (keys) {
+    		WatchKey key;
+    		if (directory != null
+    				&& directory.getReadiness() == MonitoredDirectory.Readiness.STABLE) {
+    			key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    		} else {
+    			key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE);
+    		}
+    		keys.put(key, dir);
+    		watchedKeys.put(dir, key);
+    	}
+    }
+    
+    /**
+     * Stops watching the given directory.
      */
-    private void register(Path dir) throws IOException {
-        WatchKey key = dir.register(watcher, ENTRY_CREATE);
-        keys.put(key, dir);
+    private void cancel(Path dir) {
+    	synchronized (keys) {
+    		WatchKey key = watchedKeys.remove(dir);
+    		if (key != null) {
+    			key.cancel();
+    			keys.remove(key);
+    		}
+    	}
     }
  
     /**
-     * Register the given directory, and all its sub-directories, with the
-     * WatchService.
+     * Register a new sub-directory of a recursively monitored directory,
+     * and all its sub-directories, with the WatchService. Each of them is
+     * mapped to the remote sub-directory of the same name. Excluded
+     * sub-directories are skipped. Files created before the watch was
+     * registered are caught up by a rescan.
      */
-    private void registerAll(final Path start) throws IOException {
-        // register directory and sub-directories
-        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                throws IOException
-            {
-                register(dir);
-                return FileVisitResult.CONTINUE;
-            }
-        });
+    private void registerSubdirectory(Path dir, MonitoredDirectory parent) {
+    	if (parent.excludesDirectory(dir)) {
+    		logger.debug("Directory " + dir.toString() + " excluded.");
+    		return;
+    	}
+    	
+    	MonitoredDirectory mapping = parent.createSubdirectory(dir);
+    	directories.put(dir, mapping);
+    	try {
+    		register(dir, mapping);
+    	} catch (IOException | ClosedWatchServiceException e) {
+    		directories.remove(dir);
+    		logger.error("Cannot watch " + dir.toString() + ".", e);
+    		return;
+    	}
+    	logger.debug("Registered mapping from " + dir.toString() +
+    			" to " + mapping.getRemoteDirectory());
+    	
+    	// Sub-directories may have been created before the watch
+    	try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+    		for (Path child : stream) {
+    			if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+    				registerSubdirectory(child, mapping);
+    			}
+    		}
+    	} catch (IOException | DirectoryIteratorException e) {
+    		logger.error("Cannot list " + dir.toString() + ".", e);
+    	}
+    	
+    	rescanner.rescan(dir);
     }
  
 //    /**
@@ -106,73 +227,161 @@ public class FileMonitor implements Runnable {
     
     /**
      * The constructor registers directories and stores a file sender used
-     * to transfer files.
+     * to transfer files. Files are transferred by a single worker thread.
      * @param directories		A map of monitored directories.
      * @param sender			Some implementation of the file sender.
      * @throws IOException
      */
     public FileMonitor(Map<Path, MonitoredDirectory> directories,
     		FileSender sender) throws IOException {
-    	this.directories = directories;
-    	this.sender = sender;
+    	this(directories, sender, 1);
+    }
+    
+    /**
+     * The constructor registers directories and stores a file sender used
+     * to transfer files. Files are transferred by {@code workers} threads,
+     * so the thread processing events never waits for an upload.
+     * @param directories		A map of monitored directories.
+     * @param sender			Some implementation of the file sender.
+     * @param workers			The number of transfer worker threads.
+     * @throws IOException
+     */
+    public FileMonitor(Map<Path, MonitoredDirectory> directories,
+    		FileSender sender, int workers) throws IOException {
+    	this(directories);
+    	addDestination(Destination.DEFAULT_NAME, sender, workers);
+    }
+    
+    /**
+     * The constructor registers directories. Destinations files are
+     * transferred to must be added with
+     * {@link #addDestination(String, FileSender, int)}.
+     * @param directories		A map of monitored directories.
+     * @throws IOException
+     */
+    public FileMonitor(Map<Path, MonitoredDirectory> directories) throws IOException {
+    	this.directories = new ConcurrentHashMap<Path, MonitoredDirectory>(directories);
     	this.watcher = FileSystems.getDefault().newWatchService();
     	this.keys = new HashMap<WatchKey, Path>();
-    	this.recursive = false;
-    	this.backlog = new LinkedList<Path>();
+    	this.watchedKeys = new HashMap<Path, WatchKey>();
+    	this.history = new TransferHistory();
+    	this.rescanner = new DirectoryRescanner(this, history);
+    	this.readinessTracker = new ReadinessTracker(this, history);
     	
     	// Register directories
-    	for (Path directory : directories.keySet()) {
-    		register(directory);
+    	for (Map.Entry<Path, MonitoredDirectory> directory : this.directories.entrySet()) {
+    		register(directory.getKey(), directory.getValue());
     	}
     }
  
     /**
-     * Process all events for keys queued to the watcher
+     * Process all events for keys queued to the watcher. Files pending
+     * before a restart are recovered from the journal, if it's set,
+     * before the processing starts.
+     * @throws IOException	If the journal cannot be read or written;
+     * 						events are not processed then.
      */
-    public void processEvents() {
-        Thread t = new Thread(this);
-        t.start();
+    public void processEvents() throws IOException {
+    	if (journal != null) {
+    		try {
+    			recover();
+    		} catch (IOException e) {
+    			throw new IOException("Cannot recover from the transfer journal.", e);
+    		}
+    	}
+        thread = new Thread(this, "file-monitor");
+        thread.start();
     }
     
+    /**
+     * Stops processing events and closes the watch service. Transfers
+     * already enqueued are drained in the background, see
+     * {@link #shutdown()}.
+     */
     public void stop () {
     	running = false;
+    	try {
+    		watcher.close();
+    	} catch (IOException e) {
+    		logger.warn("Cannot close the watch service.", e);
+    	}
+    }
+    
+    /**
+     * Stops the monitor and waits until transfers are drained: transfers
+     * already enqueued are finished within the drain timeout, then
+     * the remaining ones are aborted. Files not transferred stay pending
+     * in the journal and are enqueued again by the next start.
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+    	stop();
+    	Thread thread = this.thread;
+    	if (thread != null) {
+    		thread.join();
+    	}
     }
 
 	@Override
 	public void run() {
+		
+		// Directories are already watched, so events arriving during
+		// the catch-up wait for the loop below
+		boolean interrupted = false;
+		if (catchUpThreads > 0) {
+			try {
+				catchUp();
+			} catch (InterruptedException e) {
+				// Stop, but still drain what the catch-up has enqueued
+				interrupted = true;
+				running = false;
+			}
+		}
+		startDestinations();
+		timeToReady = System.currentTimeMillis() - createdAt;
+		logger.info("File monitor ready in " + timeToReady + " ms.");
+		
 		while(running) {
 			 
-            // wait for key to be signalled
+            // wait for key to be signalled, or for held back files
             WatchKey key;
             try {
-            	if (backlog.size() > 0) {
-            		key = watcher.poll(5000, TimeUnit.MILLISECONDS);
-            	} else {
-            		key = watcher.take();
-            	}
+            	long delay = coalescer == null ? -1 : coalescer.getDelay(now());
+            	key = delay < 0 ? watcher.take()
+            			: watcher.poll(delay, TimeUnit.MILLISECONDS);
             } catch (InterruptedException x) {
-                return;
+            	interrupted = true;
+            	break;
+            } catch (ClosedWatchServiceException x) {
+            	// stopped
+            	break;
             }
- 
-            Path dir = keys.get(key);
-            if (dir == null && backlog.size() == 0) {
-                System.err.println("WatchKey not recognized!!");
-                continue;
-            } else if (dir == null) {
-            	dir = backlog.pop();
-            	try {
-            		transferFile(dir);
-            	} catch (Exception e) {
-            		logger.error("General error: ", e);
+            if (coalescer != null) {
+            	for (Path file : coalescer.poll(now())) {
+            		dispatch(file);
             	}
+            }
+            if (key == null) {
             	continue;
             }
  
+            Path dir;
+            synchronized (keys) {
+            	dir = keys.get(key);
+            }
+            if (dir == null) {
+                logger.warn("WatchKey not recognized!!");
+                continue;
+            }
+ 
             for (WatchEvent<?> event: key.pollEvents()) {
                 WatchEvent.Kind kind = event.kind();
  
-                // TBD - provide example of how OVERFLOW event is handled
+                // Events have been lost, find files not delivered yet
                 if (kind == OVERFLOW) {
+                	metrics.eventsLost();
+                	logger.warn("Events lost for " + dir + ". Rescanning.");
+                	rescanner.rescan(dir);
                     continue;
                 }
  
@@ -181,59 +390,170 @@ public class FileMonitor implements Runnable {
                 Path name = ev.context();
                 
                 Path child = dir.resolve(name);
+                metrics.eventReceived();
 
-                if (recursive && Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                    try {
-                        if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                            registerAll(child);
-                        }
-                    } catch (IOException x) {
-                        // ignore to keep sample readbale
-                    }
+                // New sub-directories of recursive trees are watched as well
+                MonitoredDirectory mapping = directories.get(dir);
+                if (kind == ENTRY_CREATE && mapping != null
+                		&& mapping.isRecursive()
+                		&& Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                	registerSubdirectory(child, mapping);
                 } else  if (kind == ENTRY_CREATE) {
-                	try {
-                		transferFile(child);
-                	} catch (Exception e) {
-                		logger.error("General error: ", e);
+                	if (coalescer == null) {
+                		dispatch(child);
+                	}
+                	else if (!coalescer.add(child, now())) {
+                		metrics.eventCoalesced();
                 	}
+                } else if (kind == ENTRY_MODIFY) {
+                	readinessTracker.modified(child);
+                } else if (kind == ENTRY_DELETE) {
+                	history.forget(child);
                 }
             }
  
             // reset key and remove from set if directory no longer accessible
             boolean valid = key.reset();
             if (!valid) {
-                keys.remove(key);
+                boolean empty;
+                synchronized (keys) {
+                	keys.remove(key);
+                	if (watchedKeys.get(dir) == key) {
+                		watchedKeys.remove(dir);
+                	}
+                	empty = keys.isEmpty();
+                }
+                
+                // the directory has been removed
+                if (!Files.isDirectory(dir, NOFOLLOW_LINKS)) {
+                	directories.remove(dir);
+                	history.forget(dir);
+                	logger.info("Directory " + dir.toString() +
+                			" removed. Not monitored anymore.");
+                }
  
                 // all directories are inaccessible
-                if (keys.isEmpty()) {
+                if (empty) {
                     break;
                 }
             }
-        }		
+        }
+		
+		drain();
+		// Restored only now, so that draining can wait for transfers
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Lets transfer workers finish what has been already enqueued, for
+	 * at most the drain timeout. Transfers still running then are aborted
+	 * and the enqueued ones are dropped. Their files, like files waiting
+	 * for a retry or to become complete, stay pending and are enqueued
+	 * again after a restart if the journal is on.
+	 */
+	private void drain() {
+		
+		// also if all directories became inaccessible
+		running = false;
+		long deadline = System.currentTimeMillis() + drainTimeout;
+		if (coalescer != null) {
+			for (Path file : coalescer.pollAll()) {
+				dispatch(file);
+			}
+		}
+		readinessTracker.shutdown();
+		rescanner.shutdown();
+		Collection<Destination> stopped = destinations.values();
+		for (Destination destination : stopped) {
+			destination.shutdown();
+		}
+		
+		try {
+			int dropped = 0;
+			for (Destination destination : stopped) {
+				long timeout = Math.max(0, deadline - System.currentTimeMillis());
+				if (!destination.getExecutor().awaitTermination(timeout)) {
+					dropped += destination.abort();
+					logger.warn("Transfers to " + destination
+							+ " not finished in time. Aborted.");
+				}
+			}
+			for (Destination destination : stopped) {
+				if (destination.isAborted() && !destination.getExecutor()
+						.awaitTermination(ABORT_TIMEOUT)) {
+					logger.warn("Transfers to " + destination + " still running.");
+				}
+				destination.close();
+			}
+			int pending = history.getPendingCount();
+			logger.info("File monitor stopped, " + dropped + " transfer(s) dropped, "
+					+ pending + " file(s) left pending.");
+			if (journal != null) {
+				journal.close();
+			}
+			else if (pending > 0) {
+				logger.warn("Pending files are not journaled. Only the startup"
+						+ " catch-up finds them again.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 	/**
-	 * Transfers the file to a remote location.
-	 * Finds the associated remote directory and filters the file name.
-	 * @param file	The path to the transferred file.
+	 * Finds the associated remote directory, filters the file name
+	 * and hands the file over to transfer workers once it's complete.
+	 * A file already waiting for a transfer is not enqueued again.
+	 * @param file	The path to the transferred file (or its marker).
 	 */
-	private void transferFile(Path file) {
+	void dispatch(Path file) {
 		try {
 			//Find dir mapping
 			MonitoredDirectory directory = directories.get(file.getParent());
 			
 			if (directory != null) {
 				
+				// A marker stands for the file it's named after
+				boolean marked = false;
+				if (directory.getReadiness() == MonitoredDirectory.Readiness.MARKER) {
+					String name = file.getFileName().toString();
+					String marker = directory.getMarker();
+					if (name.endsWith(marker)) {
+						file = file.resolveSibling(
+								name.substring(0, name.length() - marker.length()));
+						marked = true;
+					}
+				}
+				
 				// Filter the file name
 				if (directory.filter(file.getFileName().toString())) {
 					
-					// Send the file
-					sender.transferFile(file, directory.getRemoteDirectory());
+					if (directory.getReadiness() == MonitoredDirectory.Readiness.MARKER
+							&& !marked
+							&& !Files.exists(file.resolveSibling(
+									file.getFileName() + directory.getMarker()))) {
+						logger.debug("File " + file.toString() +
+								" waits for its marker.");
+						return;
+					}
+					
+					if (!history.markPending(file)) {
+						logger.debug("File " + file.toString() +
+								" is already waiting for a transfer.");
+						return;
+					}
 					
-					logger.info("File " + file.toString() +
-							" has been successfully transferred.");
+					if (directory.getReadiness() == MonitoredDirectory.Readiness.STABLE) {
+						readinessTracker.track(file, directory);
+					}
+					else {
+						submit(file, directory);
+					}
 				}
 				else {
+					metrics.filteredOut();
 					logger.debug("File " + file.toString() +
 							" has been filtered out and won't be transferred.");
 				}
@@ -245,69 +565,663 @@ public class FileMonitor implements Runnable {
 						". Ignoring " + file.toString() + ".");
 			}
 			
+		} catch (Exception e) {
+			logger.error("General error: ", e);
+		}
+	}
+	
+	/**
+	 * Hands a pending file over to transfer workers of all destinations
+	 * of its directory. The file is transferred to all of them at once.
+	 * @param file			The path to the transferred file.
+	 * @param directory		The monitored directory containing the file.
+	 */
+	void submit(Path file, MonitoredDirectory directory) {
+		List<Destination> targets = getDestinations(directory);
+		if (targets.isEmpty()) {
+			history.markFailed(file);
+			logger.error("No destination for " + file.toString() + ".");
+			return;
+		}
+		deliveries.put(file, new Delivery(targets));
+		metrics.enqueued();
+		for (Destination destination : targets) {
+			submit(file, directory, destination);
+		}
+	}
+	
+	/**
+	 * Hands a pending file over to transfer workers of a destination.
+	 */
+	private void submit(final Path file, final MonitoredDirectory directory,
+			final Destination destination) {
+		TransferBatcher batcher = destination.getBatcher();
+		if (batcher != null) {
+			batcher.add(file, directory);
+			return;
+		}
+		try {
+			destination.getExecutor().submit(
+					directory.isOrdered() ? directory : null, directory, size(file),
+					new Runnable() {
+						@Override
+						public void run() {
+							transferFile(file, directory, destination);
+						}
+					});
+		} catch (RejectedExecutionException e) {
+			rejected(Collections.singletonList(file), destination);
+		}
+	}
+	
+	/**
+	 * Hands a batch of pending files of one directory over to transfer
+	 * workers of a destination. Batches of an ordered directory are
+	 * transferred in order.
+	 * @param files			The paths to the transferred files.
+	 * @param directory		The monitored directory containing the files.
+	 * @param destination	The destination of the files.
+	 */
+	void submitBatch(final List<Path> files, final MonitoredDirectory directory,
+			final Destination destination) {
+		long size = 0;
+		for (Path file : files) {
+			size += size(file);
+		}
+		try {
+			destination.getExecutor().submit(
+					directory.isOrdered() ? directory : null, directory, size,
+					new Runnable() {
+						@Override
+						public void run() {
+							transferBatch(files, directory, destination);
+						}
+					});
+		} catch (RejectedExecutionException e) {
+			rejected(files, destination);
+		}
+	}
+	
+	/**
+	 * Records files the workers of a destination didn't accept, because
+	 * the destination has been removed or the monitor is stopping. Like
+	 * failed transfers, they stay pending while stopping and are failed
+	 * for a removed destination, so that they can be dispatched again.
+	 */
+	private void rejected(List<Path> files, Destination destination) {
+		for (Path file : files) {
+			if (!running) {
+				logger.warn("Transfer of " + file.toString() + " to " + destination
+						+ " rejected while stopping. Left pending.");
+			}
+			else {
+				destination.getMetrics().failed();
+				logger.warn("Transfer of " + file.toString() + " to " + destination
+						+ " rejected, the destination has been removed.");
+				finish(file, destination, -1, true, false);
+			}
+		}
+	}
+	
+	/**
+	 * @return	The size of a file to schedule its transfer by, 0 if it
+	 * 			cannot be read; the transfer reports the error.
+	 */
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Submits again a file waiting for a retry. The file is still pending.
+	 * @param file			The path to the transferred file.
+	 * @param destination	The destination the transfer failed for.
+	 */
+	void resubmit(Path file, Destination destination) {
+		MonitoredDirectory directory = directories.get(file.getParent());
+		if (directory != null && !isRemoved(destination)) {
+			submit(file, directory, destination);
+		}
+		else {
+			finish(file, destination, -1, true, false);
+		}
+	}
+	
+	/**
+	 * Transfers the file to a destination. Executed by transfer workers.
+	 * @param file			The path to the transferred file.
+	 * @param directory		The monitored directory containing the file.
+	 * @param destination	The destination of the file.
+	 */
+	private void transferFile(Path file, MonitoredDirectory directory,
+			Destination destination) {
+		try {
+			
+			// Remember which version of the file is sent
+			BasicFileAttributes attributes =
+					Files.readAttributes(file, BasicFileAttributes.class);
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			
+			// The file may have been found both by a scan and an event
+			if (history.isDelivered(file, lastModified)) {
+				logger.debug("File " + file.toString() +
+						" has been already transferred.");
+				finish(file, destination, lastModified, false, false);
+				return;
+			}
+			
+			// Send the file
+			history.markInFlight(file);
+			long start = System.currentTimeMillis();
+			try {
+				destination.getSender().transferFile(file,
+						directory.getRemoteDirectory(), directory.getCompression());
+			} finally {
+				destination.getMetrics().uploaded(System.currentTimeMillis() - start);
+			}
+			delivered(file, destination, lastModified, attributes.size());
+			
 		} catch (TransferFailedException e) {
-			if (e.retry()) {
-				logger.warn("Transfer failed because the file is locked for reading. Retrying later.");
-				backlog.add(file);
+			failed(file, destination, e);
+		} catch (IOException e) {
+			logger.error("Cannot read " + file.toString() + ".", e);
+			finish(file, destination, -1, true, false);
+		} catch (Exception e) {
+			logger.error("General error: ", e);
+			finish(file, destination, -1, true, false);
+		}
+	}
+	
+	/**
+	 * Transfers a batch of files to a destination at once. Every file
+	 * succeeds or fails on its own, exactly as if it was transferred by
+	 * {@link #transferFile(Path, MonitoredDirectory, Destination)}.
+	 * Executed by transfer workers.
+	 * @param files			The paths to the transferred files.
+	 * @param directory		The monitored directory containing the files.
+	 * @param destination	The destination of the files.
+	 */
+	private void transferBatch(List<Path> files, MonitoredDirectory directory,
+			Destination destination) {
+		
+		// Remember which version of each file is sent
+		Map<Path, BasicFileAttributes> versions =
+				new LinkedHashMap<Path, BasicFileAttributes>();
+		for (Path file : files) {
+			try {
+				BasicFileAttributes attributes =
+						Files.readAttributes(file, BasicFileAttributes.class);
+				long lastModified = attributes.lastModifiedTime().toMillis();
+				if (history.isDelivered(file, lastModified)) {
+					logger.debug("File " + file.toString() +
+							" has been already transferred.");
+					finish(file, destination, lastModified, false, false);
+					continue;
+				}
+				history.markInFlight(file);
+				versions.put(file, attributes);
+			} catch (IOException e) {
+				logger.error("Cannot read " + file.toString() + ".", e);
+				finish(file, destination, -1, true, false);
+			}
+		}
+		if (versions.isEmpty()) {
+			return;
+		}
+		
+		Map<Path, TransferFailedException> failures = Collections.emptyMap();
+		long start = System.currentTimeMillis();
+		try {
+			destination.getSender().transferFiles(
+					new ArrayList<Path>(versions.keySet()),
+					directory.getRemoteDirectory(), directory.getCompression());
+		} catch (BatchTransferException e) {
+			failures = e.getFailures();
+		} catch (Exception e) {
+			logger.error("General error: ", e);
+			for (Path file : versions.keySet()) {
+				finish(file, destination, -1, true, false);
+			}
+			return;
+		} finally {
+			destination.getMetrics().uploaded(System.currentTimeMillis() - start);
+		}
+		
+		for (Map.Entry<Path, BasicFileAttributes> version : versions.entrySet()) {
+			TransferFailedException failure = failures.get(version.getKey());
+			if (failure == null) {
+				BasicFileAttributes attributes = version.getValue();
+				delivered(version.getKey(), destination,
+						attributes.lastModifiedTime().toMillis(), attributes.size());
+			}
+			else {
+				failed(version.getKey(), destination, failure);
+			}
+		}
+	}
+	
+	/**
+	 * Records a successful transfer to a destination.
+	 */
+	private void delivered(Path file, Destination destination, long lastModified,
+			long size) {
+		destination.getRetryScheduler().reset(file);
+		Delivery delivery = deliveries.get(file);
+		destination.getMetrics().delivered(size, delivery == null ? 0
+				: System.currentTimeMillis() - delivery.enqueuedAt);
+		logger.info("File " + file.toString() +
+				" has been successfully transferred to " + destination + ".");
+		finish(file, destination, lastModified, false, false);
+	}
+	
+	/**
+	 * Schedules a retry of a failed transfer to a destination, or gives
+	 * the file up.
+	 */
+	private void failed(Path file, Destination destination, TransferFailedException e) {
+		if ((e.retry() || destination.isAborted()) && !running) {
+			// Sent again after a restart
+			logger.warn("Transfer of " + file.toString() + " to " + destination
+					+ " failed while stopping. Left pending.");
+		}
+		else if (e.retry() && isRemoved(destination)) {
+			destination.getMetrics().failed();
+			logger.warn("Transfer of " + file.toString() + " to removed destination "
+					+ destination + " failed. Not retried.");
+			finish(file, destination, -1, true, false);
+		}
+		else if (e.retry()) {
+			// The file stays pending until the retry
+			logger.warn("Transfer of " + file.toString() + " to " + destination
+					+ " failed. Retrying later.");
+			if (destination.getRetryScheduler().schedule(file)) {
+				destination.getMetrics().retried();
 			}
 			else {
-				logger.error("Transfer failed.", e);
+				destination.getMetrics().givenUp();
+				destination.getMetrics().failed();
+				finish(file, destination, -1, true, true);
 			}
 		}
+		else {
+			destination.getMetrics().failed();
+			destination.getRetryScheduler().reset(file);
+			logger.error("Transfer to " + destination + " failed.", e);
+			finish(file, destination, -1, true, false);
+		}
 	}
 	
-	private void ftpStoreFile(Path file) throws Exception {
-		//"C:/SCP/INPUT/LOCATION/BACKUP/file.fil"
-		String location = "";
-		String parentFolder = "";
-		int parentSlash = file.toString().lastIndexOf(File.separatorChar);
-		int endSlash = file.toString().lastIndexOf(File.separatorChar, parentSlash-1);
-		int startSlash = file.toString().lastIndexOf(File.separatorChar, endSlash-1);
-		if (parentSlash != endSlash) {
-			parentFolder = file.toString().substring(endSlash+1, parentSlash);
+	/**
+	 * Records that a destination is done with a file. Once all destinations
+	 * of the file are done, the file is delivered if all of them succeeded.
+	 * Otherwise it's failed and, if any destination has given it up, moved
+	 * to the dead-letter directory.
+	 * @param file			The path to the transferred file.
+	 * @param destination	The destination that is done.
+	 * @param lastModified	The version of the file transferred, or -1.
+	 * @param failed		{@code true} if the transfer failed.
+	 * @param givenUp		{@code true} if retries of the transfer ran out.
+	 */
+	private void finish(Path file, Destination destination, long lastModified,
+			boolean failed, boolean givenUp) {
+		Delivery delivery = deliveries.get(file);
+		if (delivery == null) {
+			delivery = new Delivery(Collections.singletonList(destination));
+		}
+		synchronized (delivery) {
+			if (!delivery.remaining.remove(destination)) {
+				return;
+			}
+			if (lastModified >= 0) {
+				delivery.lastModified = Math.min(delivery.lastModified, lastModified);
+			}
+			delivery.failed |= failed;
+			delivery.givenUp |= givenUp;
+			if (!delivery.remaining.isEmpty()) {
+				return;
+			}
 		}
-		if (endSlash != startSlash) {
-			location = file.toString().substring(startSlash+1, endSlash) + "/";
+		
+		deliveries.remove(file);
+		if (!delivery.failed) {
+			history.markDelivered(file, delivery.lastModified);
 		}
-					
-		if (parentFolder.trim().equalsIgnoreCase("BACKUP")) {
-			FTPClient f = new FTPClient();
-	    	FileInputStream fis = null;
-	    	try {
-	        	f.connect(ftp_server);
-	        	String abc = f.getReplyString();
-	            f.login(ftp_username, ftp_password);
-	            abc = f.getReplyString();
-	            logger.info("File: " + file.getFileName().toString() + ", status: " + abc);
-	            fis = new FileInputStream(file.toString());
-	            boolean success = f.storeFile("temp/" + file.getFileName().toString(), fis);
-	            abc = f.getReplyString();
-	            logger.info("File: " + file.getFileName().toString() + ", status: " + abc);
-	            success = f.rename("temp/" + file.getFileName().toString(), location + file.getFileName().toString());
-	            abc = f.getReplyString();
-	            f.logout();
-	            logger.info("File: " + file.getFileName().toString() + ", status: " + abc);
-	    	} catch (IOException e) {
-	    		if (e instanceof FileNotFoundException) {
-	    			logger.warn("The file (" + location + file.getFileName().toString() + ") is locked by the filesystem, retrying later (5 sec intervals)");
-	    			backlog.add(file);
-	    			return;
-	    		} else {
-	    			logger.error("Could not upload to server: " + e.getMessage() + " \n File: " + file.toString() + "\n Remote file: temp/" + file.getFileName().toString() + "\n Renamed: " + location + file.getFileName().toString());
-	    		}
-	    	} finally {
-	    		try {
-	    			if (fis != null) {
-	    				fis.close();
-	    			}
-	    			f.disconnect();
-	    		} catch (IOException e) {
-	    			logger.error("Could not close connection to ftp server: " + e.getMessage());
-	    		}
-	        }
+		else {
+			history.markFailed(file);
+			if (delivery.givenUp) {
+				moveToDeadLetter(file);
+			}
 		}
 	}
-
+	
+	/**
+	 * Moves a file that couldn't be transferred to the dead-letter
+	 * directory, if one is set.
+	 */
+	private void moveToDeadLetter(Path file) {
+		if (deadLetterDirectory == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(deadLetterDirectory);
+			Files.move(file, deadLetterDirectory.resolve(file.getFileName()),
+					StandardCopyOption.REPLACE_EXISTING);
+			logger.error("File " + file + " moved to " + deadLetterDirectory + ".");
+		} catch (IOException e) {
+			logger.error("Cannot move " + file + " to " + deadLetterDirectory + ".", e);
+		}
+	}
+	
+	/**
+	 * Adds a destination files can be transferred to. A destination added
+	 * while the monitor runs is used by files dispatched afterwards.
+	 * @param name		The name of the destination, referred to by
+	 * 					{@link MonitoredDirectory#getDestinations()}.
+	 * @param sender	The sender transferring files to the destination.
+	 * @param workers	The number of transfer worker threads.
+	 * @return			The destination, to be configured further.
+	 */
+	public synchronized Destination addDestination(String name, FileSender sender,
+			int workers) {
+		Destination destination = new Destination(this, name, sender, workers);
+		Map<String, Destination> changed = new LinkedHashMap<String, Destination>(destinations);
+		changed.put(name, destination);
+		destinations = changed;
+		if (destinationsStarted) {
+			destination.getRetryScheduler().start();
+		}
+		return destination;
+	}
+	
+	/**
+	 * Removes a destination while the monitor runs. Files dispatched
+	 * afterwards are not transferred to it. Transfers already enqueued
+	 * are finished; files waiting for a retry, and files whose transfer
+	 * fails from now on, are failed for the destination. Its sender is
+	 * closed once the enqueued transfers are finished.
+	 * @param name	The name of the destination.
+	 * @return		The removed destination or {@code null}.
+	 */
+	public Destination removeDestination(String name) {
+		final Destination destination;
+		synchronized (this) {
+			Map<String, Destination> changed =
+					new LinkedHashMap<String, Destination>(destinations);
+			destination = changed.remove(name);
+			if (destination == null) {
+				return null;
+			}
+			destinations = changed;
+		}
+		destination.shutdown();
+		List<Path> waiting = destination.getRetryScheduler().drain();
+		for (Path file : waiting) {
+			finish(file, destination, -1, true, false);
+		}
+		logger.info("Destination " + name + " removed, " + waiting.size()
+				+ " file(s) waiting for a retry failed.");
+		
+		if (destination.getSender() instanceof AbstractFileSender) {
+			Thread closer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						destination.getExecutor().awaitTermination(Long.MAX_VALUE);
+						destination.close();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "destination-closer-" + name);
+			closer.setDaemon(true);
+			closer.start();
+		}
+		return destination;
+	}
+	
+	/**
+	 * Starts retries of all destinations, once the monitor is ready.
+	 */
+	private synchronized void startDestinations() {
+		for (Destination destination : destinations.values()) {
+			destination.getRetryScheduler().start();
+		}
+		destinationsStarted = true;
+	}
+	
+	/**
+	 * @return	{@code true} if the destination has been removed.
+	 */
+	private boolean isRemoved(Destination destination) {
+		return destinations.get(destination.getName()) != destination;
+	}
+	
+	/**
+	 * Replaces the mappings of a configured directory and of its
+	 * sub-directories while the monitor runs. Directories no longer
+	 * mapped stop being watched, new ones are watched and existing ones
+	 * keep their watch, with watched events changed if needed. Mappings
+	 * are swapped one by one: files dispatched afterwards use the new
+	 * rules and remote directories, transfers already enqueued finish
+	 * with the old ones. New directories are scanned for existing files
+	 * if the startup catch-up is enabled.
+	 * @param root		The local path of the configured directory.
+	 * @param mappings	The new mappings of the directory and its
+	 * 					sub-directories, empty to stop monitoring it.
+	 * @return			{@code false} if a directory couldn't be watched;
+	 * 					other directories are updated anyway.
+	 */
+	public synchronized boolean updateDirectories(Path root,
+			Map<Path, MonitoredDirectory> mappings) {
+		
+		for (Map.Entry<Path, MonitoredDirectory> entry : directories.entrySet()) {
+			if (!mappings.containsKey(entry.getKey())
+					&& Paths.get(entry.getValue().getRootDirectory()).equals(root)) {
+				directories.remove(entry.getKey());
+				cancel(entry.getKey());
+				logger.info("Directory " + entry.getKey() + " not monitored anymore.");
+			}
+		}
+		
+		boolean registered = true;
+		for (Map.Entry<Path, MonitoredDirectory> entry : mappings.entrySet()) {
+			Path dir = entry.getKey();
+			try {
+				register(dir, entry.getValue());
+			} catch (IOException e) {
+				logger.error("Cannot watch " + dir + ". Mapping not changed.", e);
+				registered = false;
+				continue;
+			}
+			if (directories.put(dir, entry.getValue()) == null) {
+				logger.info("Registered mapping from " + dir + " to "
+						+ entry.getValue().getRemoteDirectory() + ".");
+				if (catchUpThreads > 0) {
+					rescanner.rescan(dir);
+				}
+			}
+		}
+		return registered;
+	}
+	
+	/**
+	 * @return	All destinations in the order they were added.
+	 */
+	public Collection<Destination> getDestinations() {
+		return Collections.unmodifiableCollection(destinations.values());
+	}
+	
+	/**
+	 * @param name	The name of a destination.
+	 * @return		The destination or {@code null}.
+	 */
+	public Destination getDestination(String name) {
+		return destinations.get(name);
+	}
+	
+	/**
+	 * Resolves the destinations of a directory. A directory without
+	 * configured destinations uses the first destination.
+	 */
+	private List<Destination> getDestinations(MonitoredDirectory directory) {
+		List<String> names = directory.getDestinations();
+		if (names.isEmpty()) {
+			return destinations.isEmpty()
+					? Collections.<Destination>emptyList()
+					: Collections.singletonList(destinations.values().iterator().next());
+		}
+		List<Destination> targets = new ArrayList<Destination>(names.size());
+		for (String name : names) {
+			Destination destination = destinations.get(name);
+			if (destination != null) {
+				targets.add(destination);
+			}
+			else {
+				logger.warn("Unknown destination " + name + " of "
+						+ directory.getLocalDirectory() + ".");
+			}
+		}
+		return targets;
+	}
+	
+	/**
+	 * Sets the directory files are moved to once any of their
+	 * destinations has given them up.
+	 * @param deadLetterDirectory	The directory or {@code null} to leave
+	 * 								the files where they are.
+	 */
+	public void setDeadLetterDirectory(Path deadLetterDirectory) {
+		this.deadLetterDirectory = deadLetterDirectory;
+	}
+	
+	/**
+	 * Restores the history of transfers from the journal, enqueues files
+	 * that were pending before the restart and starts journaling.
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		List<Path> pending = journal.replay(history);
+		journal.open(history);
+		history.setJournal(journal);
+		for (Path file : pending) {
+			if (Files.exists(file, NOFOLLOW_LINKS)) {
+				dispatch(file);
+			}
+		}
+		logger.info(pending.size() + " file(s) pending before the restart enqueued.");
+	}
+	
+	/**
+	 * Sets the journal transfers are recorded in, so that pending
+	 * and delivered files are known after a restart. Must be called
+	 * before {@link #processEvents()}.
+	 * @param journal	The transfer journal.
+	 */
+	public void setJournal(TransferJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Enqueues files that arrived in monitored directories while
+	 * the monitor was not running.
+	 * @throws InterruptedException
+	 */
+	private void catchUp() throws InterruptedException {
+		logger.info("Startup catch-up of " + directories.size()
+				+ " directories started.");
+		long start = System.currentTimeMillis();
+		int found = rescanner.catchUp(directories.keySet(), catchUpThreads);
+		logger.info("Startup catch-up finished in "
+				+ (System.currentTimeMillis() - start) + " ms, "
+				+ found + " file(s) enqueued.");
+	}
+	
+	/**
+	 * Enables scanning monitored directories at startup for files
+	 * that arrived while the monitor was down. Must be called before
+	 * {@link #processEvents()}.
+	 * @param threads	The number of directories scanned at once,
+	 * 					0 disables the catch-up.
+	 */
+	public void setCatchUpThreads(int threads) {
+		this.catchUpThreads = threads;
+	}
+	
+	/**
+	 * Enables collapsing events reported for the same file within
+	 * a window into one, see {@link EventCoalescer}. New files are
+	 * dispatched up to the window later. Must be called before
+	 * {@link #processEvents()}.
+	 * @param window	The window in milliseconds, 0 dispatches every
+	 * 					event right away.
+	 */
+	public void setCoalescingWindow(long window) {
+		this.coalescer = window > 0 ? new EventCoalescer(window) : null;
+	}
+	
+	/**
+	 * Sets the time transfers enqueued before a stop are waited for,
+	 * see {@link #shutdown()}.
+	 * @param drainTimeout	The time in milliseconds, 0 aborts transfers
+	 * 						in progress right away.
+	 */
+	public void setDrainTimeout(long drainTimeout) {
+		this.drainTimeout = drainTimeout;
+	}
+	
+	/**
+	 * @return	A monotonic time in milliseconds.
+	 */
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+	
+	/**
+	 * @return	The time (in milliseconds) from creation of the monitor
+	 * 			until it started processing live events, or -1 if it
+	 * 			is not ready yet.
+	 */
+	public long getTimeToReady() {
+		return timeToReady;
+	}
+	
+	/**
+	 * @return	The number of files waiting for a transfer or a retry.
+	 */
+	public int getPendingCount() {
+		return history.getPendingCount();
+	}
+	
+	/**
+	 * @return	Counters of processed events.
+	 */
+	public MonitorMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @param directory	The path to a local directory.
+	 * @return			The monitored directory mapped from the path,
+	 * 					or {@code null}.
+	 */
+	MonitoredDirectory getMonitoredDirectory(Path directory) {
+		return directories.get(directory);
+	}
+	
+	/**
+	 * @return	The number of files waiting for a transfer worker.
+	 */
+	int getQueueSize() {
+		int size = 0;
+		for (Destination destination : destinations.values()) {
+			size += destination.getQueueSize();
+		}
+		return size;
+	}
+	
 	public void setFileInputFolder(String fileInputFolder) {
 		this.fileInputFolder = fileInputFolder;
 		if (fileInputFolder.endsWith("/")) {
@@ -315,4 +1229,30 @@ public class FileMonitor implements Runnable {
 		}
 	}
 
+	/**
+	 * 
+	 * The progress of delivering a file to its destinations.
+	 * 
+	 */
+	private static class Delivery {
+		
+		private final Set<Destination> remaining;
+		
+		/**
+		 * The oldest version of the file transferred to any destination.
+		 */
+		private long lastModified = Long.MAX_VALUE;
+		private boolean failed = false;
+		private boolean givenUp = false;
+		
+		/**
+		 * The time the file was handed over to transfer workers.
+		 */
+		private final long enqueuedAt = System.currentTimeMillis();
+		
+		Delivery(List<Destination> destinations) {
+			this.remaining = new HashSet<Destination>(destinations);
+		}
+	}
+	
 }
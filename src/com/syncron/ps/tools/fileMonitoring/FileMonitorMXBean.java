@@ -0,0 +1,25 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+/**
+ *
+ * The management interface of a {@link FileMonitor}, registered by
+ * {@link MetricsExporter#registerMBeans()}.
+ *
+ */
+public interface FileMonitorMXBean {
+
+	long getEventsReceived();
+
+	long getEventsLost();
+
+	long getEventsCoalesced();
+
+	long getFilesFilteredOut();
+
+	long getFilesEnqueued();
+
+	int getFilesPending();
+
+	long getTimeToReady();
+
+}
@@ -1,6 +1,7 @@
 package com.syncron.ps.tools.fileMonitoring;
 
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * 
@@ -19,4 +20,26 @@ public interface FileSender {
 	public void transferFile(Path path, String remoteDir)
 			throws TransferFailedException;
 	
+	/**
+	 * Transfers a file to a remote location, compressing it on the way.
+	 * @param path			A path to a local file.
+	 * @param remoteDir		A directory on the remote server.
+	 * @param compression	The compression of the file and its remote name.
+	 * @throws TransferFailedException
+	 */
+	public void transferFile(Path path, String remoteDir, Compression compression)
+			throws TransferFailedException;
+	
+	/**
+	 * Transfers a batch of files to the same remote location, reusing
+	 * one connection and one change of the remote directory if possible.
+	 * @param paths			Paths to local files.
+	 * @param remoteDir		A directory on the remote server.
+	 * @param compression	The compression of the files and their remote names.
+	 * @throws BatchTransferException	If transfers of some files failed;
+	 * 									the other files have been transferred.
+	 */
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) throws BatchTransferException;
+	
 }
@@ -0,0 +1,130 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Include and exclude rules deciding which files of a monitored
+ * directory (and which sub-directories of a recursively monitored one)
+ * are transferred.
+ * <br/>
+ * File rules are evaluated in the order they were added and the first
+ * matching rule decides: a name matching an include mask first is
+ * transferred, a name matching an exclude mask first is not. A name
+ * matching no rule is not transferred. Consecutive rules of the same
+ * kind are matched together by one {@link MaskMatcher}.
+ * <br/>
+ * Directory excludes are matched against the path of a sub-directory
+ * relative to the monitored directory, with {@code /} as the separator
+ * (e.g. {@code archive} or {@code (.+/)?tmp}).
+ *
+ */
+public class FilterRules {
+
+	/**
+	 * Groups of consecutive rules of the same kind. Replaced, never
+	 * modified, when a group is appended.
+	 */
+	private volatile Group[] groups = new Group[0];
+
+	private final MaskMatcher directoryExcludes = new MaskMatcher();
+
+	/**
+	 * Appends a rule transferring files with names matching the mask.
+	 * @param mask	A regular expression.
+	 * @throws java.util.regex.PatternSyntaxException	If the mask is not
+	 * 													a valid expression.
+	 */
+	public void include(String mask) {
+		add(true, mask);
+	}
+
+	/**
+	 * Appends a rule skipping files with names matching the mask.
+	 * @param mask	A regular expression.
+	 * @throws java.util.regex.PatternSyntaxException	If the mask is not
+	 * 													a valid expression.
+	 */
+	public void exclude(String mask) {
+		add(false, mask);
+	}
+
+	/**
+	 * Adds a rule skipping sub-directories with relative paths matching
+	 * the mask. Skipped sub-directories are not watched at all.
+	 * @param mask	A regular expression.
+	 * @throws java.util.regex.PatternSyntaxException	If the mask is not
+	 * 													a valid expression.
+	 */
+	public void excludeDirectory(String mask) {
+		directoryExcludes.add(mask);
+	}
+
+	private synchronized void add(boolean include, String mask) {
+		Group last = groups.length > 0 ? groups[groups.length - 1] : null;
+		if (last != null && last.include == include) {
+			last.matcher.add(mask);
+			return;
+		}
+		Group group = new Group(include);
+		group.matcher.add(mask);
+		Group[] appended = Arrays.copyOf(groups, groups.length + 1);
+		appended[groups.length] = group;
+		groups = appended;
+	}
+
+	/**
+	 * Checks if a file should be transferred.
+	 * @param fileName	The name of the file.
+	 * @return			{@code true} if the first matching rule is an include.
+	 */
+	public boolean accepts(String fileName) {
+		for (Group group : groups) {
+			if (group.matcher.matches(fileName)) {
+				return group.include;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a sub-directory should be skipped.
+	 * @param relativePath	The path relative to the monitored directory,
+	 * 						separated with {@code /}.
+	 * @return				{@code true} if any directory exclude matches.
+	 */
+	public boolean excludesDirectory(String relativePath) {
+		return directoryExcludes.matches(relativePath);
+	}
+
+	/**
+	 * @return	The include masks in the order they were added.
+	 */
+	public List<String> getIncludes() {
+		List<String> masks = new ArrayList<String>();
+		for (Group group : groups) {
+			if (group.include) {
+				masks.addAll(group.matcher.getMasks());
+			}
+		}
+		return masks;
+	}
+
+	/**
+	 *
+	 * Consecutive rules of the same kind.
+	 *
+	 */
+	private static class Group {
+
+		private final boolean include;
+		private final MaskMatcher matcher = new MaskMatcher();
+
+		Group(boolean include) {
+			this.include = include;
+		}
+	}
+
+}
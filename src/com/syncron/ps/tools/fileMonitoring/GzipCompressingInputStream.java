@@ -0,0 +1,118 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ *
+ * An input stream reading another stream compressed in the gzip format
+ * (RFC 1952). Data is compressed as it's read, through buffers of a fixed
+ * size, so a file of any size is compressed with bounded memory and
+ * without a temporary file.
+ *
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+	/**
+	 * The size of the buffer of compressed data.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The gzip header: magic number, deflate, no flags, no time,
+	 * no extra flags, unknown operating system.
+	 */
+	private static final byte[] HEADER = {
+		(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+	};
+
+	private final CheckedInputStream source;
+
+	private final Deflater deflater;
+
+	private final DeflaterInputStream deflated;
+
+	/**
+	 * The header or the trailer being read, {@code null} while reading
+	 * compressed data.
+	 */
+	private byte[] frame = HEADER;
+	private int framePosition = 0;
+
+	private boolean trailerRead = false;
+
+	/**
+	 * The constructor wraps the source stream.
+	 * @param in	The uncompressed data.
+	 * @param level	The compression level, see {@link Deflater}.
+	 */
+	public GzipCompressingInputStream(InputStream in, int level) {
+		this.source = new CheckedInputStream(in, new CRC32());
+		this.deflater = new Deflater(level, true);
+		this.deflated = new DeflaterInputStream(source, deflater, BUFFER_SIZE);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			if (frame != null) {
+				if (framePosition < frame.length) {
+					int n = Math.min(len, frame.length - framePosition);
+					System.arraycopy(frame, framePosition, b, off, n);
+					framePosition += n;
+					return n;
+				}
+				if (trailerRead) {
+					return -1;
+				}
+				frame = null;
+			}
+			int n = deflated.read(b, off, len);
+			if (n >= 0) {
+				return n;
+			}
+			frame = trailer();
+			framePosition = 0;
+			trailerRead = true;
+		}
+	}
+
+	/**
+	 * The gzip trailer: CRC-32 and size (modulo 2^32) of the uncompressed
+	 * data, little endian.
+	 */
+	private byte[] trailer() {
+		long crc = source.getChecksum().getValue();
+		long size = deflater.getBytesRead();
+		byte[] trailer = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (crc >>> (8 * i));
+			trailer[i + 4] = (byte) (size >>> (8 * i));
+		}
+		return trailer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			deflated.close();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
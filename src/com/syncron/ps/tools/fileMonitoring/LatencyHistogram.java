@@ -0,0 +1,110 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * A histogram of durations (in milliseconds) with fixed buckets.
+ * Recording a value only increments atomic counters, so it can be
+ * called from transfer workers on every file without locking.
+ * <br/>
+ * Bucket {@code i} counts values not greater than {@link #BOUNDS}{@code [i]}
+ * and greater than the previous bound; the last bucket counts values
+ * greater than all bounds.
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bounds (in milliseconds) of buckets.
+	 */
+	public static final long[] BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500,
+			1000, 2500, 5000, 10000, 30000, 60000, 300000 };
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * Records a duration.
+	 * @param millis	The duration in milliseconds.
+	 */
+	public void record(long millis) {
+		buckets.incrementAndGet(bucketOf(millis));
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+	}
+
+	private static int bucketOf(long millis) {
+		for (int i = 0; i < BOUNDS.length; i++) {
+			if (millis <= BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BOUNDS.length;
+	}
+
+	/**
+	 * @return	The number of recorded durations.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return	The sum (in milliseconds) of recorded durations.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return	The average duration (in milliseconds), 0 if none recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @return	The numbers of durations in each bucket, the last element
+	 * 			being the bucket above all {@link #BOUNDS}.
+	 */
+	public long[] getBuckets() {
+		long[] snapshot = new long[buckets.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = buckets.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Estimates a percentile as the upper bound of the bucket it falls in.
+	 * @param percentile	The percentile, between 0 and 100.
+	 * @return				The estimate in milliseconds, 0 if none recorded,
+	 * 						{@link Long#MAX_VALUE} if above all bounds.
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = getBuckets();
+		long total = 0;
+		for (long n : snapshot) {
+			total += n;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return BOUNDS[i];
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+}
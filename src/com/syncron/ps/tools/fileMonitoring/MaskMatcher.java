@@ -0,0 +1,273 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * Matches file names against a set of regular expressions (masks).
+ * A name matches if it matches any mask as a whole, exactly as
+ * {@link String#matches(String)} would.
+ * <br/>
+ * Masks are compiled once, when they are added:
+ * <ul>
+ * <li>literal masks (e.g. {@code ^Items\.txt$}) are looked up in a hash set,</li>
+ * <li>masks of the form <i>prefix</i>{@code (.)+}<i>suffix</i> (and
+ * {@code (.)*}, {@code .+}, {@code .*} variants) with literal prefix and
+ * suffix are checked with {@link String#startsWith(String)} and
+ * {@link String#endsWith(String)},</li>
+ * <li>all other masks are combined into one alternation, so a name is
+ * matched by a single {@link java.util.regex.Matcher} no matter how many
+ * masks there are.</li>
+ * </ul>
+ * Masks using back-references or named groups are not combined, as
+ * the group numbers would change.
+ *
+ */
+public class MaskMatcher {
+
+	/**
+	 * The wildcards recognized between a literal prefix and suffix, with
+	 * the minimal number of characters they match.
+	 */
+	private static final String[] WILDCARDS = { "(.)+", "(.)*", ".+", ".*" };
+	private static final int[] WILDCARD_MIN_LENGTHS = { 1, 0, 1, 0 };
+
+	private final List<String> masks = new ArrayList<String>();
+
+	private volatile Compiled compiled = new Compiled(masks);
+
+	/**
+	 * Adds a mask.
+	 * @param mask	A regular expression.
+	 * @throws java.util.regex.PatternSyntaxException	If the mask is not
+	 * 													a valid expression.
+	 */
+	public synchronized void add(String mask) {
+		Pattern.compile(mask);
+		masks.add(mask);
+		compiled = new Compiled(masks);
+	}
+
+	/**
+	 * Checks if the name matches any mask.
+	 * @param name	A file name.
+	 * @return		{@code true} iff the name matches any mask.
+	 */
+	public boolean matches(String name) {
+		return compiled.matches(name);
+	}
+
+	/**
+	 * @return	The masks in the order they were added.
+	 */
+	public synchronized List<String> getMasks() {
+		return Collections.unmodifiableList(new ArrayList<String>(masks));
+	}
+
+	/**
+	 *
+	 * An immutable, compiled form of a list of masks.
+	 *
+	 */
+	private static class Compiled {
+
+		private final Set<String> literals = new HashSet<String>();
+
+		private final String[] prefixes;
+		private final String[] suffixes;
+		private final int[] minLengths;
+
+		/**
+		 * All remaining masks in one expression, or {@code null}.
+		 */
+		private final Pattern combined;
+
+		/**
+		 * Masks that cannot be combined.
+		 */
+		private final Pattern[] separate;
+
+		Compiled(List<String> masks) {
+
+			List<String[]> affixes = new ArrayList<String[]>();
+			List<Integer> lengths = new ArrayList<Integer>();
+			List<String> combinable = new ArrayList<String>();
+			List<Pattern> separatePatterns = new ArrayList<Pattern>();
+
+			for (String mask : masks) {
+				String body = stripAnchors(mask);
+
+				String literal = unescape(body);
+				if (literal != null) {
+					literals.add(literal);
+					continue;
+				}
+
+				if (addAffixes(body, affixes, lengths)) {
+					continue;
+				}
+
+				if (isCombinable(mask)) {
+					combinable.add(mask);
+				}
+				else {
+					separatePatterns.add(Pattern.compile(mask));
+				}
+			}
+
+			prefixes = new String[affixes.size()];
+			suffixes = new String[affixes.size()];
+			minLengths = new int[affixes.size()];
+			for (int i = 0; i < affixes.size(); i++) {
+				prefixes[i] = affixes.get(i)[0];
+				suffixes[i] = affixes.get(i)[1];
+				minLengths[i] = prefixes[i].length() + suffixes[i].length()
+						+ lengths.get(i);
+			}
+
+			if (combinable.isEmpty()) {
+				combined = null;
+			}
+			else {
+				StringBuilder expression = new StringBuilder();
+				for (String mask : combinable) {
+					if (expression.length() > 0) {
+						expression.append('|');
+					}
+					expression.append("(?:").append(mask).append(')');
+				}
+				combined = Pattern.compile(expression.toString());
+			}
+			separate = separatePatterns.toArray(new Pattern[separatePatterns.size()]);
+		}
+
+		boolean matches(String name) {
+
+			if (literals.contains(name)) {
+				return true;
+			}
+
+			for (int i = 0; i < prefixes.length; i++) {
+				if (name.length() >= minLengths[i]
+						&& name.startsWith(prefixes[i])
+						&& name.endsWith(suffixes[i])
+						&& !containsLineTerminator(name, prefixes[i].length(),
+								name.length() - suffixes[i].length())) {
+					return true;
+				}
+			}
+
+			if (combined != null && combined.matcher(name).matches()) {
+				return true;
+			}
+
+			for (Pattern pattern : separate) {
+				if (pattern.matcher(name).matches()) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Tries to split the mask into a literal prefix, a wildcard
+		 * and a literal suffix.
+		 * @return	{@code true} if the mask has been added to {@code affixes}.
+		 */
+		private static boolean addAffixes(String body, List<String[]> affixes,
+				List<Integer> lengths) {
+			for (int i = 0; i < WILDCARDS.length; i++) {
+				int index = body.indexOf(WILDCARDS[i]);
+				if (index < 0 || body.indexOf(WILDCARDS[i], index + 1) >= 0) {
+					continue;
+				}
+				String prefix = unescape(body.substring(0, index));
+				String suffix = unescape(body.substring(index + WILDCARDS[i].length()));
+				if (prefix != null && suffix != null) {
+					affixes.add(new String[] { prefix, suffix });
+					lengths.add(WILDCARD_MIN_LENGTHS[i]);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * The dot doesn't match line terminators, so neither may
+		 * the part of a name matched by a wildcard.
+		 */
+		private static boolean containsLineTerminator(String name, int from, int to) {
+			for (int i = from; i < to; i++) {
+				char c = name.charAt(i);
+				if (c == '\n' || c == '\r' || c == '\u0085'
+						|| c == '\u2028' || c == '\u2029') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Removes {@code ^} and {@code $} anchors, which don't change
+		 * the result of matching a whole name.
+		 */
+		private static String stripAnchors(String mask) {
+			int start = mask.startsWith("^") ? 1 : 0;
+			int end = mask.length();
+			if (end > start && mask.endsWith("$")
+					&& !isEscaped(mask, end - 1)) {
+				end--;
+			}
+			return mask.substring(start, end);
+		}
+
+		private static boolean isEscaped(String mask, int index) {
+			int backslashes = 0;
+			for (int i = index - 1; i >= 0 && mask.charAt(i) == '\\'; i--) {
+				backslashes++;
+			}
+			return backslashes % 2 == 1;
+		}
+
+		/**
+		 * Converts an expression matching only one string to that string.
+		 * @return	The literal or {@code null} if the expression contains
+		 * 			special constructs.
+		 */
+		private static String unescape(String expression) {
+			StringBuilder literal = new StringBuilder(expression.length());
+			for (int i = 0; i < expression.length(); i++) {
+				char c = expression.charAt(i);
+				if (c == '\\') {
+					if (i + 1 == expression.length()) {
+						return null;
+					}
+					char escaped = expression.charAt(++i);
+					// \d, \w, \Q... have special meanings
+					if (Character.isLetterOrDigit(escaped)) {
+						return null;
+					}
+					literal.append(escaped);
+				}
+				else if (".[]{}()*+?^$|".indexOf(c) >= 0) {
+					return null;
+				}
+				else {
+					literal.append(c);
+				}
+			}
+			return literal.toString();
+		}
+
+		private static boolean isCombinable(String mask) {
+			return !mask.matches(".*\\\\([1-9]|k<).*") && !mask.contains("(?<");
+		}
+	}
+
+}
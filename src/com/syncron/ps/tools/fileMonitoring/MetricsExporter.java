@@ -0,0 +1,325 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Publishes metrics of a {@link FileMonitor} and its destinations:
+ * <ul>
+ * <li>as MBeans in the platform MBean server, under the domain
+ * {@value #DOMAIN},</li>
+ * <li>in the Prometheus text format, written periodically to a file
+ * (e.g. for the node exporter's textfile collector) or served over HTTP
+ * on the loopback interface.</li>
+ * </ul>
+ * Destinations must be added to the monitor before metrics are exported.
+ *
+ */
+public class MetricsExporter {
+
+	public static final Logger logger = Logger.getLogger(MetricsExporter.class);
+
+	/**
+	 * The domain of registered MBeans.
+	 */
+	public static final String DOMAIN = "com.syncron.ps.tools.fileMonitoring";
+
+	/**
+	 * The prefix of names of exported metrics.
+	 */
+	private static final String PREFIX = "filemonitor_";
+
+	private final FileMonitor monitor;
+
+	private ScheduledExecutorService writer;
+
+	private HttpServer server;
+
+	/**
+	 * The constructor sets the monitor whose metrics are exported.
+	 * Nothing is published until one of the methods is called.
+	 * @param monitor	The file monitor.
+	 */
+	public MetricsExporter(FileMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Registers an MBean of the monitor and one for each destination.
+	 * Limits of throttled destinations can be changed through them.
+	 * @throws JMException	If the MBeans cannot be registered.
+	 */
+	public void registerMBeans() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(monitor.getMetrics(),
+				new ObjectName(DOMAIN + ":type=FileMonitor"));
+		for (Destination destination : monitor.getDestinations()) {
+			registerMBean(destination);
+		}
+	}
+
+	/**
+	 * Registers the MBean of a destination added after
+	 * {@link #registerMBeans()}.
+	 * @param destination	The destination.
+	 * @throws JMException	If the MBean cannot be registered.
+	 */
+	public void registerMBean(Destination destination) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(
+				destination.getMetrics(), getObjectName(destination));
+	}
+
+	/**
+	 * Unregisters the MBean of a removed destination.
+	 * @param destination	The destination.
+	 * @throws JMException	If the MBean cannot be unregistered.
+	 */
+	public void unregisterMBean(Destination destination) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+				getObjectName(destination));
+	}
+
+	private static ObjectName getObjectName(Destination destination)
+			throws JMException {
+		return new ObjectName(DOMAIN + ":type=Destination,name="
+				+ ObjectName.quote(destination.getName()));
+	}
+
+	/**
+	 * Starts writing metrics to a file periodically. The file is replaced
+	 * at once, so readers never see a partial file.
+	 * @param file		The file.
+	 * @param interval	The interval (in milliseconds) of writes.
+	 */
+	public synchronized void startFile(final Path file, long interval) {
+		if (writer != null) {
+			return;
+		}
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		writer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(file);
+				} catch (IOException e) {
+					logger.warn("Cannot write metrics to " + file + ".", e);
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts serving metrics on {@code http://localhost:<port>/metrics}.
+	 * @param port	The port number.
+	 * @throws IOException	If the port cannot be bound.
+	 */
+	public synchronized void startHttp(int port) throws IOException {
+		if (server != null) {
+			return;
+		}
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = format().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+		logger.info("Metrics served on port " + port + ".");
+	}
+
+	/**
+	 * Stops writing and serving metrics.
+	 */
+	public synchronized void stop() {
+		if (writer != null) {
+			writer.shutdownNow();
+			writer = null;
+		}
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	private void write(Path file) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporary, format().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Formats current metrics in the Prometheus text format.
+	 * @return	The metrics.
+	 */
+	public String format() {
+		StringBuilder text = new StringBuilder(4096);
+		MonitorMetrics metrics = monitor.getMetrics();
+
+		counter(text, "events_received_total", "Events received from the watch service.");
+		sample(text, "events_received_total", "", metrics.getEventsReceived());
+		counter(text, "events_lost_total", "Overflows of the watch service.");
+		sample(text, "events_lost_total", "", metrics.getEventsLost());
+		counter(text, "events_coalesced_total", "Events collapsed into earlier ones.");
+		sample(text, "events_coalesced_total", "", metrics.getEventsCoalesced());
+		counter(text, "files_filtered_out_total", "Files skipped by filters.");
+		sample(text, "files_filtered_out_total", "", metrics.getFilesFilteredOut());
+		counter(text, "files_enqueued_total", "Files handed over to transfer workers.");
+		sample(text, "files_enqueued_total", "", metrics.getFilesEnqueued());
+		gauge(text, "files_pending", "Files waiting for a transfer or a retry.");
+		sample(text, "files_pending", "", metrics.getFilesPending());
+
+		counter(text, "files_delivered_total", "Files transferred.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "files_delivered_total", label(destination),
+					destination.getMetrics().getFilesDelivered());
+		}
+		counter(text, "files_failed_total", "Files failed and not retried anymore.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "files_failed_total", label(destination),
+					destination.getMetrics().getFilesFailed());
+		}
+		counter(text, "files_retried_total", "Retries scheduled.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "files_retried_total", label(destination),
+					destination.getMetrics().getFilesRetried());
+		}
+		counter(text, "files_given_up_total", "Files given up after all retries.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "files_given_up_total", label(destination),
+					destination.getMetrics().getFilesGivenUp());
+		}
+		counter(text, "bytes_sent_total", "Bytes transferred, before compression.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "bytes_sent_total", label(destination),
+					destination.getMetrics().getBytesSent());
+		}
+		gauge(text, "queue_size", "Files waiting for a transfer worker.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "queue_size", label(destination),
+					destination.getMetrics().getQueueSize());
+		}
+		gauge(text, "retry_queue_size", "Files waiting for a retry.");
+		for (Destination destination : monitor.getDestinations()) {
+			sample(text, "retry_queue_size", label(destination),
+					destination.getMetrics().getRetryQueueSize());
+		}
+
+		histogramHeader(text, "delivery_seconds",
+				"Time from enqueuing a file until it's transferred.");
+		for (Destination destination : monitor.getDestinations()) {
+			histogram(text, "delivery_seconds", destination,
+					destination.getMetrics().getDeliveryTimes());
+		}
+		histogramHeader(text, "upload_seconds", "Time of a single upload or batch.");
+		for (Destination destination : monitor.getDestinations()) {
+			histogram(text, "upload_seconds", destination,
+					destination.getMetrics().getUploadTimes());
+		}
+		histogramHeader(text, "connect_seconds", "Time of opening a connection.");
+		for (Destination destination : monitor.getDestinations()) {
+			LatencyHistogram connectTimes = destination.getMetrics().getConnectTimes();
+			if (connectTimes != null) {
+				histogram(text, "connect_seconds", destination, connectTimes);
+			}
+		}
+		return text.toString();
+	}
+
+	private static void counter(StringBuilder text, String name, String help) {
+		header(text, name, help, "counter");
+	}
+
+	private static void gauge(StringBuilder text, String name, String help) {
+		header(text, name, help, "gauge");
+	}
+
+	private static void histogramHeader(StringBuilder text, String name, String help) {
+		header(text, name, help, "histogram");
+	}
+
+	private static void header(StringBuilder text, String name, String help,
+			String type) {
+		text.append("# HELP ").append(PREFIX).append(name).append(' ')
+				.append(help).append('\n');
+		text.append("# TYPE ").append(PREFIX).append(name).append(' ')
+				.append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, String labels,
+			Object value) {
+		text.append(PREFIX).append(name);
+		if (!labels.isEmpty()) {
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Appends cumulative buckets, the sum and the count of a histogram,
+	 * converted to seconds.
+	 */
+	private static void histogram(StringBuilder text, String name,
+			Destination destination, LatencyHistogram histogram) {
+		String label = label(destination);
+		long[] buckets = histogram.getBuckets();
+		long cumulative = 0;
+		for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+			cumulative += buckets[i];
+			sample(text, name + "_bucket", label + ",le=\""
+					+ seconds(LatencyHistogram.BOUNDS[i]) + "\"", cumulative);
+		}
+		cumulative += buckets[LatencyHistogram.BOUNDS.length];
+		sample(text, name + "_bucket", label + ",le=\"+Inf\"", cumulative);
+		sample(text, name + "_sum", label, seconds(histogram.getSum()));
+		sample(text, name + "_count", label, cumulative);
+	}
+
+	private static String seconds(long millis) {
+		return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+	}
+
+	private static String label(Destination destination) {
+		return "destination=\"" + destination.getName()
+				.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+}
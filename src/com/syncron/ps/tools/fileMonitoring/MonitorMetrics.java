@@ -0,0 +1,92 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Counters of events processed by a {@link FileMonitor}. Counters are
+ * incremented by the thread processing events and read at any time,
+ * e.g. over JMX.
+ *
+ */
+public class MonitorMetrics implements FileMonitorMXBean {
+
+	private final FileMonitor monitor;
+
+	private final AtomicLong eventsReceived = new AtomicLong();
+
+	private final AtomicLong eventsLost = new AtomicLong();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong filteredOut = new AtomicLong();
+
+	private final AtomicLong enqueued = new AtomicLong();
+
+	MonitorMetrics(FileMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	void eventReceived() {
+		eventsReceived.incrementAndGet();
+	}
+
+	/**
+	 * Records an overflow of the watch service, i.e. an unknown number
+	 * of lost events.
+	 */
+	void eventsLost() {
+		eventsLost.incrementAndGet();
+	}
+
+	/**
+	 * Records an event collapsed into an earlier one for the same file.
+	 */
+	void eventCoalesced() {
+		coalesced.incrementAndGet();
+	}
+
+	void filteredOut() {
+		filteredOut.incrementAndGet();
+	}
+
+	void enqueued() {
+		enqueued.incrementAndGet();
+	}
+
+	@Override
+	public long getEventsReceived() {
+		return eventsReceived.get();
+	}
+
+	@Override
+	public long getEventsLost() {
+		return eventsLost.get();
+	}
+
+	@Override
+	public long getEventsCoalesced() {
+		return coalesced.get();
+	}
+
+	@Override
+	public long getFilesFilteredOut() {
+		return filteredOut.get();
+	}
+
+	@Override
+	public long getFilesEnqueued() {
+		return enqueued.get();
+	}
+
+	@Override
+	public int getFilesPending() {
+		return monitor.getPendingCount();
+	}
+
+	@Override
+	public long getTimeToReady() {
+		return monitor.getTimeToReady();
+	}
+
+}
@@ -1,6 +1,9 @@
 package com.syncron.ps.tools.fileMonitoring;
 
-import java.util.LinkedList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -12,51 +15,209 @@ import java.util.List;
  */
 public class MonitoredDirectory {
 	
+	/**
+	 * 
+	 * Describes when a new file is considered complete and ready
+	 * to be transferred.
+	 *
+	 */
+	public enum Readiness {
+		/**
+		 * As soon as the file is created.
+		 */
+		IMMEDIATE,
+		/**
+		 * When the size and the modification time of the file haven't
+		 * changed for {@link MonitoredDirectory#getStableTime()}.
+		 */
+		STABLE,
+		/**
+		 * When a marker file named as the file with the suffix
+		 * {@link MonitoredDirectory#getMarker()} appears.
+		 */
+		MARKER
+	}
+	
+	/**
+	 * The default time (in milliseconds) a file must stay unchanged
+	 * to be considered complete.
+	 */
+	public static final long DEFAULT_STABLE_TIME = 2000;
+	
+	/**
+	 * The default suffix of marker files.
+	 */
+	public static final String DEFAULT_MARKER = ".done";
+	
+	/**
+	 * The default weight of a directory's share of transfer workers.
+	 */
+	public static final int DEFAULT_WEIGHT = 1;
+	
 	private String localDirectory;
 	private String remoteDirectory;
 	
 	/**
-	 * A list of regular expressions: the files with names
-	 * matching any of those should be sent.
+	 * The configured directory this one is a sub-directory of,
+	 * or this directory itself.
+	 */
+	private String rootDirectory;
+	
+	/**
+	 * Include and exclude rules. Shared with sub-directories.
+	 */
+	private FilterRules rules;
+	
+	/**
+	 * If {@code true}, files of this directory are transferred one by one
+	 * in the order of their creation.
+	 */
+	private boolean ordered = false;
+	
+	/**
+	 * If {@code true}, sub-directories are monitored as well, including
+	 * the ones created later.
+	 */
+	private boolean recursive = false;
+	
+	private Readiness readiness = Readiness.IMMEDIATE;
+	private long stableTime = DEFAULT_STABLE_TIME;
+	private String marker = DEFAULT_MARKER;
+	
+	/**
+	 * The names of destinations files are transferred to. If empty,
+	 * the default destination is used.
+	 */
+	private List<String> destinations = Collections.emptyList();
+	
+	private Compression compression = Compression.NONE;
+	
+	/**
+	 * Scheduling of transfers waiting for a worker, see
+	 * {@link FairTransferQueue}. Directories of a higher priority are
+	 * served first, directories of the same priority share workers in
+	 * proportion to their weights.
+	 */
+	private int priority = 0;
+	private int weight = DEFAULT_WEIGHT;
+	
+	/**
+	 * The maximal percentage of transfer workers of a destination
+	 * transferring files of this directory at once.
+	 */
+	private int maxShare = 100;
+	
+	/**
+	 * If {@code true}, smaller waiting files are transferred first.
 	 */
-	private List<String> filterMasks;
+	private boolean smallFirst = false;
 	
 	/**
 	 * The constructor sets both local and remote directories, and
-	 * initializes the list of filter masks.
+	 * initializes the filter rules.
 	 * @param localDirectory
 	 * @param remoteDirectory
 	 */
 	public MonitoredDirectory(String localDirectory, String remoteDirectory) {
 		this.localDirectory = localDirectory;
 		this.remoteDirectory = remoteDirectory;
-		filterMasks = new LinkedList<String>();
+		this.rootDirectory = localDirectory;
+		rules = new FilterRules();
 	}
 	
 	/**
-	 * Adds a filter mask for a file name.
+	 * Creates the mapping of a sub-directory. The sub-directory maps
+	 * to the remote sub-directory of the same name and shares rules
+	 * and options with this one.
+	 * @param subdirectory	the path to the local sub-directory
+	 * @return	the mapping of the sub-directory
+	 */
+	public MonitoredDirectory createSubdirectory(Path subdirectory) {
+		MonitoredDirectory mapping = new MonitoredDirectory(
+				subdirectory.toString(),
+				remoteDirectory + "/" + subdirectory.getFileName());
+		mapping.rootDirectory = rootDirectory;
+		mapping.rules = rules;
+		mapping.ordered = ordered;
+		mapping.recursive = recursive;
+		mapping.readiness = readiness;
+		mapping.stableTime = stableTime;
+		mapping.marker = marker;
+		mapping.destinations = destinations;
+		mapping.compression = compression;
+		mapping.priority = priority;
+		mapping.weight = weight;
+		mapping.maxShare = maxShare;
+		mapping.smallFirst = smallFirst;
+		return mapping;
+	}
+	
+	/**
+	 * Adds an include filter mask for a file name. The mask is compiled
+	 * right away.
 	 * @param mask	regular expression
+	 * @throws java.util.regex.PatternSyntaxException	if the mask is
+	 * 				not a valid regular expression
 	 */
 	public void registerMask(String mask) {
-		filterMasks.add(mask);
+		rules.include(mask);
+	}
+	
+	/**
+	 * Adds an exclude filter mask for a file name. Rules are evaluated
+	 * in the order of registration, see {@link FilterRules}.
+	 * @param mask	regular expression
+	 * @throws java.util.regex.PatternSyntaxException	if the mask is
+	 * 				not a valid regular expression
+	 */
+	public void registerExclude(String mask) {
+		rules.exclude(mask);
+	}
+	
+	/**
+	 * Adds an exclude mask for sub-directories, matched against their
+	 * paths relative to the root directory.
+	 * @param mask	regular expression
+	 * @throws java.util.regex.PatternSyntaxException	if the mask is
+	 * 				not a valid regular expression
+	 */
+	public void registerDirectoryExclude(String mask) {
+		rules.excludeDirectory(mask);
 	}
 	
 	/**
-	 * Checks if fileName matches any filter mask.
+	 * Checks if fileName should be transferred.
 	 * @param fileName	a string in question
-	 * @return	true iff <b>fileName</b> matches to any filter mask
+	 * @return	true iff the first filter rule matching <b>fileName</b>
+	 * 			is an include mask
 	 */
 	public boolean filter(String fileName) {
-		
-		boolean result = false;
-		
-		for (String mask : filterMasks) {
-			if (fileName.matches(mask)) {
-				return true;
+		return rules.accepts(fileName);
+	}
+	
+	/**
+	 * Checks if a sub-directory is excluded from monitoring.
+	 * @param subdirectory	the path to a sub-directory
+	 * @return	true iff the path relative to the root directory matches
+	 * 			any directory exclude mask
+	 */
+	public boolean excludesDirectory(Path subdirectory) {
+		Path relative = Paths.get(rootDirectory).relativize(subdirectory);
+		StringBuilder path = new StringBuilder();
+		for (Path name : relative) {
+			if (path.length() > 0) {
+				path.append('/');
 			}
+			path.append(name.toString());
 		}
-		
-		return result;
+		return rules.excludesDirectory(path.toString());
+	}
+	
+	/**
+	 * @return	the registered include filter masks
+	 */
+	public List<String> getMasks() {
+		return rules.getIncludes();
 	}
 	
 	public String getLocalDirectory() {
@@ -67,4 +228,115 @@ public class MonitoredDirectory {
 		return remoteDirectory;
 	}
 	
+	public String getRootDirectory() {
+		return rootDirectory;
+	}
+	
+	public boolean isOrdered() {
+		return ordered;
+	}
+	
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+	
+	public boolean isRecursive() {
+		return recursive;
+	}
+	
+	public void setRecursive(boolean recursive) {
+		this.recursive = recursive;
+	}
+	
+	public Readiness getReadiness() {
+		return readiness;
+	}
+	
+	public void setReadiness(Readiness readiness) {
+		this.readiness = readiness;
+	}
+	
+	public long getStableTime() {
+		return stableTime;
+	}
+	
+	public void setStableTime(long stableTime) {
+		this.stableTime = stableTime;
+	}
+	
+	public String getMarker() {
+		return marker;
+	}
+	
+	public void setMarker(String marker) {
+		this.marker = marker;
+	}
+	
+	/**
+	 * @return	the names of destinations files are transferred to,
+	 * 			empty if the default destination is used
+	 */
+	public List<String> getDestinations() {
+		return destinations;
+	}
+	
+	public void setDestinations(List<String> destinations) {
+		this.destinations = Collections.unmodifiableList(
+				new ArrayList<String>(destinations));
+	}
+	
+	public Compression getCompression() {
+		return compression;
+	}
+	
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+	
+	public int getPriority() {
+		return priority;
+	}
+	
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+	
+	public int getWeight() {
+		return weight;
+	}
+	
+	/**
+	 * @param weight	the share of workers relative to other directories
+	 * 					of the same priority, at least 1
+	 */
+	public void setWeight(int weight) {
+		this.weight = Math.max(1, weight);
+	}
+	
+	public int getMaxShare() {
+		return maxShare;
+	}
+	
+	/**
+	 * @param maxShare	the maximal percentage (1 to 100) of transfer workers
+	 * 					busy with files of this directory; at least one
+	 * 					worker is always allowed
+	 */
+	public void setMaxShare(int maxShare) {
+		this.maxShare = Math.min(100, Math.max(1, maxShare));
+	}
+	
+	public boolean isSmallFirst() {
+		return smallFirst;
+	}
+	
+	/**
+	 * @param smallFirst	true to transfer smaller waiting files first;
+	 * 						has no effect on ordered directories, whose
+	 * 						files wait one at a time
+	 */
+	public void setSmallFirst(boolean smallFirst) {
+		this.smallFirst = smallFirst;
+	}
+	
 }
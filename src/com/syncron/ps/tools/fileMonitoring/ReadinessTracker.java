@@ -0,0 +1,174 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Holds back new files of directories with {@link MonitoredDirectory.Readiness#STABLE}
+ * readiness until the producer has finished writing them.
+ * <br/>
+ * A tracked file is considered complete when neither a modification
+ * event has been reported for it nor its size and modification time
+ * have changed for the stable time of its directory. The file is not
+ * read at all while events keep coming; it's checked with a single
+ * {@code stat} once they stop.
+ *
+ */
+public class ReadinessTracker implements Runnable {
+
+	public static final Logger logger = Logger.getLogger(ReadinessTracker.class);
+
+	/**
+	 * The interval (in milliseconds) of checking tracked files.
+	 */
+	private static final long CHECK_INTERVAL = 250;
+
+	private final FileMonitor monitor;
+
+	private final TransferHistory history;
+
+	private final Map<Path, Candidate> candidates = new ConcurrentHashMap<Path, Candidate>();
+
+	private final ScheduledExecutorService checker;
+
+	/**
+	 * The constructor creates the checking thread.
+	 * @param monitor	The monitor complete files are submitted to.
+	 * @param history	The record of pending files.
+	 */
+	public ReadinessTracker(FileMonitor monitor, TransferHistory history) {
+		this.monitor = monitor;
+		this.history = history;
+		this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "readiness-tracker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.checker.scheduleWithFixedDelay(this, CHECK_INTERVAL,
+				CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts tracking a new file.
+	 * @param file			The path to the file.
+	 * @param directory		The monitored directory containing the file.
+	 */
+	public void track(Path file, MonitoredDirectory directory) {
+		candidates.put(file, new Candidate(directory));
+	}
+
+	/**
+	 * Notes a modification of the file, if it's tracked.
+	 * @param file			The path to the file.
+	 */
+	public void modified(Path file) {
+		Candidate candidate = candidates.get(file);
+		if (candidate != null) {
+			candidate.lastChange = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @return	The number of files being written.
+	 */
+	public int size() {
+		return candidates.size();
+	}
+
+	/**
+	 * Checks tracked files and submits the complete ones.
+	 */
+	@Override
+	public void run() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, Candidate> entry = iterator.next();
+			Path file = entry.getKey();
+			Candidate candidate = entry.getValue();
+
+			// The first check records the state without waiting
+			boolean first = candidate.size < 0;
+			if (!first && now - candidate.lastChange < candidate.directory.getStableTime()) {
+				continue;
+			}
+
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file,
+						BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				long size = attributes.size();
+				long lastModified = attributes.lastModifiedTime().toMillis();
+				if (first || size != candidate.size
+						|| lastModified != candidate.lastModified) {
+					if (!first) {
+						// Changed without an event
+						candidate.lastChange = now;
+					}
+					candidate.size = size;
+					candidate.lastModified = lastModified;
+					continue;
+				}
+			} catch (NoSuchFileException e) {
+				logger.debug("File " + file + " removed before completion.");
+				iterator.remove();
+				history.markFailed(file);
+				continue;
+			} catch (IOException e) {
+				logger.warn("Cannot check " + file + ".", e);
+				continue;
+			}
+
+			iterator.remove();
+			logger.debug("File " + file + " complete.");
+			try {
+				monitor.submit(file, candidate.directory);
+			} catch (Exception e) {
+				history.markFailed(file);
+				logger.error("Cannot submit " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the checking thread. Tracked files stay pending.
+	 */
+	public void shutdown() {
+		checker.shutdownNow();
+	}
+
+	/**
+	 *
+	 * The last known state of a file being written.
+	 *
+	 */
+	private static class Candidate {
+
+		private final MonitoredDirectory directory;
+		private volatile long lastChange;
+		private long size = -1;
+		private long lastModified = -1;
+
+		Candidate(MonitoredDirectory directory) {
+			this.directory = directory;
+			this.lastChange = System.currentTimeMillis();
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * Remote directories known to exist, and the current remote directory,
+ * of a single pooled connection. A sender consults it before changing
+ * the directory, so that a connection uploading to the same directory
+ * again doesn't change it at all, and missing directories are created
+ * once, including their missing parents.
+ * <br/>
+ * A relative directory is resolved against the home directory of the
+ * connection, the current directory right after logging in, so that it
+ * means the same directory whichever directory a reused connection
+ * was left in. Directories are cached by their absolute paths.
+ * <br/>
+ * Entries are only as good as the last round trip: a directory removed
+ * on the remote side stays cached until an upload into it fails and
+ * the sender invalidates it. Not thread-safe; a connection is used by one
+ * thread at a time.
+ *
+ */
+public class RemoteDirectoryCache {
+
+	/**
+	 * The maximal number of cached directories, to bound memory use
+	 * of connections visiting many directories.
+	 */
+	private static final int MAX_SIZE = 4096;
+
+	private final Set<String> known = new HashSet<String>();
+
+	private final String home;
+
+	private String current;
+
+	/**
+	 * @param home	The absolute home directory of the connection, which
+	 * 				is known to exist.
+	 */
+	public RemoteDirectoryCache(String home) {
+		this.home = normalize(home);
+		add(this.home);
+	}
+
+	/**
+	 * @param directory		A remote directory.
+	 * @return				{@code true} if the directory is the current one.
+	 */
+	public boolean isCurrent(String directory) {
+		return resolve(directory).equals(current);
+	}
+
+	/**
+	 * Records a successful change of the current directory, which thus
+	 * exists.
+	 * @param directory		The new current directory.
+	 */
+	public void setCurrent(String directory) {
+		current = resolve(directory);
+		add(current);
+	}
+
+	/**
+	 * @param directory		A remote directory.
+	 * @return				{@code true} if the directory is known to exist.
+	 */
+	public boolean isKnown(String directory) {
+		return known.contains(resolve(directory));
+	}
+
+	/**
+	 * Records a directory known to exist, e.g. after creating it,
+	 * together with its parents.
+	 * @param directory		The remote directory.
+	 */
+	public void add(String directory) {
+		if (known.size() >= MAX_SIZE) {
+			known.clear();
+		}
+		String path = resolve(directory);
+		while (!path.isEmpty() && known.add(path)) {
+			int slash = path.lastIndexOf('/');
+			if (slash < 0) {
+				break;
+			}
+			path = path.substring(0, slash);
+		}
+	}
+
+	/**
+	 * Forgets a directory, all its sub-directories and the current
+	 * directory, after an operation in the directory failed.
+	 * @param directory		The remote directory.
+	 */
+	public void invalidate(String directory) {
+		String resolved = resolve(directory);
+		String prefix = resolved.endsWith("/") ? resolved : resolved + "/";
+		Iterator<String> iterator = known.iterator();
+		while (iterator.hasNext()) {
+			String entry = iterator.next();
+			if (entry.equals(resolved) || entry.startsWith(prefix)) {
+				iterator.remove();
+			}
+		}
+		current = null;
+	}
+
+	/**
+	 * Gets the directories that may have to be created for a directory
+	 * to exist, i.e. its ancestors not known to exist and itself.
+	 * @param directory		The remote directory.
+	 * @return				The directories, the outermost first.
+	 */
+	public List<String> getMissing(String directory) {
+		List<String> missing = new ArrayList<String>();
+		String path = resolve(directory);
+		while (!path.isEmpty() && !known.contains(path)) {
+			missing.add(0, path);
+			int slash = path.lastIndexOf('/');
+			if (slash < 0) {
+				break;
+			}
+			path = path.substring(0, slash);
+		}
+		return missing;
+	}
+
+	/**
+	 * Makes a relative directory absolute by resolving it against the home
+	 * directory, and normalizes it.
+	 * @param directory		The remote directory.
+	 * @return				The absolute path of the directory.
+	 */
+	public String resolve(String directory) {
+		if (directory.startsWith("/")) {
+			return normalize(directory);
+		}
+		if (directory.isEmpty() || directory.equals(".")) {
+			return home;
+		}
+		return normalize(home + "/" + directory);
+	}
+
+	public String getHome() {
+		return home;
+	}
+
+	/**
+	 * Removes duplicate and trailing slashes of a path joined from parts,
+	 * e.g. {@code /remote//sub/} becomes {@code /remote/sub}.
+	 * @param directory		The remote directory.
+	 * @return				The normalized path.
+	 */
+	public static String normalize(String directory) {
+		String path = directory.replaceAll("/{2,}", "/");
+		if (path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Schedules files to be transferred again to a destination after
+ * a failure that should be retried (see {@link TransferFailedException#retry()}).
+ * <br/>
+ * Every file has its own delay, doubled after each failed attempt from
+ * {@link #initialDelay} up to {@link #maxDelay}, with a random jitter so
+ * that many files failing at once don't come back at once. After
+ * {@link #maxAttempts} failed attempts the file is given up, see
+ * {@link FileMonitor#setDeadLetterDirectory(Path)}.
+ * <br/>
+ * Due files are taken from a {@link DelayQueue} by a separate thread,
+ * independently of events of monitored directories.
+ *
+ */
+public class RetryScheduler implements Runnable {
+
+	public static final Logger logger = Logger.getLogger(RetryScheduler.class);
+
+	/**
+	 * The default delay (in milliseconds) before the first retry.
+	 */
+	public static final long DEFAULT_INITIAL_DELAY = 1000;
+	/**
+	 * The default maximum delay (in milliseconds) between retries.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 300000;
+	/**
+	 * The default number of attempts after which a file is given up.
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+	private final FileMonitor monitor;
+
+	private final Destination destination;
+
+	private final DelayQueue<Retry> queue = new DelayQueue<Retry>();
+
+	/**
+	 * The number of failed attempts of files waiting for a retry,
+	 * including the first transfer.
+	 */
+	private final Map<Path, Integer> attempts = new ConcurrentHashMap<Path, Integer>();
+
+	private final Random random = new Random();
+
+	private long initialDelay = DEFAULT_INITIAL_DELAY;
+	private long maxDelay = DEFAULT_MAX_DELAY;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private Thread thread;
+
+	/**
+	 * The constructor sets the monitor due files are submitted to.
+	 * @param monitor		The file monitor.
+	 * @param destination	The destination files are transferred to.
+	 */
+	public RetryScheduler(FileMonitor monitor, Destination destination) {
+		this.monitor = monitor;
+		this.destination = destination;
+	}
+
+	/**
+	 * Starts the thread submitting due files.
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "retry-scheduler-" + destination.getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the thread. Files waiting for a retry stay pending.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Schedules the next attempt of a failed transfer, or gives the file
+	 * up if it has failed too many times.
+	 * @param file	The path to the file.
+	 * @return		{@code false} if the file has been given up.
+	 */
+	public boolean schedule(Path file) {
+
+		Integer previous = attempts.get(file);
+		int attempt = previous == null ? 1 : previous + 1;
+
+		if (attempt >= maxAttempts) {
+			attempts.remove(file);
+			logger.error("Transfer of " + file + " to " + destination + " failed "
+					+ attempt + " times. Giving up.");
+			return false;
+		}
+		attempts.put(file, attempt);
+
+		long delay = getDelay(attempt);
+		logger.debug("Retry " + attempt + " of " + file + " to " + destination
+				+ " in " + delay + " ms.");
+		queue.add(new Retry(file, System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(delay)));
+		return true;
+	}
+
+	/**
+	 * Forgets failed attempts of the file, e.g. after it's been delivered.
+	 * @param file	The path to the file.
+	 */
+	public void reset(Path file) {
+		attempts.remove(file);
+	}
+
+	/**
+	 * Computes the delay of the given attempt: the exponential delay with
+	 * a jitter of up to a half of it.
+	 */
+	private long getDelay(int attempt) {
+		long delay = initialDelay << Math.min(attempt - 1, 30);
+		if (delay <= 0 || delay > maxDelay) {
+			delay = maxDelay;
+		}
+		long half = delay / 2;
+		synchronized (random) {
+			return half + (long) (random.nextDouble() * (delay - half));
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Retry retry;
+			try {
+				retry = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				monitor.resubmit(retry.file, destination);
+			} catch (Exception e) {
+				logger.error("Cannot resubmit " + retry.file, e);
+			}
+		}
+	}
+
+	/**
+	 * Removes all files waiting for a retry, due or not, e.g. after
+	 * the scheduler has been stopped for good.
+	 * @return	The removed files.
+	 */
+	public List<Path> drain() {
+		List<Path> files = new ArrayList<Path>();
+		Iterator<Retry> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			Path file = iterator.next().file;
+			iterator.remove();
+			attempts.remove(file);
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * @return	The number of files waiting for a retry.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	public void setInitialDelay(long initialDelay) {
+		this.initialDelay = initialDelay;
+	}
+
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Sets the number of failed attempts, the first transfer included,
+	 * after which a file is given up.
+	 * @param maxAttempts	The number of attempts, 1 (or less) gives files
+	 * 						up without any retry.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 *
+	 * A file due for a retry at {@link #due} (in terms of
+	 * {@link System#nanoTime()}).
+	 *
+	 */
+	private static class Retry implements Delayed {
+
+		private final Path file;
+		private final long due;
+
+		Retry(Path file, long due) {
+			this.file = file;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			long diff = getDelay(TimeUnit.NANOSECONDS)
+					- other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+/**
+ *
+ * A bounded pool of authenticated SFTP connections to a single host.
+ * Each pooled connection is a {@link Session} with an open
+ * {@link ChannelSftp}. An idle connection is checked with a {@code stat}
+ * before reuse, and sessions send SSH keep-alive messages every
+ * {@link #getKeepAliveInterval()} milliseconds.
+ *
+ */
+public class SFTPConnectionPool extends ConnectionPool<SFTPConnectionPool.SFTPConnection> {
+
+	public static final Logger logger = Logger.getLogger(SFTPConnectionPool.class);
+
+	/**
+	 * The number of unanswered keep-alive messages after which
+	 * the session is considered broken.
+	 */
+	private static final int KEEP_ALIVE_COUNT_MAX = 3;
+
+	/**
+	 * The constructor sets connection details. No connection is opened
+	 * until the first call to {@link #borrow()}.
+	 * @param user			The user name.
+	 * @param password		The password.
+	 * @param host			The host name or IP address.
+	 * @param port			The port number.
+	 */
+	public SFTPConnectionPool(String user, String password, String host,
+			Integer port) {
+		super("sftp", user, password, host, port);
+	}
+
+	/**
+	 * Opens and authenticates a new session with an SFTP channel.
+	 * The current directory of the fresh channel is recorded as the home
+	 * directory of the connection.
+	 */
+	@Override
+	protected SFTPConnection open() throws IOException {
+
+		try {
+			JSch jsch = new JSch();
+			Session session = jsch.getSession(user, host, port);
+			session.setConfig("StrictHostKeyChecking", "no");
+			session.setPassword(password);
+			session.setServerAliveInterval(getKeepAliveInterval());
+			session.setServerAliveCountMax(KEEP_ALIVE_COUNT_MAX);
+			session.connect();
+
+			try {
+				ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+				channel.connect();
+				return new SFTPConnection(session, channel, channel.pwd());
+			} catch (JSchException | SftpException | RuntimeException e) {
+				session.disconnect();
+				throw e;
+			}
+		} catch (JSchException | SftpException e) {
+			throw new IOException("Cannot connect to " + host + ".", e);
+		}
+	}
+
+	@Override
+	protected boolean isHealthy(SFTPConnection connection) {
+		try {
+			connection.getChannel().stat(".");
+			return true;
+		} catch (SftpException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	@Override
+	protected void disconnect(SFTPConnection connection) {
+		connection.getChannel().disconnect();
+		connection.getSession().disconnect();
+	}
+
+	/**
+	 *
+	 * A session with an open SFTP channel, handed out by the pool.
+	 *
+	 */
+	public static class SFTPConnection extends ConnectionPool.Connection {
+
+		private final Session session;
+		private final ChannelSftp channel;
+
+		private SFTPConnection(Session session, ChannelSftp channel, String home) {
+			super(home);
+			this.session = session;
+			this.channel = channel;
+		}
+
+		public ChannelSftp getChannel() {
+			return channel;
+		}
+
+		public Session getSession() {
+			return session;
+		}
+
+		@Override
+		boolean isConnected() {
+			return session.isConnected() && channel.isConnected()
+					&& !channel.isClosed();
+		}
+	}
+
+}
@@ -1,24 +1,60 @@
 package com.syncron.ps.tools.fileMonitoring;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
+import com.syncron.ps.tools.fileMonitoring.SFTPConnectionPool.SFTPConnection;
 
 /**
  * 
  * An implementation of FileSender that uses SFTP
  * to transfer local files to a remote location.
+ * Connections are taken from a {@link SFTPConnectionPool}, so
+ * consecutive transfers reuse already authenticated sessions.
+ * <br/>
+ * Files of at least {@link #largeFileThreshold} bytes are split into
+ * ranges uploaded at once over separate channels of the session, each
+ * keeping many write requests in flight, so a transfer over a link with
+ * a long round trip is not limited by waiting for acknowledgements.
+ * Ranges are written at their offsets into a temporary remote file,
+ * renamed when all ranges are complete. Compressed files are always
+ * uploaded in one stream.
+ * <br/>
+ * Uploads are verified and resumed as described in
+ * {@link AbstractFileSender}; only sizes are compared, as SFTP servers
+ * don't compute checksums. Uploads in ranges are verified but not resumed.
+ * <br/>
+ * Missing remote directories are created. Each connection remembers
+ * its current directory and the directories known to exist, see
+ * {@link RemoteDirectoryCache}.
  * @author micsie
  *
  */
-public class SFTPFileSender implements FileSender {
+public class SFTPFileSender extends AbstractFileSender {
 	
 	public static final Logger logger = Logger.getLogger(SFTPFileSender.class);
 	
@@ -27,6 +63,50 @@ public class SFTPFileSender implements FileSender {
 	private String host;
 	private Integer port;
 	
+	private SFTPConnectionPool pool;
+	
+	/**
+	 * The default minimal size (in bytes) of files uploaded in ranges.
+	 */
+	public static final long DEFAULT_LARGE_FILE_THRESHOLD = 64L * 1024 * 1024;
+	/**
+	 * The default number of ranges a large file is uploaded in at once.
+	 */
+	public static final int DEFAULT_LARGE_FILE_CHANNELS = 4;
+	
+	/**
+	 * The suffix of a large file being uploaded.
+	 */
+	private static final String PART_SUFFIX = ".part";
+	
+	/**
+	 * The size of a single write request, as used by JSch.
+	 */
+	private static final int CHUNK_SIZE = 32 * 1024;
+	
+	/**
+	 * The maximal size of a mapped region of a local file.
+	 */
+	private static final long MAPPED_REGION_SIZE = 64L * 1024 * 1024;
+	
+	private long largeFileThreshold = DEFAULT_LARGE_FILE_THRESHOLD;
+	
+	private int largeFileChannels = DEFAULT_LARGE_FILE_CHANNELS;
+	
+	/**
+	 * Threads uploading ranges of large files, created on demand.
+	 */
+	private final ExecutorService rangeUploaders =
+			Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "sftp-range-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	
 	/**
 	 * The constructor uses the default sFTP port number 22.
 	 * @param user			The user name.
@@ -52,7 +132,7 @@ public class SFTPFileSender implements FileSender {
 
 	/**
 	 * Initializes {@link #user}, {@link #password}, {@link #host},
-	 * and {@link #user} from arguments.
+	 * and {@link #port} from arguments, and creates the connection pool.
 	 * @param user
 	 * @param password
 	 * @param host
@@ -64,50 +144,474 @@ public class SFTPFileSender implements FileSender {
 		this.password = password;
 		this.host = host;
 		this.port = port;
+		this.pool = new SFTPConnectionPool(user, password, host, port);
 	}
 	
 	@Override
-	public void transferFile(Path path, String remoteDir)
+	public void transferFile(Path path, String remoteDir, Compression compression)
 			throws TransferFailedException {
+		try {
+			transferFiles(Collections.singletonList(path), remoteDir, compression);
+		} catch (BatchTransferException e) {
+			throw e.getFailures().get(path);
+		}
+	}
+	
+	/**
+	 * Transfers all files over one pooled connection, changing
+	 * the remote directory once. If the connection drops, the remaining
+	 * files fail as retryable.
+	 */
+	@Override
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) throws BatchTransferException {
 		
-		JSch jsch = new JSch();
-        Session session = null;
-        Channel channel = null;
-        ChannelSftp sftpChannel = null;
-        try {
-            session = jsch.getSession(user, host, port);
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.setPassword(password);
-            session.connect();
-
-            try {
-	            
-            	channel = session.openChannel("sftp");
-	            channel.connect();
-	            
-	            try {
-		            
-	            	sftpChannel = (ChannelSftp) channel;
-		            sftpChannel.cd(remoteDir);
-		            sftpChannel.put(path.toString(),
-		            		path.getFileName().toString());
-		            
-	            } catch (SftpException e) {
-	            	// TODO: do we want to handle retrying?
-	            	// 		 for now it's not handled at all
-	            	throw new TransferFailedException(
-	            			path.getFileName().toString(), false);
-	            } finally {
-	            	sftpChannel.disconnect();
-	            }
-            } catch (JSchException e) {
-            	throw e;
-            } finally {
-            	session.disconnect();
-            }
-        } catch (JSchException e) {
-            throw new TransferFailedException(path.getFileName().toString());
-        }
+		Map<Path, TransferFailedException> failures =
+				new LinkedHashMap<Path, TransferFailedException>();
+		
+		SFTPConnection connection;
+		try {
+			connection = pool.borrow();
+		} catch (IOException e) {
+			// The host may be temporarily unreachable
+			throw new BatchTransferException(failAll(paths, 0, failures));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BatchTransferException(failAll(paths, 0, failures));
+		}
+		
+		try {
+			
+			ChannelSftp sftpChannel = connection.getChannel();
+			try {
+				changeDirectory(sftpChannel, connection.getDirectories(), remoteDir);
+			} catch (SftpException e) {
+				if (isConnectionLost(e)) {
+					pool.invalidate(connection);
+					throw new BatchTransferException(failAll(paths, 0, failures));
+				}
+				pool.release(connection);
+				for (Path path : paths) {
+					failures.put(path, new TransferFailedException(
+							path.getFileName().toString(), false));
+				}
+				throw new BatchTransferException(failures);
+			}
+			
+			for (int i = 0; i < paths.size(); i++) {
+				Path path = paths.get(i);
+				try {
+					if (!compression.isEnabled() && largeFileThreshold > 0
+							&& Files.size(path) >= largeFileThreshold) {
+						putLarge(connection, path);
+					}
+					else if (isVerify() || isResume()) {
+						putPart(sftpChannel, path, compression);
+					}
+					else {
+						put(sftpChannel, path, compression);
+					}
+				} catch (IOException | JSchException e) {
+					// Cannot read the file or open a channel for a range
+					logger.warn("Cannot upload " + path + ".", e);
+					failures.put(path, new TransferFailedException(
+							path.getFileName().toString(), true));
+				} catch (SftpException e) {
+					// The channel stays usable after an SFTP level error,
+					// unless the error was caused by a dropped connection
+					if (isConnectionLost(e)) {
+						pool.invalidate(connection);
+						throw new BatchTransferException(failAll(paths, i, failures));
+					}
+					// The directory may have been removed, it's created again
+					// on the retry
+					connection.getDirectories().invalidate(remoteDir);
+					failures.put(path, new TransferFailedException(
+							path.getFileName().toString(),
+							isLocalFileLocked(e) || e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE));
+				}
+			}
+			
+			pool.release(connection);
+			
+		} catch (RuntimeException e) {
+			pool.invalidate(connection);
+			throw e;
+		}
+		
+		if (!failures.isEmpty()) {
+			throw new BatchTransferException(failures);
+		}
+	}
+	
+	/**
+	 * Changes the current remote directory of a connection, unless it's
+	 * the current one already. A missing directory is created, with its
+	 * missing parents.
+	 * <br/>
+	 * A relative directory is resolved against the home directory of the
+	 * connection first, since a reused channel is still in the directory
+	 * of its previous transfer.
+	 */
+	static void changeDirectory(ChannelSftp sftpChannel,
+			RemoteDirectoryCache directories, String remoteDir) throws SftpException {
+		
+		String directory = directories.resolve(remoteDir);
+		if (directories.isCurrent(directory)) {
+			return;
+		}
+		try {
+			try {
+				sftpChannel.cd(directory);
+			} catch (SftpException e) {
+				if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+					throw e;
+				}
+				makeDirectories(sftpChannel, directories, directory);
+				sftpChannel.cd(directory);
+			}
+		} catch (SftpException e) {
+			directories.invalidate(directory);
+			throw e;
+		}
+		directories.setCurrent(directory);
+	}
+	
+	/**
+	 * Creates a missing remote directory and its missing parents.
+	 * Parents are checked from the innermost one, so usually a single
+	 * round trip finds the one to create directories in.
+	 */
+	private static void makeDirectories(ChannelSftp sftpChannel,
+			RemoteDirectoryCache directories, String directory) throws SftpException {
+		
+		List<String> missing = directories.getMissing(directory);
+		int first = missing.size() - 1;
+		while (first > 0 && !isDirectory(sftpChannel, missing.get(first - 1))) {
+			first--;
+		}
+		if (first > 0) {
+			directories.add(missing.get(first - 1));
+		}
+		for (String created : missing.subList(first, missing.size())) {
+			try {
+				sftpChannel.mkdir(created);
+				logger.info("Created remote directory " + created + ".");
+			} catch (SftpException e) {
+				// Another connection may have created it
+				if (!isDirectory(sftpChannel, created)) {
+					throw e;
+				}
+			}
+			directories.add(created);
+		}
+	}
+	
+	/**
+	 * @return	{@code true} if the remote directory exists.
+	 */
+	private static boolean isDirectory(ChannelSftp sftpChannel, String directory)
+			throws SftpException {
+		try {
+			return sftpChannel.stat(directory).isDir();
+		} catch (SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				return false;
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Uploads a file in one stream straight under its final name in the
+	 * current remote directory. An aborted upload removes the partial
+	 * remote file.
+	 */
+	private void put(ChannelSftp sftpChannel, Path path, Compression compression)
+			throws SftpException, IOException {
+		
+		String name = compression.getRemoteName(path.getFileName().toString());
+		try (InputStream in = open(path, compression)) {
+			sftpChannel.put(in, name);
+		} catch (SftpException | IOException e) {
+			if (isAborted()) {
+				try {
+					sftpChannel.rm(name);
+				} catch (SftpException f) {
+					logger.warn("Cannot remove the partial upload " + name + ".", f);
+				}
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Uploads a large file in {@link #largeFileChannels} ranges at once.
+	 * The temporary remote file is first extended to the full size, so
+	 * that the remote size stays the same while ranges are written.
+	 * Because of that the remote size proves nothing; the bytes written by
+	 * all ranges must add up to the size of the file instead.
+	 * The remote directory is the current directory of the connection.
+	 */
+	private void putLarge(SFTPConnection connection, final Path path)
+			throws SftpException, IOException, JSchException {
+		
+		final long size = Files.size(path);
+		ChannelSftp sftpChannel = connection.getChannel();
+		String name = path.getFileName().toString();
+		final String part = sftpChannel.pwd() + "/" + name + PART_SUFFIX;
+		
+		OutputStream out = sftpChannel.put(part, null, ChannelSftp.OVERWRITE, size - 1);
+		try {
+			out.write(0);
+		} finally {
+			out.close();
+		}
+		
+		int ranges = Math.max(1, largeFileChannels);
+		long rangeSize = (size + ranges - 1) / ranges;
+		logger.debug("Uploading " + path + " in " + ranges + " range(s).");
+		
+		final Session session = connection.getSession();
+		List<Future<Long>> uploads = new ArrayList<Future<Long>>();
+		for (int i = 0; i < ranges; i++) {
+			final long start = i * rangeSize;
+			final long end = Math.min(size, start + rangeSize);
+			uploads.add(rangeUploaders.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return putRange(session, path, part, size, start, end);
+				}
+			}));
+		}
+		
+		// Wait for all ranges, even if one of them failed
+		Throwable failure = null;
+		long written = 0;
+		for (Future<Long> upload : uploads) {
+			try {
+				written += upload.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted uploading " + path + ".", e);
+			}
+		}
+		if (failure instanceof SftpException) {
+			throw (SftpException) failure;
+		}
+		if (failure instanceof JSchException) {
+			throw (JSchException) failure;
+		}
+		if (failure != null) {
+			throw new IOException("Cannot upload " + path + ".", failure);
+		}
+		
+		long remoteSize = isVerify() ? sftpChannel.stat(part).getSize() : size;
+		if (written != size || remoteSize != size) {
+			logger.warn("Upload of " + path + " doesn't match: " + written
+					+ " bytes sent of " + size + ", " + remoteSize
+					+ " bytes remotely.");
+			sftpChannel.rm(part);
+			throw new IOException("Upload of " + path + " doesn't match.");
+		}
+		replace(sftpChannel, part, name);
+	}
+	
+	/**
+	 * Uploads a file in one stream to a temporary remote file in the current
+	 * remote directory, verifies it if verification is on and renames it.
+	 * If resuming is on, an uncompressed file is appended to the temporary
+	 * file left by a failed upload. A temporary file that doesn't match the
+	 * data read is deleted, so the retry starts from scratch.
+	 * The MD5 digest of the data is logged, the server cannot compute one.
+	 */
+	private void putPart(ChannelSftp sftpChannel, Path path, Compression compression)
+			throws SftpException, IOException {
+		
+		String name = compression.getRemoteName(path.getFileName().toString());
+		String part = name + PART_SUFFIX;
+		
+		long offset = 0;
+		if (isResume() && !compression.isEnabled()) {
+			offset = getResumeOffset(path, size(sftpChannel, part));
+		}
+		if (offset == 0) {
+			uploadStarted(path);
+		}
+		
+		try (ChecksumInputStream in = new ChecksumInputStream(open(path, compression))) {
+			if (offset > 0) {
+				// JSch skips the remote size of the input, checksumming it
+				logger.info("Resuming upload of " + path + " at byte " + offset + ".");
+				sftpChannel.put(in, part, ChannelSftp.RESUME);
+			}
+			else {
+				sftpChannel.put(in, part, ChannelSftp.OVERWRITE);
+			}
+			if (isVerify()) {
+				long size = sftpChannel.stat(part).getSize();
+				if (size != in.getCount()) {
+					logger.warn("Upload of " + path + " doesn't match: " + size
+							+ " bytes remotely, " + in.getCount() + " bytes sent.");
+					sftpChannel.rm(part);
+					uploadFinished(path);
+					throw new IOException("Upload of " + path + " doesn't match.");
+				}
+				logger.debug("Upload of " + path + " verified, MD5 "
+						+ in.getChecksum() + ".");
+			}
+		}
+		replace(sftpChannel, part, name);
+		uploadFinished(path);
+	}
+	
+	/**
+	 * Renames a temporary remote file, replacing the target if it exists.
+	 */
+	private static void replace(ChannelSftp sftpChannel, String part, String name)
+			throws SftpException {
+		try {
+			sftpChannel.rm(name);
+		} catch (SftpException e) {
+			if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				throw e;
+			}
+		}
+		sftpChannel.rename(part, name);
+	}
+	
+	/**
+	 * Gets the size of a remote file.
+	 * @return	The size, -1 if the file doesn't exist.
+	 */
+	private static long size(ChannelSftp sftpChannel, String name) throws SftpException {
+		try {
+			return sftpChannel.stat(name).getSize();
+		} catch (SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				return -1;
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Uploads bytes {@code start} (inclusive) to {@code end} (exclusive)
+	 * of a local file over a new channel of the session. The file is read
+	 * through memory mapped regions. Writes are not acknowledged one by one
+	 * but only when the stream is closed. Fails once the sender is aborted,
+	 * and waits for the throttle like {@link #open(Path, Compression)}.
+	 * @return	The number of bytes written.
+	 */
+	private long putRange(Session session, Path path, String part,
+			long size, long start, long end)
+			throws SftpException, IOException, JSchException {
+		
+		ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+		channel.connect();
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			
+			// RESUME adds the remote size to the offset
+			OutputStream out = channel.put(part, null, ChannelSftp.RESUME, start - size);
+			long written = 0;
+			try {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				for (long position = start; position < end; ) {
+					long length = Math.min(MAPPED_REGION_SIZE, end - position);
+					MappedByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY,
+							position, length);
+					while (region.hasRemaining()) {
+						checkAborted();
+						int n = Math.min(chunk.length, region.remaining());
+						region.get(chunk, 0, n);
+						throttle(n);
+						out.write(chunk, 0, n);
+						written += n;
+					}
+					position += length;
+				}
+			} finally {
+				out.close();
+			}
+			return written;
+		} finally {
+			channel.disconnect();
+		}
+	}
+	
+	/**
+	 * Marks files starting from {@code from} as failed, to be retried.
+	 * @return	{@code failures}
+	 */
+	private static Map<Path, TransferFailedException> failAll(List<Path> paths,
+			int from, Map<Path, TransferFailedException> failures) {
+		for (Path path : paths.subList(from, paths.size())) {
+			failures.put(path, new TransferFailedException(
+					path.getFileName().toString(), true));
+		}
+		return failures;
+	}
+	
+	/**
+	 * Checks if the SFTP error was caused by a dropped connection.
+	 * @param e		The SFTP error.
+	 * @return		{@code true} if the transfer can be retried
+	 * 				over a new connection.
+	 */
+	private static boolean isConnectionLost(SftpException e) {
+		return e.id == ChannelSftp.SSH_FX_CONNECTION_LOST
+				|| e.id == ChannelSftp.SSH_FX_NO_CONNECTION;
+	}
+	
+	/**
+	 * Checks if the SFTP error was caused by failing to read the local
+	 * file, e.g. because it's still locked by the producer.
+	 * @param e		The SFTP error.
+	 * @return		{@code true} if the transfer can be retried later.
+	 */
+	private static boolean isLocalFileLocked(SftpException e) {
+		return e.getCause() instanceof IOException;
+	}
+	
+	/**
+	 * Closes all pooled connections. Uploads in progress are finished,
+	 * their connections are closed when released.
+	 */
+	@Override
+	public void close() {
+		rangeUploaders.shutdown();
+		pool.close();
 	}
 	
+	public SFTPConnectionPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Sets the minimal size of files uploaded in ranges at once.
+	 * @param largeFileThreshold	The size in bytes, 0 uploads
+	 * 								all files in one stream.
+	 */
+	public void setLargeFileThreshold(long largeFileThreshold) {
+		this.largeFileThreshold = largeFileThreshold;
+	}
+	
+	/**
+	 * Sets the number of ranges of a large file uploaded at once,
+	 * each over its own channel.
+	 * @param largeFileChannels		The number of ranges.
+	 */
+	public void setLargeFileChannels(int largeFileChannels) {
+		this.largeFileChannels = largeFileChannels;
+	}
+	
+	@Override
+	public LatencyHistogram getConnectTimes() {
+		return pool.getConnectTimes();
+	}
+
 }
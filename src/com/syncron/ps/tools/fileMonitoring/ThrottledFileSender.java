@@ -0,0 +1,277 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * A FileSender limiting transfers of another one, so that draining
+ * a backlog doesn't saturate the uplink. Limits are:
+ * <ul>
+ * <li>the average number of bytes sent per second,</li>
+ * <li>the average number of files sent per second,</li>
+ * <li>the number of transfers in progress at once.</li>
+ * </ul>
+ * Rates are enforced with {@link TokenBucket}s. The file rate and
+ * the transfer slots are taken before a transfer, a batch being one
+ * transfer charged with all its files. The byte rate is handed to the
+ * throttled sender as its {@link AbstractFileSender#setThrottle(TokenBucket)
+ * throttle} and charged per chunk read from the local file, so a large
+ * file is sent at the limited rate rather than at full speed after
+ * a wait. Bytes are counted before compression.
+ * <br/>
+ * All limits, and the throttled sender itself, can be changed while
+ * files are being transferred. 0 means no limit. A replaced sender is
+ * closed once the transfers it's still running finish.
+ *
+ */
+public class ThrottledFileSender extends AbstractFileSender {
+
+	private volatile FileSender sender;
+
+	private final TokenBucket bytes = new TokenBucket(0);
+
+	private final TokenBucket files = new TokenBucket(0);
+
+	/**
+	 * The maximum number of transfers at once, 0 if unlimited.
+	 * Guarded by {@code this}.
+	 */
+	private int maxInFlight = 0;
+
+	/**
+	 * The number of transfers in progress. Guarded by {@code this}.
+	 */
+	private int inFlight = 0;
+
+	/**
+	 * The number of transfers in progress by sender, of the current sender
+	 * and of replaced ones that haven't finished yet. Guarded by {@code this}.
+	 */
+	private final Map<FileSender, Integer> transfers =
+			new IdentityHashMap<FileSender, Integer>();
+
+	/**
+	 * Replaced senders to be closed when their last transfer finishes.
+	 * Guarded by {@code this}.
+	 */
+	private final List<FileSender> retired = new ArrayList<FileSender>();
+
+	/**
+	 * The constructor sets the throttled sender. No limits are set.
+	 * @param sender	The sender actually transferring files.
+	 */
+	public ThrottledFileSender(FileSender sender) {
+		this.sender = sender;
+		throttle(sender);
+	}
+
+	@Override
+	public void transferFile(Path path, String remoteDir, Compression compression)
+			throws TransferFailedException {
+		FileSender sender;
+		try {
+			sender = acquire(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransferFailedException(path.getFileName().toString(), true);
+		}
+		try {
+			sender.transferFile(path, remoteDir, compression);
+		} finally {
+			release(sender);
+		}
+	}
+
+	@Override
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) throws BatchTransferException {
+		FileSender sender;
+		try {
+			sender = acquire(paths.size());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Map<Path, TransferFailedException> failures =
+					new LinkedHashMap<Path, TransferFailedException>();
+			for (Path path : paths) {
+				failures.put(path, new TransferFailedException(
+						path.getFileName().toString(), true));
+			}
+			throw new BatchTransferException(failures);
+		}
+		try {
+			sender.transferFiles(paths, remoteDir, compression);
+		} finally {
+			release(sender);
+		}
+	}
+
+	/**
+	 * Waits for tokens of the file rate and then for a free transfer slot,
+	 * so that no slot is held while waiting for tokens.
+	 * @return	The sender to run the transfer, counted as busy until
+	 * 			{@link #release(FileSender)}.
+	 */
+	private FileSender acquire(int fileCount) throws InterruptedException {
+		files.acquire(fileCount);
+		synchronized (this) {
+			while (maxInFlight > 0 && inFlight >= maxInFlight) {
+				wait();
+			}
+			inFlight++;
+			Integer count = transfers.get(sender);
+			transfers.put(sender, count == null ? 1 : count + 1);
+			return sender;
+		}
+	}
+
+	/**
+	 * Ends a transfer, closing its sender if it has been replaced
+	 * and this was its last transfer.
+	 */
+	private void release(FileSender sender) {
+		synchronized (this) {
+			inFlight--;
+			notifyAll();
+			int count = transfers.get(sender) - 1;
+			if (count > 0) {
+				transfers.put(sender, count);
+				return;
+			}
+			transfers.remove(sender);
+			if (!retired.remove(sender)) {
+				return;
+			}
+		}
+		close(sender);
+	}
+
+	/**
+	 * Makes a sender charge the bytes it reads to the byte rate. A sender
+	 * not reading through {@link AbstractFileSender} is not limited by it.
+	 */
+	private void throttle(FileSender sender) {
+		if (sender instanceof AbstractFileSender) {
+			((AbstractFileSender) sender).setThrottle(bytes);
+		}
+	}
+
+	/**
+	 * @return	The throttled sender.
+	 */
+	public FileSender getSender() {
+		return sender;
+	}
+
+	/**
+	 * Replaces the throttled sender. Transfers in progress finish with
+	 * the previous one, which is closed after the last of them. Limits
+	 * and transfers counted against them stay.
+	 * @param sender	The new sender.
+	 */
+	public void setSender(FileSender sender) {
+		throttle(sender);
+		FileSender previous;
+		synchronized (this) {
+			previous = this.sender;
+			this.sender = sender;
+			if (previous == sender) {
+				return;
+			}
+			if (transfers.containsKey(previous)) {
+				retired.add(previous);
+				return;
+			}
+		}
+		close(previous);
+	}
+
+	/**
+	 * Closes the throttled sender. Replaced senders still running
+	 * transfers are closed when these finish.
+	 */
+	@Override
+	public void close() {
+		close(sender);
+	}
+
+	private static void close(FileSender sender) {
+		if (sender instanceof AbstractFileSender) {
+			((AbstractFileSender) sender).close();
+		}
+	}
+
+	/**
+	 * Aborts the throttled sender and replaced senders still running
+	 * transfers.
+	 */
+	@Override
+	public void abort() {
+		super.abort();
+		List<FileSender> aborted;
+		synchronized (this) {
+			aborted = new ArrayList<FileSender>(retired);
+			aborted.add(sender);
+		}
+		for (FileSender sender : aborted) {
+			if (sender instanceof AbstractFileSender) {
+				((AbstractFileSender) sender).abort();
+			}
+		}
+	}
+
+	@Override
+	public LatencyHistogram getConnectTimes() {
+		return sender instanceof AbstractFileSender
+				? ((AbstractFileSender) sender).getConnectTimes() : null;
+	}
+
+	public double getMaxBytesPerSecond() {
+		return bytes.getRate();
+	}
+
+	/**
+	 * Limits the average number of bytes sent per second.
+	 * @param maxBytesPerSecond	The rate, 0 if unlimited.
+	 */
+	public void setMaxBytesPerSecond(double maxBytesPerSecond) {
+		bytes.setRate(maxBytesPerSecond);
+	}
+
+	public double getMaxFilesPerSecond() {
+		return files.getRate();
+	}
+
+	/**
+	 * Limits the average number of files sent per second.
+	 * @param maxFilesPerSecond	The rate, 0 if unlimited.
+	 */
+	public void setMaxFilesPerSecond(double maxFilesPerSecond) {
+		files.setRate(maxFilesPerSecond);
+	}
+
+	public synchronized int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Limits the number of transfers in progress at once.
+	 * @param maxInFlight	The number of transfers, 0 if unlimited.
+	 */
+	public synchronized void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		notifyAll();
+	}
+
+	/**
+	 * @return	The number of transfers in progress.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+}
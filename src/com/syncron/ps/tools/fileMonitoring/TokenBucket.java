@@ -0,0 +1,92 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+/**
+ *
+ * A token bucket limiting the average rate of some quantity (bytes, files)
+ * to {@link #rate} per second, with bursts of up to one second's worth.
+ * <br/>
+ * A request may take more tokens than there are in the bucket, leaving
+ * a debt that later requests wait for. So a single large request is never
+ * split nor delayed until the bucket holds all of it, but the average rate
+ * is kept.
+ * <br/>
+ * The rate can be changed at any time; waiting requests see the new rate
+ * right away.
+ *
+ */
+public class TokenBucket {
+
+	/**
+	 * Tokens per second, 0 or less if unlimited. Guarded by {@code this}.
+	 */
+	private double rate;
+
+	/**
+	 * Available tokens, negative if in debt. Guarded by {@code this}.
+	 */
+	private double tokens;
+
+	/**
+	 * The time of the last refill (in terms of {@link System#nanoTime()}).
+	 */
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * The constructor sets the rate. The bucket starts full.
+	 * @param rate	Tokens per second, 0 if unlimited.
+	 */
+	public TokenBucket(double rate) {
+		this.rate = rate;
+		this.tokens = Math.max(rate, 0);
+	}
+
+	/**
+	 * Takes tokens, waiting while the bucket is empty or in debt.
+	 * @param count		The number of tokens.
+	 * @throws InterruptedException	If interrupted while waiting.
+	 */
+	public synchronized void acquire(long count) throws InterruptedException {
+		while (rate > 0) {
+			refill();
+			if (tokens > 0) {
+				tokens -= count;
+				return;
+			}
+			long millis = (long) Math.ceil(-tokens / rate * 1000);
+			wait(Math.max(millis, 1));
+		}
+	}
+
+	/**
+	 * Adds tokens accumulated since the last refill, up to one second's worth.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(rate, tokens + (now - lastRefill) / 1e9 * rate);
+		lastRefill = now;
+	}
+
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Changes the rate.
+	 * @param rate	Tokens per second, 0 if unlimited.
+	 */
+	public synchronized void setRate(double rate) {
+		if (this.rate > 0) {
+			refill();
+		}
+		else {
+			tokens = Math.max(rate, 0);
+			lastRefill = System.nanoTime();
+		}
+		this.rate = rate;
+		if (rate > 0) {
+			tokens = Math.min(tokens, rate);
+		}
+		notifyAll();
+	}
+
+}
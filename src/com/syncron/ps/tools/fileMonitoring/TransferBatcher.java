@@ -0,0 +1,167 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * Collects files ready for a transfer into batches bound for the same
+ * remote directory. A batch is handed over to transfer workers when it
+ * reaches {@link #maxFiles} files or {@link #linger} milliseconds after
+ * its first file arrived, whichever comes first.
+ *
+ */
+public class TransferBatcher {
+
+	public static final Logger logger = Logger.getLogger(TransferBatcher.class);
+
+	private final FileMonitor monitor;
+
+	private final Destination destination;
+
+	private final int maxFiles;
+
+	private final long linger;
+
+	/**
+	 * Open batches of monitored directories. Guarded by itself.
+	 */
+	private final Map<MonitoredDirectory, List<Path>> batches =
+			new HashMap<MonitoredDirectory, List<Path>>();
+
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Whether the batcher has been shut down. Guarded by {@link #batches}.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The constructor creates the thread closing batches after
+	 * {@code linger} milliseconds.
+	 * @param monitor	The monitor batches are submitted to.
+	 * @param destination	The destination of the batches.
+	 * @param maxFiles	The maximum number of files in a batch.
+	 * @param linger	The maximum time (in milliseconds) a file waits
+	 * 					for a batch to fill up.
+	 */
+	public TransferBatcher(FileMonitor monitor, final Destination destination,
+			int maxFiles, long linger) {
+		this.monitor = monitor;
+		this.destination = destination;
+		this.maxFiles = maxFiles;
+		this.linger = linger;
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "transfer-batcher-" + destination.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Adds a file to the open batch of its directory.
+	 * @param file			The path to the file.
+	 * @param directory		The monitored directory containing the file.
+	 */
+	public void add(Path file, final MonitoredDirectory directory) {
+		List<Path> full = null;
+		synchronized (batches) {
+			if (closed) {
+				// Replaced while the file was dispatched, it goes alone
+				full = Collections.singletonList(file);
+			}
+			else {
+				List<Path> batch = batches.get(directory);
+				if (batch == null) {
+					batch = new ArrayList<Path>(maxFiles);
+					batches.put(directory, batch);
+					final List<Path> opened = batch;
+					timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							flush(directory, opened);
+						}
+					}, linger, TimeUnit.MILLISECONDS);
+				}
+				batch.add(file);
+				if (batch.size() >= maxFiles) {
+					batches.remove(directory);
+					full = batch;
+				}
+			}
+		}
+		if (full != null) {
+			monitor.submitBatch(full, directory, destination);
+		}
+	}
+
+	/**
+	 * Submits the batch if it's still open.
+	 */
+	private void flush(MonitoredDirectory directory, List<Path> batch) {
+		synchronized (batches) {
+			if (batches.get(directory) != batch) {
+				// Already submitted as full
+				return;
+			}
+			batches.remove(directory);
+		}
+		try {
+			monitor.submitBatch(batch, directory, destination);
+		} catch (Exception e) {
+			logger.error("Cannot submit a batch of " + directory.getLocalDirectory(), e);
+		}
+	}
+
+	/**
+	 * Submits all open batches right away.
+	 */
+	public void flushAll() {
+		Map<MonitoredDirectory, List<Path>> open;
+		synchronized (batches) {
+			open = new HashMap<MonitoredDirectory, List<Path>>(batches);
+			batches.clear();
+		}
+		for (Map.Entry<MonitoredDirectory, List<Path>> entry : open.entrySet()) {
+			monitor.submitBatch(entry.getValue(), entry.getKey(), destination);
+		}
+	}
+
+	/**
+	 * @return	The number of files waiting in open batches.
+	 */
+	public int size() {
+		int size = 0;
+		synchronized (batches) {
+			for (List<Path> batch : batches.values()) {
+				size += batch.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Submits open batches and stops the timer.
+	 */
+	public void shutdown() {
+		synchronized (batches) {
+			closed = true;
+		}
+		flushAll();
+		timer.shutdownNow();
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * A pool of worker threads executing file transfers, so that the thread
+ * watching directories only enqueues work and never waits for an upload.
+ * <br/>
+ * Transfers submitted with the same ordering key are executed one by one
+ * in the order of submission; transfers without a key run in parallel
+ * on any free worker. Waiting transfers are handed to workers by
+ * a {@link FairTransferQueue}, according to the priorities, weights and
+ * shares of their directories.
+ *
+ */
+public class TransferExecutor {
+
+	public static final Logger logger = Logger.getLogger(TransferExecutor.class);
+
+	private final String name;
+
+	private final ThreadPoolExecutor workers;
+
+	private final FairTransferQueue queue;
+
+	/**
+	 * Pending tasks of ordered keys. A key is present only while one
+	 * of its tasks is running or waiting. Guarded by itself.
+	 */
+	private final Map<Object, Queue<FairTransferQueue.Transfer>> serialQueues =
+			new HashMap<Object, Queue<FairTransferQueue.Transfer>>();
+
+	/**
+	 * The constructor starts {@code threads} worker threads.
+	 * @param name		The name used for worker threads.
+	 * @param threads	The number of worker threads.
+	 */
+	public TransferExecutor(final String name, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.name = name;
+		this.queue = new FairTransferQueue(threads);
+		this.workers = new ThreadPoolExecutor(threads, threads,
+				0L, TimeUnit.MILLISECONDS, queue,
+				new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "transfer-" + name + "-"
+								+ counter.incrementAndGet());
+					}
+				});
+		// Every transfer must go through the queue to be counted
+		workers.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Submits a transfer in the default lane.
+	 * @param orderingKey	If not {@code null}, the task is executed after
+	 * 						all tasks previously submitted with the same key
+	 * 						have finished.
+	 * @param task			The transfer.
+	 */
+	public void submit(Object orderingKey, Runnable task) {
+		submit(orderingKey, null, 0, task);
+	}
+
+	/**
+	 * Submits a transfer of files of a directory.
+	 * @param orderingKey	If not {@code null}, the task is executed after
+	 * 						all tasks previously submitted with the same key
+	 * 						have finished.
+	 * @param directory		The directory whose lane the transfer waits in,
+	 * 						{@code null} for the default lane.
+	 * @param size			The number of transferred bytes.
+	 * @param task			The transfer.
+	 */
+	public void submit(Object orderingKey, MonitoredDirectory directory, long size,
+			Runnable task) {
+		FairTransferQueue.Transfer transfer =
+				new FairTransferQueue.Transfer(task, directory, size);
+		if (orderingKey == null) {
+			workers.execute(transfer);
+			return;
+		}
+
+		synchronized (serialQueues) {
+			Queue<FairTransferQueue.Transfer> waiting = serialQueues.get(orderingKey);
+			if (waiting != null) {
+				// A task of this key is running, it will pick this one up
+				waiting.add(transfer);
+				return;
+			}
+			serialQueues.put(orderingKey, new ArrayDeque<FairTransferQueue.Transfer>());
+		}
+		try {
+			executeSerial(orderingKey, transfer);
+		} catch (RejectedExecutionException e) {
+			synchronized (serialQueues) {
+				serialQueues.remove(orderingKey);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the task on a worker and, once finished, schedules the next task
+	 * waiting for the same key.
+	 */
+	private void executeSerial(final Object orderingKey,
+			final FairTransferQueue.Transfer task) {
+		workers.execute(task.wrap(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					executeNext(orderingKey);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Schedules the next task waiting for a key. Once the executor is shut
+	 * down, new tasks are rejected, so the remaining tasks of the key are
+	 * run on the current worker instead; they were accepted before the
+	 * shutdown and must be executed too.
+	 */
+	private void executeNext(Object orderingKey) {
+		while (true) {
+			FairTransferQueue.Transfer next;
+			synchronized (serialQueues) {
+				next = serialQueues.get(orderingKey).poll();
+				if (next == null) {
+					serialQueues.remove(orderingKey);
+					return;
+				}
+			}
+			try {
+				executeSerial(orderingKey, next);
+				return;
+			} catch (RejectedExecutionException e) {
+				try {
+					next.run();
+				} catch (RuntimeException re) {
+					logger.error("Transfer of " + name + " failed.", re);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return	The number of transfers waiting for a free worker.
+	 */
+	public int getQueueSize() {
+		int size = queue.size();
+		synchronized (serialQueues) {
+			for (Queue<FairTransferQueue.Transfer> waiting : serialQueues.values()) {
+				size += waiting.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return	The number of transfers being executed right now.
+	 */
+	public int getActiveCount() {
+		return workers.getActiveCount();
+	}
+
+	public int getThreads() {
+		return workers.getMaximumPoolSize();
+	}
+
+	/**
+	 * Changes the number of worker threads. Surplus threads exit once
+	 * they finish their current transfers.
+	 * @param threads	The number of worker threads.
+	 */
+	public synchronized void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		// The core size must never exceed the maximum size
+		if (threads > workers.getMaximumPoolSize()) {
+			workers.setMaximumPoolSize(threads);
+			workers.setCorePoolSize(threads);
+			workers.prestartAllCoreThreads();
+		}
+		else {
+			workers.setCorePoolSize(threads);
+			workers.setMaximumPoolSize(threads);
+		}
+		queue.setThreads(threads);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Stops accepting new transfers. Already submitted ones are executed.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Stops accepting new transfers, drops the ones not started yet and
+	 * interrupts the running ones.
+	 * @return	The number of dropped transfers.
+	 */
+	public int shutdownNow() {
+		int dropped = workers.shutdownNow().size();
+		synchronized (serialQueues) {
+			// Keys stay, so running tasks find their queues empty
+			for (Queue<FairTransferQueue.Transfer> waiting : serialQueues.values()) {
+				dropped += waiting.size();
+				waiting.clear();
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * Waits until all submitted transfers finish after {@link #shutdown()}.
+	 * @param timeout	The maximum time to wait in milliseconds.
+	 * @return			{@code true} if all transfers have finished.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		return workers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+}
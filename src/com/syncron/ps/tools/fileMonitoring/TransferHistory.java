@@ -0,0 +1,223 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Keeps track of files that have been already delivered and files that
+ * are waiting for or undergoing a transfer. Used to avoid sending a file
+ * twice when a directory is rescanned.
+ * <br/>
+ * A delivered file is remembered together with its last modification
+ * time, so a file overwritten after the delivery is sent again. It's
+ * forgotten once it's deleted from its directory, as reported by the
+ * watch service or found by a rescan, so that the history only grows
+ * with the files present.
+ * <br/>
+ * If a {@link TransferJournal} is set, every change is also appended
+ * to it, so the history survives a restart.
+ *
+ */
+public class TransferHistory {
+
+	/**
+	 * Delivered files: directory -> file name -> last modification time.
+	 * Grouping by directory allows pruning a directory after a rescan
+	 * without iterating over all files.
+	 */
+	private final Map<Path, Map<String, Long>> delivered =
+			new ConcurrentHashMap<Path, Map<String, Long>>();
+
+	/**
+	 * Files enqueued for a transfer or being transferred right now.
+	 */
+	private final Set<Path> pending =
+			Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+	private volatile TransferJournal journal;
+
+	/**
+	 * Sets the journal changes are recorded in.
+	 * @param journal	An opened journal.
+	 */
+	public void setJournal(TransferJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Marks the file as enqueued for a transfer.
+	 * @param file	The path to the file.
+	 * @return		{@code false} if the file is already pending,
+	 * 				i.e. it shouldn't be enqueued again.
+	 */
+	public boolean markPending(Path file) {
+		if (!pending.add(file)) {
+			return false;
+		}
+		TransferJournal journal = this.journal;
+		if (journal != null) {
+			journal.enqueued(file);
+		}
+		return true;
+	}
+
+	/**
+	 * Records the transfer of a pending file has started.
+	 * @param file	The path to the file.
+	 */
+	public void markInFlight(Path file) {
+		TransferJournal journal = this.journal;
+		if (journal != null) {
+			journal.inFlight(file);
+		}
+	}
+
+	/**
+	 * @param file	The path to the file.
+	 * @return		{@code true} if the file is enqueued or being transferred.
+	 */
+	public boolean isPending(Path file) {
+		return pending.contains(file);
+	}
+
+	/**
+	 * Records a successful delivery of the file.
+	 * @param file			The path to the file.
+	 * @param lastModified	The last modification time of the delivered
+	 * 						version of the file.
+	 */
+	public void markDelivered(Path file, long lastModified) {
+		restoreDelivered(file, lastModified);
+		pending.remove(file);
+		TransferJournal journal = this.journal;
+		if (journal != null) {
+			journal.completed(file, lastModified);
+		}
+	}
+
+	/**
+	 * Records a delivery of the file made before a restart.
+	 * @param file			The path to the file.
+	 * @param lastModified	The last modification time of the delivered
+	 * 						version of the file.
+	 */
+	void restoreDelivered(Path file, long lastModified) {
+		Map<String, Long> files = delivered.get(file.getParent());
+		if (files == null) {
+			synchronized (delivered) {
+				files = delivered.get(file.getParent());
+				if (files == null) {
+					files = new ConcurrentHashMap<String, Long>();
+					delivered.put(file.getParent(), files);
+				}
+			}
+		}
+		files.put(file.getFileName().toString(), lastModified);
+	}
+
+	/**
+	 * Removes the file from pending ones without recording a delivery.
+	 * @param file	The path to the file.
+	 */
+	public void markFailed(Path file) {
+		if (pending.remove(file)) {
+			TransferJournal journal = this.journal;
+			if (journal != null) {
+				journal.dropped(file);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the given version of the file has been delivered.
+	 * @param file			The path to the file.
+	 * @param lastModified	The current last modification time of the file.
+	 * @return				{@code true} if the file has been delivered and
+	 * 						not modified since.
+	 */
+	public boolean isDelivered(Path file, long lastModified) {
+		Map<String, Long> files = delivered.get(file.getParent());
+		if (files == null) {
+			return false;
+		}
+		Long deliveredModified = files.get(file.getFileName().toString());
+		return deliveredModified != null && deliveredModified == lastModified;
+	}
+
+	/**
+	 * Forgets a deleted file, or all files of a deleted directory.
+	 * Pending files are left to their transfers.
+	 * @param file	The path to the file or the directory.
+	 */
+	public void forget(Path file) {
+		if (removeDelivered(file)) {
+			TransferJournal journal = this.journal;
+			if (journal != null) {
+				journal.removed(file);
+			}
+		}
+	}
+
+	/**
+	 * Forgets a deleted file, or all files of a deleted directory,
+	 * without recording it in the journal, e.g. while replaying it.
+	 * @param file	The path to the file or the directory.
+	 * @return		{@code true} if anything has been forgotten.
+	 */
+	boolean removeDelivered(Path file) {
+		boolean removed = delivered.remove(file) != null;
+		Map<String, Long> files = file.getParent() == null ? null
+				: delivered.get(file.getParent());
+		if (files != null && files.remove(file.getFileName().toString()) != null) {
+			removed = true;
+		}
+		return removed;
+	}
+
+	/**
+	 * Forgets delivered files of the directory that are not present
+	 * in it anymore.
+	 * @param directory		The directory.
+	 * @param existing		The names of files currently present
+	 * 						in the directory.
+	 */
+	public void retain(Path directory, Set<String> existing) {
+		Map<String, Long> files = delivered.get(directory);
+		if (files == null) {
+			return;
+		}
+		Iterator<String> iterator = files.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (!existing.contains(iterator.next())) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return	A view of delivered files grouped by directories.
+	 */
+	Map<Path, Map<String, Long>> getDeliveredFiles() {
+		return Collections.unmodifiableMap(delivered);
+	}
+
+	/**
+	 * @return	A view of files enqueued or being transferred.
+	 */
+	Set<Path> getPendingFiles() {
+		return Collections.unmodifiableSet(pending);
+	}
+
+	/**
+	 * @return	The number of files enqueued or being transferred.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+}
@@ -0,0 +1,357 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * An append-only journal of transfers kept in a local state directory.
+ * It records files enqueued for a transfer, transfers in progress and
+ * completed deliveries, so that after a restart (or a crash) pending
+ * files are sent again and delivered ones are not.
+ * <br/>
+ * Records are appended by a single writer thread. Callers only put a
+ * record on a queue; the writer takes all queued records, writes them
+ * sequentially and forces them to the disk once per batch.
+ * <br/>
+ * When enough records have been appended, the journal is compacted:
+ * the current state of {@link TransferHistory} is written to a new file
+ * that atomically replaces the old one.
+ * <br/>
+ * A crash after an upload but before its record is forced to the disk
+ * causes the file to be sent once more after the restart, but a file
+ * is never lost.
+ *
+ */
+public class TransferJournal {
+
+	public static final Logger logger = Logger.getLogger(TransferJournal.class);
+
+	/**
+	 * The name of the journal file in the state directory.
+	 */
+	private static final String JOURNAL_FILE = "transfers.journal";
+
+	/**
+	 * The minimal number of records appended since the last compaction
+	 * after which the journal is compacted again.
+	 */
+	private static final int COMPACTION_THRESHOLD = 100000;
+
+	/**
+	 * The maximum number of records written at once.
+	 */
+	private static final int MAX_BATCH = 4096;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final char ENQUEUED = 'E';
+	private static final char IN_FLIGHT = 'I';
+	private static final char COMPLETED = 'C';
+	private static final char DROPPED = 'D';
+	private static final char REMOVED = 'R';
+
+	private static final char SEPARATOR = '\t';
+
+	/**
+	 * Put on the queue to stop the writer.
+	 */
+	private static final String CLOSE = new String("close");
+
+	private final Path journalPath;
+
+	private final BlockingQueue<String> records = new LinkedBlockingQueue<String>();
+
+	private TransferHistory history;
+
+	private FileChannel channel;
+	private Writer out;
+
+	private Thread writer;
+
+	/**
+	 * The number of records in the journal file.
+	 */
+	private int written = 0;
+
+	/**
+	 * The number of records in the journal file right after
+	 * the last compaction.
+	 */
+	private int compacted = 0;
+
+	/**
+	 * The constructor creates the state directory if it doesn't exist.
+	 * @param stateDirectory	The directory the journal is kept in.
+	 * @throws IOException
+	 */
+	public TransferJournal(Path stateDirectory) throws IOException {
+		Files.createDirectories(stateDirectory);
+		this.journalPath = stateDirectory.resolve(JOURNAL_FILE);
+	}
+
+	/**
+	 * Reads the journal left by the previous run. Delivered files are
+	 * restored in {@code history}.
+	 * @param history	The history to restore.
+	 * @return			Files that were enqueued or being transferred
+	 * 					and have not been delivered.
+	 * @throws IOException
+	 */
+	public List<Path> replay(TransferHistory history) throws IOException {
+
+		Set<Path> pending = new LinkedHashSet<Path>();
+		if (!Files.exists(journalPath)) {
+			return new ArrayList<Path>(pending);
+		}
+
+		int count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(journalPath, UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// format: <type> TAB <last modified> TAB <path>
+				int second = line.indexOf(SEPARATOR, 2);
+				if (line.length() < 3 || line.charAt(1) != SEPARATOR || second < 0) {
+					// A torn write of the last record before a crash
+					logger.warn("Skipping a malformed journal record: " + line);
+					continue;
+				}
+				Path file = Paths.get(line.substring(second + 1));
+				switch (line.charAt(0)) {
+				case ENQUEUED:
+				case IN_FLIGHT:
+					pending.add(file);
+					break;
+				case COMPLETED:
+					try {
+						history.restoreDelivered(file,
+								Long.parseLong(line.substring(2, second)));
+					} catch (NumberFormatException e) {
+						logger.warn("Skipping a malformed journal record: " + line);
+					}
+					pending.remove(file);
+					break;
+				case DROPPED:
+					pending.remove(file);
+					break;
+				case REMOVED:
+					history.removeDelivered(file);
+					break;
+				default:
+					logger.warn("Skipping a malformed journal record: " + line);
+				}
+				count++;
+			}
+		}
+
+		logger.info("Journal replayed: " + count + " record(s), "
+				+ pending.size() + " pending file(s).");
+		return new ArrayList<Path>(pending);
+	}
+
+	/**
+	 * Compacts the journal to the current state of {@code history} and
+	 * starts the writer thread.
+	 * @param history	The history records are taken from when compacting.
+	 * @throws IOException
+	 */
+	public synchronized void open(TransferHistory history) throws IOException {
+		this.history = history;
+		compact();
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records the file has been enqueued for a transfer.
+	 * @param file	The path to the file.
+	 */
+	public void enqueued(Path file) {
+		append(ENQUEUED, 0, file);
+	}
+
+	/**
+	 * Records the transfer of the file has started.
+	 * @param file	The path to the file.
+	 */
+	public void inFlight(Path file) {
+		append(IN_FLIGHT, 0, file);
+	}
+
+	/**
+	 * Records the file has been delivered.
+	 * @param file			The path to the file.
+	 * @param lastModified	The last modification time of the delivered
+	 * 						version of the file.
+	 */
+	public void completed(Path file, long lastModified) {
+		append(COMPLETED, lastModified, file);
+	}
+
+	/**
+	 * Records the file won't be transferred anymore.
+	 * @param file	The path to the file.
+	 */
+	public void dropped(Path file) {
+		append(DROPPED, 0, file);
+	}
+
+	/**
+	 * Records the file, or all files of the directory, have been deleted
+	 * and are not remembered as delivered anymore.
+	 * @param file	The path to the file or the directory.
+	 */
+	public void removed(Path file) {
+		append(REMOVED, 0, file);
+	}
+
+	private void append(char type, long lastModified, Path file) {
+		records.add(record(type, lastModified, file));
+	}
+
+	private static String record(char type, long lastModified, Path file) {
+		return new StringBuilder()
+				.append(type).append(SEPARATOR)
+				.append(lastModified).append(SEPARATOR)
+				.append(file.toString()).append('\n')
+				.toString();
+	}
+
+	/**
+	 * Writes all queued records and stops the writer thread.
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		if (writer == null) {
+			return;
+		}
+		records.add(CLOSE);
+		writer.join();
+	}
+
+	/**
+	 * The loop of the writer thread.
+	 */
+	private void write() {
+		List<String> batch = new ArrayList<String>();
+		boolean closing = false;
+		while (!closing) {
+			try {
+				batch.add(records.take());
+			} catch (InterruptedException e) {
+				closing = true;
+			}
+			records.drainTo(batch, MAX_BATCH);
+
+			try {
+				synchronized (this) {
+					for (String record : batch) {
+						if (record == CLOSE) {
+							closing = true;
+							continue;
+						}
+						out.write(record);
+						written++;
+					}
+					out.flush();
+					channel.force(false);
+
+					// Compacting is proportional to the number of live records,
+					// so wait at least for as many new ones
+					if (written - compacted >= Math.max(COMPACTION_THRESHOLD, compacted)) {
+						compact();
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Cannot write to the transfer journal " + journalPath, e);
+			}
+			batch.clear();
+		}
+
+		synchronized (this) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				logger.error("Cannot close the transfer journal " + journalPath, e);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the journal with records describing the current state
+	 * of {@link #history}. Records appended to the queue meanwhile are
+	 * written to the new file afterwards.
+	 */
+	private void compact() throws IOException {
+
+		long start = System.currentTimeMillis();
+		int count = 0;
+		Path tmp = journalPath.resolveSibling(JOURNAL_FILE + ".tmp");
+
+		try (FileChannel tmpChannel = FileChannel.open(tmp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			Writer tmpOut = new BufferedWriter(new OutputStreamWriter(
+					Channels.newOutputStream(tmpChannel), UTF_8));
+			for (Map.Entry<Path, Map<String, Long>> directory
+					: history.getDeliveredFiles().entrySet()) {
+				for (Map.Entry<String, Long> file : directory.getValue().entrySet()) {
+					tmpOut.write(record(COMPLETED, file.getValue(),
+							directory.getKey().resolve(file.getKey())));
+					count++;
+				}
+			}
+			for (Path file : history.getPendingFiles()) {
+				tmpOut.write(record(ENQUEUED, 0, file));
+				count++;
+			}
+			tmpOut.flush();
+			tmpChannel.force(true);
+		}
+
+		if (out != null) {
+			out.close();
+		}
+		Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		out = new BufferedWriter(new OutputStreamWriter(
+				Channels.newOutputStream(channel), UTF_8));
+		written = count;
+		compacted = count;
+
+		logger.debug("Journal compacted to " + count + " record(s) in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+
+}
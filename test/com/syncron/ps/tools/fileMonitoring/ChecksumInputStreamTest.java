@@ -0,0 +1,70 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link ChecksumInputStream}.
+ *
+ */
+public class ChecksumInputStreamTest {
+
+	private static final byte[] DATA = "Item20131212_0001".getBytes();
+	private static final String DATA_MD5 = md5Of(DATA);
+
+	@Test
+	public void emptyStream() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(new byte[0]));
+		assertEquals(-1, in.read());
+		assertEquals(0, in.getCount());
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", in.getChecksum());
+	}
+
+	@Test
+	public void singleBytesAndArraysGiveTheSameDigest() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(DATA));
+		in.read();
+		in.read(new byte[5], 1, 4);
+		while (in.read(new byte[3]) >= 0) {
+			// read to the end
+		}
+		assertEquals(DATA.length, in.getCount());
+		assertEquals(DATA_MD5, in.getChecksum());
+	}
+
+	@Test
+	public void skippedBytesAreChecksummed() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(DATA));
+		assertEquals(10, in.skip(10));
+		while (in.read() >= 0) {
+			// read to the end
+		}
+		assertEquals(DATA.length, in.getCount());
+		assertEquals(DATA_MD5, in.getChecksum());
+	}
+
+	@Test
+	public void skipStopsAtTheEnd() throws IOException {
+		ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(DATA));
+		assertEquals(DATA.length, in.skip(1000));
+		assertEquals(DATA_MD5, in.getChecksum());
+	}
+
+	private static String md5Of(byte[] data) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : java.security.MessageDigest.getInstance("MD5").digest(data)) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
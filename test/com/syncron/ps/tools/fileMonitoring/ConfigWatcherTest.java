@@ -0,0 +1,81 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link ConfigWatcher}.
+ *
+ */
+public class ConfigWatcherTest {
+
+	private static final long INTERVAL = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Semaphore changes = new Semaphore(0);
+
+	private Path file;
+	private ConfigWatcher watcher;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.write(folder.getRoot().toPath().resolve("properties.xml"),
+				"<config/>".getBytes("UTF-8"));
+		watcher = new ConfigWatcher(file, INTERVAL, new Runnable() {
+			@Override
+			public void run() {
+				changes.release();
+			}
+		});
+		watcher.start();
+	}
+
+	@After
+	public void tearDown() {
+		watcher.stop();
+	}
+
+	@Test
+	public void currentVersionIsNotReported() throws InterruptedException {
+		assertFalse(changes.tryAcquire(5 * INTERVAL, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void changeIsReportedOnce() throws Exception {
+		Files.write(file, "<config><dir/></config>".getBytes("UTF-8"));
+
+		assertTrue(changes.tryAcquire(5000, TimeUnit.MILLISECONDS));
+		assertFalse(changes.tryAcquire(5 * INTERVAL, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void missingFileIsNotAChange() throws Exception {
+		byte[] content = Files.readAllBytes(file);
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+		Files.delete(file);
+		Thread.sleep(3 * INTERVAL);
+		Files.write(file, content);
+		Files.setLastModifiedTime(file,
+				java.nio.file.attribute.FileTime.fromMillis(lastModified));
+
+		assertFalse(changes.tryAcquire(5 * INTERVAL, TimeUnit.MILLISECONDS));
+		assertEquals(0, changes.availablePermits());
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of dispatching files to {@link Destination}s.
+ *
+ */
+public class DestinationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private Path file;
+	private MonitoredDirectory mapping;
+	private FileMonitor monitor;
+
+	private final RecordingSender archive = new RecordingSender();
+	private final RecordingSender partner = new RecordingSender();
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.getRoot().toPath();
+		file = Files.write(directory.resolve("Item20131212_0001.txt"), new byte[] { 'x' });
+		mapping = new MonitoredDirectory(directory.toString(), "/remote");
+		mapping.registerMask("^Item(.)+\\.txt$");
+		monitor = new FileMonitor(Collections.singletonMap(directory, mapping));
+		monitor.addDestination("archive", archive, 1);
+		monitor.addDestination("partner", partner, 1);
+	}
+
+	@After
+	public void tearDown() {
+		monitor.stop();
+	}
+
+	@Test
+	public void fileGoesToAllDestinationsOfItsDirectory() throws InterruptedException {
+		mapping.setDestinations(Arrays.asList("archive", "partner"));
+		monitor.dispatch(file);
+
+		assertEquals(file, archive.getReceived().poll(5, TimeUnit.SECONDS));
+		assertEquals(file, partner.getReceived().poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void fileGoesOnlyToItsDestinations() throws InterruptedException {
+		mapping.setDestinations(Arrays.asList("partner"));
+		monitor.dispatch(file);
+
+		assertEquals(file, partner.getReceived().poll(5, TimeUnit.SECONDS));
+		assertNull(archive.getReceived().poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void directoryWithoutDestinationsUsesTheFirstOne() throws InterruptedException {
+		monitor.dispatch(file);
+
+		assertEquals(file, archive.getReceived().poll(5, TimeUnit.SECONDS));
+		assertNull(partner.getReceived().poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void unknownDestinationIsSkipped() throws InterruptedException {
+		mapping.setDestinations(Arrays.asList("unknown", "partner"));
+		monitor.dispatch(file);
+
+		assertEquals(file, partner.getReceived().poll(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link EventCoalescer}.
+ *
+ */
+public class EventCoalescerTest {
+
+	private final EventCoalescer coalescer = new EventCoalescer(100);
+
+	private final Path a = Paths.get("in", "a.txt");
+	private final Path b = Paths.get("in", "b.txt");
+
+	@Test
+	public void eventsWithinWindowAreCollapsed() {
+		assertTrue(coalescer.add(a, 1000));
+		assertFalse(coalescer.add(a, 1050));
+		assertFalse(coalescer.add(a, 1099));
+		assertEquals(1, coalescer.size());
+
+		assertEquals(Collections.emptyList(), coalescer.poll(1099));
+		assertEquals(Arrays.asList(a), coalescer.poll(1100));
+		assertEquals(0, coalescer.size());
+	}
+
+	@Test
+	public void windowStartsAtFirstEvent() {
+		coalescer.add(a, 1000);
+		coalescer.add(a, 1090);
+		assertEquals("a later event doesn't extend the window",
+				Arrays.asList(a), coalescer.poll(1100));
+		assertTrue("an event after the release opens a new window",
+				coalescer.add(a, 1101));
+	}
+
+	@Test
+	public void filesAreReleasedInOrderOfFirstEvents() {
+		coalescer.add(b, 1000);
+		coalescer.add(a, 1020);
+		coalescer.add(b, 1030);
+
+		assertEquals(Arrays.asList(b), coalescer.poll(1110));
+		assertEquals(Arrays.asList(a), coalescer.poll(1120));
+	}
+
+	@Test
+	public void delayIsTimeUntilOldestFileIsDue() {
+		assertEquals(-1, coalescer.getDelay(1000));
+		coalescer.add(a, 1000);
+		coalescer.add(b, 1050);
+		assertEquals(60, coalescer.getDelay(1040));
+		assertEquals(0, coalescer.getDelay(1200));
+	}
+
+	@Test
+	public void pollAllReleasesEverything() {
+		coalescer.add(a, 1000);
+		coalescer.add(b, 1010);
+		assertEquals(Arrays.asList(a, b), coalescer.pollAll());
+		assertEquals(0, coalescer.size());
+		assertEquals(-1, coalescer.getDelay(1000));
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link FTPFileSender} against a {@link LocalFtpServer}.
+ *
+ */
+public class FTPFileSenderTest {
+
+	private static final int BROKEN_AFTER = 100 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Long> received = new ConcurrentHashMap<String, Long>();
+
+	private final Map<String, String> directories = new ConcurrentHashMap<String, String>();
+
+	private LocalFtpServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new LocalFtpServer(0, new LocalFtpServer.Listener() {
+			@Override
+			public void received(String directory, String name, long size) {
+				directories.put(name, directory);
+				received.put(name, size);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.stop();
+	}
+
+	/**
+	 * The local stream of a file fails after 100 KB, while the server has
+	 * already accepted the {@code STOR}. The rest of its batch must fail
+	 * as retryable, and the next transfer over the pool (limited to one
+	 * connection) must be delivered.
+	 */
+	@Test
+	public void uploadFailingHalfwayDoesNotBreakNextTransfers() throws Exception {
+		final Path broken = write("broken.txt", 1024 * 1024);
+		Path second = write("second.txt", 200 * 1024);
+		Path third = write("third.txt", 200 * 1024);
+
+		FTPFileSender sender = new FTPFileSender("user", "password", "localhost",
+				server.getPort()) {
+			@Override
+			protected InputStream open(Path path, Compression compression)
+					throws IOException {
+				InputStream in = super.open(path, compression);
+				return path.equals(broken) ? new BrokenInputStream(in) : in;
+			}
+		};
+		sender.getPool().setMaxConnections(1);
+		sender.setVerify(true);
+
+		try {
+			sender.transferFiles(Arrays.asList(broken, second), "/remote",
+					Compression.NONE);
+			fail("a batch with a broken file fails");
+		} catch (BatchTransferException e) {
+			Map<Path, TransferFailedException> failed = e.getFailures();
+			assertTrue("the broken file fails as retryable",
+					failed.containsKey(broken) && failed.get(broken).retry());
+			assertTrue("the rest of the batch fails as retryable",
+					failed.containsKey(second) && failed.get(second).retry());
+		}
+
+		sender.transferFile(third, "/remote");
+		assertEquals("the server received the whole next file",
+				Long.valueOf(200 * 1024), awaitReceived("third.txt"));
+
+		sender.transferFiles(Arrays.asList(second, third), "/remote",
+				Compression.NONE);
+		assertFalse("the broken file is not renamed into place",
+				received.containsKey("broken.txt"));
+
+		sender.close();
+	}
+
+	/**
+	 * Transfers to relative directories over one pooled connection must
+	 * land under the login directory, whichever directory the previous
+	 * transfer left the connection in.
+	 */
+	@Test
+	public void reusedConnectionResolvesRelativeDirectoriesAgainstHome() throws Exception {
+		server.setHome("/home/user");
+		FTPFileSender sender = new FTPFileSender("user", "password", "localhost",
+				server.getPort());
+		sender.getPool().setMaxConnections(1);
+
+		sender.transferFiles(Arrays.asList(write("first.txt", 10)), "in/data",
+				Compression.NONE);
+		sender.transferFiles(Arrays.asList(write("second.txt", 10)), "in/other",
+				Compression.NONE);
+		sender.transferFiles(Arrays.asList(write("third.txt", 10)), "in/data",
+				Compression.NONE);
+
+		awaitReceived("third.txt");
+		assertEquals("/home/user/in/data", directories.get("first.txt"));
+		assertEquals("/home/user/in/other", directories.get("second.txt"));
+		assertEquals("/home/user/in/data", directories.get("third.txt"));
+
+		sender.close();
+	}
+
+	/**
+	 * The server reports a file after replying to {@code RNTO}, so the
+	 * report may come just after the transfer returns.
+	 */
+	private Long awaitReceived(String name) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (!received.containsKey(name) && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		return received.get(name);
+	}
+
+	private Path write(String name, int size) throws IOException {
+		byte[] data = new byte[size];
+		Arrays.fill(data, (byte) 'x');
+		return Files.write(folder.getRoot().toPath().resolve(name), data);
+	}
+
+	/**
+	 *
+	 * Fails like a broken disk after {@link #BROKEN_AFTER} bytes.
+	 *
+	 */
+	private static class BrokenInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		BrokenInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (count >= BROKEN_AFTER) {
+				throw new IOException("Input/output error");
+			}
+			int n = in.read(b, off, (int) Math.min(len, BROKEN_AFTER - count));
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+}
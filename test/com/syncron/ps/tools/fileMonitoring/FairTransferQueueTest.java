@@ -0,0 +1,177 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link FairTransferQueue}.
+ *
+ */
+public class FairTransferQueueTest {
+
+	private final FairTransferQueue queue = new FairTransferQueue(4);
+
+	/**
+	 * Names of queued transfers.
+	 */
+	private final Map<Runnable, String> names = new HashMap<Runnable, String>();
+
+	private final MonitoredDirectory a = new MonitoredDirectory("a", "/a");
+	private final MonitoredDirectory b = new MonitoredDirectory("b", "/b");
+
+	@Test
+	public void laneHandsOutFilesInOrder() {
+		offer(a, 300, "a1");
+		offer(a, 100, "a2");
+		offer(a, 200, "a3");
+
+		assertEquals("a1", runNext());
+		assertEquals("a2", runNext());
+		assertEquals("a3", runNext());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void smallFilesFirst() {
+		a.setSmallFirst(true);
+		offer(a, 300, "a1");
+		offer(a, 100, "a2");
+		offer(a, 200, "a3");
+		offer(a, 100, "a4");
+
+		assertEquals("a2", runNext());
+		assertEquals("a4", runNext());
+		assertEquals("a3", runNext());
+		assertEquals("a1", runNext());
+	}
+
+	@Test
+	public void higherPriorityIsServedFirst() {
+		b.setPriority(1);
+		offer(a, 0, "a1");
+		offer(a, 0, "a2");
+		offer(b, 0, "b1");
+		offer(b, 0, "b2");
+
+		assertEquals("b1", runNext());
+		assertEquals("b2", runNext());
+		assertEquals("a1", runNext());
+		assertEquals("a2", runNext());
+	}
+
+	@Test
+	public void lanesShareWorkersByWeight() {
+		a.setWeight(3);
+		for (int i = 0; i < 100; i++) {
+			offer(a, 64 * 1024, "a");
+			offer(b, 64 * 1024, "b");
+		}
+
+		int fromA = 0;
+		for (int i = 0; i < 40; i++) {
+			if ("a".equals(runNext())) {
+				fromA++;
+			}
+		}
+		assertTrue("a got " + fromA + " of 40", fromA >= 29 && fromA <= 31);
+	}
+
+	@Test
+	public void largeFilesCostMore() {
+		// b sends files 15 times as large, so a gets the most turns
+		for (int i = 0; i < 100; i++) {
+			offer(a, 0, "a");
+			offer(b, 14 * FairTransferQueue.FILE_COST, "b");
+		}
+
+		int fromB = 0;
+		for (int i = 0; i < 32; i++) {
+			if ("b".equals(runNext())) {
+				fromB++;
+			}
+		}
+		assertTrue("b got " + fromB + " of 32", fromB >= 1 && fromB <= 3);
+	}
+
+	@Test
+	public void laneIsLimitedToItsShareOfWorkers() {
+		a.setMaxShare(50);
+		for (int i = 0; i < 4; i++) {
+			offer(a, 0, "a" + i);
+		}
+
+		Runnable first = queue.poll();
+		Runnable second = queue.poll();
+		assertEquals("a0", names.get(first));
+		assertEquals("a1", names.get(second));
+		assertNull("2 of 4 workers are the maximum", queue.poll());
+
+		offer(b, 0, "b1");
+		assertEquals("other lanes are served", "b1", runNext());
+
+		first.run();
+		assertEquals("a2", runNext());
+		second.run();
+	}
+
+	@Test
+	public void drainToTakesAllLanes() {
+		offer(a, 0, "a1");
+		offer(b, 0, "b1");
+		offer(null, 0, "default");
+		assertEquals(3, queue.size());
+
+		List<Runnable> drained = new ArrayList<Runnable>();
+		assertEquals(3, queue.drainTo(drained));
+		assertEquals(0, queue.size());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void plainTasksGoToTheDefaultLane() {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		queue.offer(task);
+		Runnable taken = queue.poll();
+		assertTrue(taken instanceof FairTransferQueue.Transfer);
+		taken.run();
+		assertEquals(0, queue.size());
+		assertSame(null, queue.peek());
+	}
+
+	private void offer(MonitoredDirectory directory, long size, String name) {
+		FairTransferQueue.Transfer transfer = new FairTransferQueue.Transfer(
+				new Runnable() {
+					@Override
+					public void run() {
+					}
+				}, directory, size);
+		names.put(transfer, name);
+		queue.offer(transfer);
+	}
+
+	/**
+	 * Takes the next transfer and runs it, as a worker would.
+	 * @return	The name of the transfer.
+	 */
+	private String runNext() {
+		Runnable transfer = queue.poll();
+		assertTrue("a transfer is queued", transfer != null);
+		transfer.run();
+		return names.get(transfer);
+	}
+
+}
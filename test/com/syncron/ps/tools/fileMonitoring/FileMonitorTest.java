@@ -0,0 +1,75 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link FileMonitor}.
+ *
+ */
+public class FileMonitorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * An interrupted monitor thread must still drain its destinations
+	 * rather than leave their workers running.
+	 */
+	@Test
+	public void interruptedMonitorDrainsDestinations() throws Exception {
+		Path directory = folder.newFolder("in").toPath();
+		MonitoredDirectory mapping = new MonitoredDirectory(directory.toString(), "/remote");
+		FileMonitor monitor = new FileMonitor(Collections.singletonMap(directory, mapping));
+		Destination destination = monitor.addDestination("remote", new RecordingSender(), 1);
+
+		Thread thread = new Thread(monitor);
+		thread.start();
+		Thread.sleep(200);
+		thread.interrupt();
+		thread.join(5000);
+
+		try {
+			assertFalse("the monitor stopped", thread.isAlive());
+			assertTrue("the workers have been shut down",
+					destination.getExecutor().awaitTermination(0));
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	/**
+	 * A journal that cannot be read must fail the start rather than
+	 * leave a monitor without a thread.
+	 */
+	@Test
+	public void unreadableJournalFailsTheStart() throws Exception {
+		Path directory = folder.newFolder("in").toPath();
+		Path state = folder.newFolder("state").toPath();
+		// A directory in place of the journal file
+		Files.createDirectory(state.resolve("transfers.journal"));
+		MonitoredDirectory mapping = new MonitoredDirectory(directory.toString(), "/remote");
+		FileMonitor monitor = new FileMonitor(Collections.singletonMap(directory, mapping));
+		monitor.setJournal(new TransferJournal(state));
+		try {
+			monitor.processEvents();
+			fail("the journal cannot be read");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			monitor.stop();
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link FilterRules}.
+ *
+ */
+public class FilterRulesTest {
+
+	private final FilterRules rules = new FilterRules();
+
+	@Test
+	public void noRuleAcceptsNothing() {
+		assertFalse(rules.accepts("Items.txt"));
+	}
+
+	@Test
+	public void firstMatchingRuleDecides() {
+		rules.exclude("^Item.*\\.tmp\\.txt$");
+		rules.include("^Item.*\\.txt$");
+		rules.exclude("^Item_draft\\.txt$");
+
+		assertFalse(rules.accepts("Item1.tmp.txt"));
+		assertTrue(rules.accepts("Item1.txt"));
+		assertTrue("a later exclude doesn't override an earlier include",
+				rules.accepts("Item_draft.txt"));
+		assertFalse("a name matching no rule is skipped", rules.accepts("Orders.csv"));
+	}
+
+	@Test
+	public void consecutiveRulesOfOneKindMatchTogether() {
+		rules.include("^a.*$");
+		rules.include("^b.*$");
+		rules.exclude("^.*\\.tmp$");
+		rules.include("^c.*$");
+
+		assertTrue(rules.accepts("a.tmp"));
+		assertTrue(rules.accepts("b.tmp"));
+		assertFalse(rules.accepts("c.tmp"));
+		assertTrue(rules.accepts("c.txt"));
+		assertEquals(Arrays.asList("^a.*$", "^b.*$", "^c.*$"), rules.getIncludes());
+	}
+
+	@Test
+	public void directoryExcludesMatchRelativePaths() {
+		rules.excludeDirectory("archive");
+		rules.excludeDirectory("(.+/)?tmp");
+
+		assertTrue(rules.excludesDirectory("archive"));
+		assertFalse(rules.excludesDirectory("archive2"));
+		assertTrue(rules.excludesDirectory("tmp"));
+		assertTrue(rules.excludesDirectory("2013/12/tmp"));
+		assertFalse(rules.excludesDirectory("2013/tmp/12"));
+	}
+
+}
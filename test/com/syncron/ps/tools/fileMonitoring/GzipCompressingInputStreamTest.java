@@ -0,0 +1,94 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link GzipCompressingInputStream} and {@link Compression}.
+ *
+ */
+public class GzipCompressingInputStreamTest {
+
+	@Test
+	public void emptyInputIsValidGzip() throws IOException {
+		assertArrayEquals(new byte[0], roundTrip(new byte[0], 1));
+	}
+
+	@Test
+	public void compressibleInputRoundTrips() throws IOException {
+		byte[] data = new byte[1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ("Item20131212_0001;".charAt(i % 18));
+		}
+		byte[] compressed = read(new GzipCompressingInputStream(
+				new ByteArrayInputStream(data), Deflater.DEFAULT_COMPRESSION), 8192);
+		assertTrue(compressed.length < data.length / 10);
+		assertArrayEquals(data, read(new GZIPInputStream(
+				new ByteArrayInputStream(compressed)), 8192));
+	}
+
+	@Test
+	public void randomInputRoundTripsWithAnyReadSize() throws IOException {
+		byte[] data = new byte[300 * 1024 + 7];
+		new Random(42).nextBytes(data);
+		for (int chunk : new int[] { 1, 7, 4096, 200 * 1024 }) {
+			assertArrayEquals("reads of " + chunk, data, roundTrip(data, chunk));
+		}
+	}
+
+	@Test
+	public void compressionNamesRemoteFiles() {
+		assertEquals("a.txt", Compression.NONE.getRemoteName("a.txt"));
+		assertEquals("a.txt.gz", Compression.forName("gzip", null, -1).getRemoteName("a.txt"));
+		assertEquals("a.txt.z", Compression.forName("GZIP", ".z", 9).getRemoteName("a.txt"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownCodecIsRejected() {
+		Compression.forName("bzip2", null, -1);
+	}
+
+	private static byte[] roundTrip(byte[] data, int chunk) throws IOException {
+		byte[] compressed = read(new GzipCompressingInputStream(
+				new ByteArrayInputStream(data), Deflater.BEST_SPEED), chunk);
+		return read(new GZIPInputStream(new ByteArrayInputStream(compressed)), 8192);
+	}
+
+	/**
+	 * Reads the whole stream, single bytes with {@code chunk} 1.
+	 */
+	private static byte[] read(InputStream in, int chunk) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			if (chunk == 1) {
+				int b;
+				while ((b = in.read()) >= 0) {
+					out.write(b);
+				}
+			}
+			else {
+				byte[] buffer = new byte[chunk];
+				int n;
+				while ((n = in.read(buffer, 0, chunk)) >= 0) {
+					out.write(buffer, 0, n);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+}
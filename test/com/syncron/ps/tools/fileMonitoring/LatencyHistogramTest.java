@@ -0,0 +1,58 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link LatencyHistogram}.
+ *
+ */
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void emptyHistogram() {
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void valuesFallInBucketsUpToTheirBounds() {
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(2);
+		histogram.record(3);
+		histogram.record(300000);
+		histogram.record(300001);
+
+		long[] buckets = histogram.getBuckets();
+		assertEquals(LatencyHistogram.BOUNDS.length + 1, buckets.length);
+		assertEquals(2, buckets[0]);
+		assertEquals(1, buckets[1]);
+		assertEquals(1, buckets[2]);
+		assertEquals(1, buckets[LatencyHistogram.BOUNDS.length - 1]);
+		assertEquals(1, buckets[LatencyHistogram.BOUNDS.length]);
+		assertEquals(6, histogram.getCount());
+		assertEquals(600007, histogram.getSum());
+	}
+
+	@Test
+	public void percentilesAreUpperBoundsOfBuckets() {
+		for (int i = 0; i < 98; i++) {
+			histogram.record(7);
+		}
+		histogram.record(400);
+		histogram.record(1000000);
+
+		assertEquals(10, histogram.getPercentile(50));
+		assertEquals(10, histogram.getPercentile(98));
+		assertEquals(500, histogram.getPercentile(99));
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+		assertEquals((98 * 7 + 400 + 1000000) / 100.0, histogram.getMean(), 1e-9);
+	}
+
+}
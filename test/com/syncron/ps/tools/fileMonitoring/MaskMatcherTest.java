@@ -0,0 +1,88 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link MaskMatcher}. Every optimized form of a mask must
+ * match exactly the names {@link String#matches(String)} does.
+ *
+ */
+public class MaskMatcherTest {
+
+	private static final String[] NAMES = {
+		"", "Items.txt", "Itemstxt", "Items.txt.bak", "xItems.txt",
+		"Item20131212_0001.txt", "Item.txt", "Item1.txt", "Item\n.txt",
+		"Orders.csv", "Orders_1.CSV", "orders.csv", "a.b", "aa", "abab",
+		"report-2013.xml", "report-.xml", "$pecial.txt", "a|b",
+	};
+
+	private static final String[] MASKS = {
+		// literals
+		"^Items\\.txt$", "Items\\.txt", "\\$pecial\\.txt", "a\\|b",
+		// prefix, wildcard, suffix
+		"^Item(.)+\\.txt$", "^Item(.)*\\.txt$", "Item.+\\.txt", "Item.*\\.txt",
+		"^.*\\.csv$", "^report-.*$",
+		// general expressions
+		"^Orders_[0-9]+\\.(?i)csv$", "report-\\d{4}\\.xml", "[ab]+",
+		"^Item(.)+\\.txt$|^Orders.*",
+		// back-references and named groups
+		"(a)b\\1b", "(?<x>a)\\k<x>",
+	};
+
+	@Test
+	public void eachMaskMatchesLikeStringMatches() {
+		for (String mask : MASKS) {
+			MaskMatcher matcher = new MaskMatcher();
+			matcher.add(mask);
+			for (String name : NAMES) {
+				assertEquals("mask " + mask + ", name " + name,
+						name.matches(mask), matcher.matches(name));
+			}
+		}
+	}
+
+	@Test
+	public void allMasksMatchLikeAnyStringMatches() {
+		MaskMatcher matcher = new MaskMatcher();
+		for (String mask : MASKS) {
+			matcher.add(mask);
+		}
+		for (String name : NAMES) {
+			boolean expected = false;
+			for (String mask : MASKS) {
+				expected |= name.matches(mask);
+			}
+			assertEquals("name " + name, expected, matcher.matches(name));
+		}
+	}
+
+	@Test
+	public void noMaskMatchesNothing() {
+		MaskMatcher matcher = new MaskMatcher();
+		assertFalse(matcher.matches("Items.txt"));
+		assertFalse(matcher.matches(""));
+	}
+
+	@Test
+	public void masksAreKeptInOrder() {
+		MaskMatcher matcher = new MaskMatcher();
+		matcher.add("^b$");
+		matcher.add("^a$");
+		assertEquals(Arrays.asList("^b$", "^a$"), matcher.getMasks());
+		assertTrue(matcher.matches("a"));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void invalidMaskIsRejected() {
+		new MaskMatcher().add("Item(.txt");
+	}
+
+}
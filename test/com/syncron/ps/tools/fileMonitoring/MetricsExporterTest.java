@@ -0,0 +1,69 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link MetricsExporter#format()}.
+ *
+ */
+public class MetricsExporterTest {
+
+	private FileMonitor monitor;
+
+	@Before
+	public void setUp() throws IOException {
+		monitor = new FileMonitor(new HashMap<Path, MonitoredDirectory>());
+	}
+
+	@After
+	public void tearDown() {
+		monitor.stop();
+	}
+
+	@Test
+	public void countersAreLabelledByDestination() {
+		Destination destination = monitor.addDestination("archive \"2\"",
+				new RecordingSender(), 1);
+		destination.getMetrics().delivered(100, 20);
+		destination.getMetrics().delivered(50, 3000);
+
+		String text = new MetricsExporter(monitor).format();
+
+		assertTrue(text.contains("# TYPE filemonitor_files_delivered_total counter\n"));
+		assertTrue(text.contains(
+				"filemonitor_files_delivered_total{destination=\"archive \\\"2\\\"\"} 2\n"));
+		assertTrue(text.contains(
+				"filemonitor_bytes_sent_total{destination=\"archive \\\"2\\\"\"} 150\n"));
+	}
+
+	@Test
+	public void histogramsAreCumulativeInSeconds() {
+		Destination destination = monitor.addDestination("remote", new RecordingSender(), 1);
+		destination.getMetrics().delivered(100, 20);
+		destination.getMetrics().delivered(50, 3000);
+
+		String text = new MetricsExporter(monitor).format();
+
+		assertTrue(text.contains("# TYPE filemonitor_delivery_seconds histogram\n"));
+		assertTrue(text.contains(
+				"filemonitor_delivery_seconds_bucket{destination=\"remote\",le=\"0.010\"} 0\n"));
+		assertTrue(text.contains(
+				"filemonitor_delivery_seconds_bucket{destination=\"remote\",le=\"0.025\"} 1\n"));
+		assertTrue(text.contains(
+				"filemonitor_delivery_seconds_bucket{destination=\"remote\",le=\"5.000\"} 2\n"));
+		assertTrue(text.contains(
+				"filemonitor_delivery_seconds_bucket{destination=\"remote\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("filemonitor_delivery_seconds_sum{destination=\"remote\"} 3.020\n"));
+		assertTrue(text.contains("filemonitor_delivery_seconds_count{destination=\"remote\"} 2\n"));
+	}
+
+}
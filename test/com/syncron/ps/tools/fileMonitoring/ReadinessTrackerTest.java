@@ -0,0 +1,113 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link ReadinessTracker}.
+ *
+ */
+public class ReadinessTrackerTest {
+
+	private static final long STABLE_TIME = 300;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final BlockingQueue<Path> submitted = new LinkedBlockingQueue<Path>();
+
+	private FileMonitor monitor;
+	private TransferHistory history;
+	private ReadinessTracker tracker;
+	private MonitoredDirectory directory;
+
+	@Before
+	public void setUp() throws IOException {
+		monitor = new FileMonitor(new HashMap<Path, MonitoredDirectory>(),
+				new RecordingSender()) {
+			@Override
+			void submit(Path file, MonitoredDirectory directory) {
+				submitted.add(file);
+			}
+		};
+		history = new TransferHistory();
+		tracker = new ReadinessTracker(monitor, history);
+		directory = new MonitoredDirectory(folder.getRoot().toString(), "/remote");
+		directory.setReadiness(MonitoredDirectory.Readiness.STABLE);
+		directory.setStableTime(STABLE_TIME);
+	}
+
+	@After
+	public void tearDown() {
+		tracker.shutdown();
+		monitor.stop();
+	}
+
+	@Test
+	public void fileBeingWrittenIsHeldBack() throws Exception {
+		Path file = folder.newFile("a.txt").toPath();
+		history.markPending(file);
+		tracker.track(file, directory);
+
+		long end = System.currentTimeMillis() + 3 * STABLE_TIME;
+		while (System.currentTimeMillis() < end) {
+			Files.write(file, new byte[] { 'x' }, StandardOpenOption.APPEND);
+			tracker.modified(file);
+			assertNull("submitted while written", submitted.poll(50, TimeUnit.MILLISECONDS));
+		}
+
+		assertEquals(file, submitted.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, tracker.size());
+	}
+
+	@Test
+	public void fileChangedWithoutEventIsHeldBack() throws Exception {
+		Path file = folder.newFile("a.txt").toPath();
+		history.markPending(file);
+		tracker.track(file, directory);
+
+		// Let the first check record the state, then change the size only
+		Thread.sleep(STABLE_TIME);
+		Files.write(file, new byte[] { 'x' }, StandardOpenOption.APPEND);
+		long changed = System.currentTimeMillis();
+
+		assertEquals(file, submitted.poll(5, TimeUnit.SECONDS));
+		assertTrue("submitted before the change was stable",
+				System.currentTimeMillis() - changed >= STABLE_TIME);
+	}
+
+	@Test
+	public void removedFileIsDropped() throws Exception {
+		Path file = folder.newFile("a.txt").toPath();
+		history.markPending(file);
+		tracker.track(file, directory);
+		Files.delete(file);
+
+		long end = System.currentTimeMillis() + 5000;
+		while (tracker.size() > 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, tracker.size());
+		assertFalse(history.isPending(file));
+		assertTrue(submitted.isEmpty());
+	}
+
+}
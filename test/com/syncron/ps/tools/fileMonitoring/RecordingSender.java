@@ -0,0 +1,40 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ *
+ * A file sender for tests that only records the files it's given.
+ *
+ */
+public class RecordingSender implements FileSender {
+
+	private final BlockingQueue<Path> received = new LinkedBlockingQueue<Path>();
+
+	@Override
+	public void transferFile(Path path, String remoteDir) {
+		received.add(path);
+	}
+
+	@Override
+	public void transferFile(Path path, String remoteDir, Compression compression) {
+		received.add(path);
+	}
+
+	@Override
+	public void transferFiles(List<Path> paths, String remoteDir,
+			Compression compression) {
+		received.addAll(paths);
+	}
+
+	/**
+	 * @return	The transferred files in the order of transfers.
+	 */
+	public BlockingQueue<Path> getReceived() {
+		return received;
+	}
+
+}
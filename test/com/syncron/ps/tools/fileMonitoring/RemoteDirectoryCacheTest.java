@@ -0,0 +1,77 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link RemoteDirectoryCache}.
+ *
+ */
+public class RemoteDirectoryCacheTest {
+
+	private final RemoteDirectoryCache cache = new RemoteDirectoryCache("/");
+
+	@Test
+	public void normalizeRemovesDuplicateAndTrailingSlashes() {
+		assertEquals("/remote/sub", RemoteDirectoryCache.normalize("/remote//sub/"));
+		assertEquals("/", RemoteDirectoryCache.normalize("/"));
+		assertEquals("/", RemoteDirectoryCache.normalize("//"));
+		assertEquals("in/data", RemoteDirectoryCache.normalize("in/data"));
+	}
+
+	@Test
+	public void currentDirectoryExists() {
+		cache.setCurrent("/remote/sub/");
+		assertTrue(cache.isCurrent("/remote//sub"));
+		assertFalse(cache.isCurrent("/remote"));
+		assertTrue(cache.isKnown("/remote/sub"));
+		assertTrue("parents exist too", cache.isKnown("/remote"));
+	}
+
+	@Test
+	public void missingDirectoriesOutermostFirst() {
+		assertEquals(Arrays.asList("/a", "/a/b", "/a/b/c"), cache.getMissing("/a/b/c"));
+		cache.add("/a");
+		assertEquals(Arrays.asList("/a/b", "/a/b/c"), cache.getMissing("/a/b/c/"));
+		cache.add("/a/b/c");
+		assertEquals(Collections.emptyList(), cache.getMissing("/a/b/c"));
+	}
+
+	@Test
+	public void invalidateForgetsSubDirectories() {
+		cache.add("/a/b/c");
+		cache.add("/ab");
+		cache.setCurrent("/a/b/c");
+
+		cache.invalidate("/a/b");
+
+		assertFalse(cache.isKnown("/a/b"));
+		assertFalse(cache.isKnown("/a/b/c"));
+		assertTrue(cache.isKnown("/a"));
+		assertTrue("a sibling with the same prefix stays", cache.isKnown("/ab"));
+		assertFalse(cache.isCurrent("/a/b/c"));
+	}
+
+	@Test
+	public void relativeDirectoriesResolveAgainstHome() {
+		RemoteDirectoryCache home = new RemoteDirectoryCache("/home/user/");
+		assertEquals("/home/user/in/data", home.resolve("in//data/"));
+		assertEquals("/out", home.resolve("/out"));
+		assertEquals("/home/user", home.resolve("."));
+		assertTrue("the home exists", home.isKnown("/home/user"));
+		assertEquals(Arrays.asList("/home/user/in", "/home/user/in/data"),
+				home.getMissing("in/data"));
+
+		home.setCurrent("in/data");
+		assertTrue(home.isCurrent("/home/user/in/data"));
+		assertTrue(home.isKnown("/home/user/in"));
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of a file dispatched to a destination whose workers no longer
+ * accept transfers, as when the destination is removed by a reload
+ * while the file is being dispatched.
+ *
+ */
+public class RemovedDestinationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rejectedFileIsFailedAndDispatchedAgainLater() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		Path file = Files.write(directory.resolve("Item20131212_0001.txt"),
+				new byte[] { 'x' });
+		MonitoredDirectory mapping = new MonitoredDirectory(directory.toString(), "/remote");
+		mapping.registerMask("^Item(.)+\\.txt$");
+		FileMonitor monitor = new FileMonitor(Collections.singletonMap(directory, mapping));
+		try {
+			// The workers are shut down as by removeDestination()
+			Destination removed = monitor.addDestination("remote", new RecordingSender(), 1);
+			removed.getExecutor().shutdown();
+			monitor.dispatch(file);
+			assertEquals("the rejected transfer is counted as failed",
+					1, removed.getMetrics().getFilesFailed());
+			assertEquals("the file doesn't stay pending", 0, monitor.getPendingCount());
+
+			RecordingSender sender = new RecordingSender();
+			monitor.addDestination("remote", sender, 1);
+			monitor.dispatch(file);
+			assertEquals("the file is transferred to the destination added back",
+					file, sender.getReceived().poll(5, TimeUnit.SECONDS));
+		} finally {
+			monitor.stop();
+		}
+	}
+
+}
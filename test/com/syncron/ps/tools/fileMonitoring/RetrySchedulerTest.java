@@ -0,0 +1,119 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link RetryScheduler}.
+ *
+ */
+public class RetrySchedulerTest {
+
+	/**
+	 * Times (from {@link System#nanoTime()}) files are resubmitted at.
+	 */
+	private final BlockingQueue<Long> resubmitted = new LinkedBlockingQueue<Long>();
+
+	private FileMonitor monitor;
+	private RetryScheduler scheduler;
+
+	private final Path file = Paths.get("Item20131212_0001.txt");
+
+	@Before
+	public void setUp() throws IOException {
+		monitor = new FileMonitor(new HashMap<Path, MonitoredDirectory>()) {
+			@Override
+			void resubmit(Path file, Destination destination) {
+				resubmitted.add(System.nanoTime());
+			}
+		};
+		Destination destination = monitor.addDestination("test", new RecordingSender(), 1);
+		scheduler = new RetryScheduler(monitor, destination);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.stop();
+		monitor.stop();
+	}
+
+	@Test
+	public void delayDoublesUpToMaximum() throws InterruptedException {
+		scheduler.setInitialDelay(100);
+		scheduler.setMaxDelay(400);
+		scheduler.start();
+
+		// Jitter takes up to a half of the delay
+		long[][] bounds = { { 50, 100 }, { 100, 200 }, { 200, 400 }, { 200, 400 } };
+		for (long[] bound : bounds) {
+			long start = System.nanoTime();
+			assertTrue(scheduler.schedule(file));
+			Long due = resubmitted.poll(5, TimeUnit.SECONDS);
+			assertTrue("the file is resubmitted", due != null);
+			long delay = TimeUnit.NANOSECONDS.toMillis(due - start);
+			assertTrue("delay " + delay + " below " + bound[0], delay >= bound[0] - 5);
+			assertTrue("delay " + delay + " above " + bound[1], delay <= bound[1] + 200);
+		}
+	}
+
+	@Test
+	public void maxAttemptsCountsTheFirstTransfer() {
+		// Retries are never due during the test
+		scheduler.setInitialDelay(3600000);
+		scheduler.setMaxDelay(3600000);
+
+		scheduler.setMaxAttempts(1);
+		assertFalse("1 gives up on the first failure", scheduler.schedule(file));
+		assertEquals(0, scheduler.size());
+
+		scheduler.setMaxAttempts(3);
+		assertTrue(scheduler.schedule(file));
+		assertTrue(scheduler.schedule(file));
+		assertFalse("3 gives up on the 3rd failure", scheduler.schedule(file));
+		assertEquals(2, scheduler.size());
+
+		assertTrue("a given up file starts counting again", scheduler.schedule(file));
+	}
+
+	@Test
+	public void resetForgetsFailedAttempts() {
+		scheduler.setInitialDelay(3600000);
+		scheduler.setMaxDelay(3600000);
+		scheduler.setMaxAttempts(2);
+
+		assertTrue(scheduler.schedule(file));
+		scheduler.reset(file);
+		assertTrue(scheduler.schedule(file));
+		assertFalse(scheduler.schedule(file));
+	}
+
+	@Test
+	public void drainRemovesWaitingFiles() {
+		scheduler.setInitialDelay(3600000);
+		scheduler.setMaxDelay(3600000);
+		scheduler.setMaxAttempts(2);
+		Path other = Paths.get("Item20131212_0002.txt");
+
+		scheduler.schedule(file);
+		scheduler.schedule(other);
+
+		assertEquals(2, scheduler.drain().size());
+		assertEquals(0, scheduler.size());
+		assertTrue("drained files start counting again", scheduler.schedule(file));
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ *
+ * Tests of {@link SFTPFileSender}.
+ *
+ */
+public class SFTPFileSenderTest {
+
+	private static final String HOME = "/home/user";
+
+	@Test
+	public void reusedConnectionResolvesRelativeDirectoriesAgainstHome() throws Exception {
+		FakeChannel channel = new FakeChannel();
+		RemoteDirectoryCache directories = new RemoteDirectoryCache(channel.pwd());
+
+		// Transfers over one connection, which stays in the last directory
+		SFTPFileSender.changeDirectory(channel, directories, "in/data");
+		assertEquals(HOME + "/in/data", channel.pwd());
+		SFTPFileSender.changeDirectory(channel, directories, "in/other");
+		assertEquals(HOME + "/in/other", channel.pwd());
+		SFTPFileSender.changeDirectory(channel, directories, "in/data");
+		assertEquals(HOME + "/in/data", channel.pwd());
+
+		// A failed upload forgets the current directory
+		directories.invalidate("in/data");
+		SFTPFileSender.changeDirectory(channel, directories, "in/data");
+		assertEquals(HOME + "/in/data", channel.pwd());
+
+		assertFalse(channel.directories.contains(HOME + "/in/data/in"));
+		assertFalse(channel.directories.contains(HOME + "/in/other/in"));
+		assertTrue(channel.directories.contains(HOME + "/in/other"));
+	}
+
+	/**
+	 * An SFTP channel with a directory tree in memory, resolving relative
+	 * paths against its current directory like a server does.
+	 */
+	private static class FakeChannel extends ChannelSftp {
+
+		private final Set<String> directories = new HashSet<String>();
+		private String cwd = HOME;
+
+		FakeChannel() {
+			directories.add("/");
+			directories.add("/home");
+			directories.add(HOME);
+		}
+
+		private String absolute(String path) {
+			return RemoteDirectoryCache.normalize(path.startsWith("/") ? path : cwd + "/" + path);
+		}
+
+		@Override
+		public void cd(String path) throws SftpException {
+			String directory = absolute(path);
+			if (!directories.contains(directory)) {
+				throw new SftpException(SSH_FX_NO_SUCH_FILE, directory);
+			}
+			cwd = directory;
+		}
+
+		@Override
+		public void mkdir(String path) throws SftpException {
+			String directory = absolute(path);
+			if (!directories.contains(directory.substring(0, Math.max(1, directory.lastIndexOf('/'))))) {
+				throw new SftpException(SSH_FX_NO_SUCH_FILE, directory);
+			}
+			if (!directories.add(directory)) {
+				throw new SftpException(SSH_FX_FAILURE, directory);
+			}
+		}
+
+		@Override
+		public SftpATTRS stat(String path) throws SftpException {
+			if (!directories.contains(absolute(path))) {
+				throw new SftpException(SSH_FX_NO_SUCH_FILE, path);
+			}
+			return directoryAttributes();
+		}
+
+		@Override
+		public String pwd() {
+			return cwd;
+		}
+
+		private static SftpATTRS directoryAttributes() {
+			try {
+				Constructor<SftpATTRS> constructor = SftpATTRS.class.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				SftpATTRS attrs = constructor.newInstance();
+				Field flags = SftpATTRS.class.getDeclaredField("flags");
+				flags.setAccessible(true);
+				flags.setInt(attrs, SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS);
+				Field permissions = SftpATTRS.class.getDeclaredField("permissions");
+				permissions.setAccessible(true);
+				permissions.setInt(attrs, 0x4000 | 0755);
+				return attrs;
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
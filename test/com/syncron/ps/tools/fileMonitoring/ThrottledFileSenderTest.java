@@ -0,0 +1,170 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link ThrottledFileSender}.
+ *
+ */
+public class ThrottledFileSenderTest {
+
+	private static final int RATE = 100 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A file three times the byte rate starts being read at once and is
+	 * read at the limited rate: one second's burst, then two seconds
+	 * of chunks.
+	 */
+	@Test
+	public void bytesAreChargedWhileReading() throws Exception {
+		Path path = folder.newFile("large.bin").toPath();
+		Files.write(path, new byte[3 * RATE]);
+
+		ReadingSender reading = new ReadingSender();
+		ThrottledFileSender sender = new ThrottledFileSender(reading);
+		sender.setMaxBytesPerSecond(RATE);
+
+		long start = System.nanoTime();
+		sender.transferFile(path, "/remote", Compression.NONE);
+		long elapsed = elapsed(start);
+
+		assertEquals(3 * RATE, reading.total);
+		assertTrue("started after " + elapsed(start, reading.times.get(0)) + " ms",
+				elapsed(start, reading.times.get(0)) < 200);
+		long half = elapsed(start, reading.times.get(reading.times.size() / 2));
+		assertTrue("half read after " + half + " ms", half >= 300 && half < 1500);
+		assertTrue("read in " + elapsed + " ms", elapsed >= 1500 && elapsed < 3500);
+	}
+
+	@Test
+	public void replacedSenderIsThrottledToo() throws Exception {
+		ThrottledFileSender sender = new ThrottledFileSender(new ReadingSender());
+		ReadingSender replacement = new ReadingSender();
+		sender.setSender(replacement);
+		assertTrue(replacement.getThrottle() != null);
+	}
+
+	/**
+	 * A sender replaced while transferring a file must not be closed under
+	 * the transfer, only after it.
+	 */
+	@Test
+	public void replacedSenderIsClosedAfterItsTransfers() throws Exception {
+		final Path path = folder.newFile("file.txt").toPath();
+		final BlockingSender blocking = new BlockingSender();
+		final ThrottledFileSender sender = new ThrottledFileSender(blocking);
+
+		Thread transfer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					sender.transferFile(path, "/remote", Compression.NONE);
+				} catch (TransferFailedException e) {
+					// the test fails on the closed flag
+				}
+			}
+		};
+		transfer.start();
+		assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+		BlockingSender replacement = new BlockingSender();
+		sender.setSender(replacement);
+		assertFalse("closed under a transfer", blocking.closed);
+
+		blocking.finish.countDown();
+		transfer.join(5000);
+		assertTrue("closed after its transfer", blocking.closed);
+		assertFalse(replacement.closed);
+
+		// A sender running no transfers is closed at once
+		BlockingSender idle = new BlockingSender();
+		sender.setSender(idle);
+		assertTrue(replacement.closed);
+	}
+
+	private static long elapsed(long start) {
+		return elapsed(start, System.nanoTime());
+	}
+
+	private static long elapsed(long start, long end) {
+		return TimeUnit.NANOSECONDS.toMillis(end - start);
+	}
+
+	/**
+	 *
+	 * Reads files in 8 KB chunks, recording the time of every chunk.
+	 *
+	 */
+	private static class ReadingSender extends AbstractFileSender {
+
+		private final List<Long> times = new ArrayList<Long>();
+
+		private long total = 0;
+
+		@Override
+		public void transferFile(Path path, String remoteDir, Compression compression)
+				throws TransferFailedException {
+			byte[] buffer = new byte[8192];
+			try (InputStream in = open(path, compression)) {
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					times.add(System.nanoTime());
+					total += n;
+				}
+			} catch (IOException e) {
+				throw new TransferFailedException(path.getFileName().toString(), true);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Blocks transfers until {@link #finish} is counted down, and records
+	 * being closed.
+	 *
+	 */
+	private static class BlockingSender extends AbstractFileSender {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch finish = new CountDownLatch(1);
+
+		private volatile boolean closed = false;
+
+		@Override
+		public void transferFile(Path path, String remoteDir, Compression compression)
+				throws TransferFailedException {
+			started.countDown();
+			try {
+				finish.await();
+			} catch (InterruptedException e) {
+				throw new TransferFailedException(path.getFileName().toString(), true);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+}
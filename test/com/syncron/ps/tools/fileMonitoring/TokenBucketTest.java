@@ -0,0 +1,76 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link TokenBucket}.
+ *
+ */
+public class TokenBucketTest {
+
+	@Test
+	public void unlimitedBucketNeverWaits() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			bucket.acquire(Long.MAX_VALUE / 2);
+		}
+		assertTrue(elapsed(start) < 100);
+	}
+
+	@Test
+	public void fullBucketGivesOneSecondBurst() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1000);
+		long start = System.nanoTime();
+		bucket.acquire(1000);
+		assertTrue(elapsed(start) < 100);
+	}
+
+	@Test
+	public void debtIsPaidByLaterRequests() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1000);
+		bucket.acquire(1000);
+		// Larger than the bucket, taken once the bucket isn't empty
+		long start = System.nanoTime();
+		bucket.acquire(1500);
+		assertTrue(elapsed(start) < 100);
+
+		start = System.nanoTime();
+		bucket.acquire(1);
+		long waited = elapsed(start);
+		assertTrue("waited " + waited + " ms", waited >= 1400 && waited < 2500);
+	}
+
+	@Test
+	public void rateChangeWakesWaitingRequests() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(1);
+		bucket.acquire(3600);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					bucket.acquire(1);
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					// the test fails on the latch
+				}
+			}
+		};
+		waiting.start();
+		Thread.sleep(100);
+		bucket.setRate(0);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+	}
+
+	private static long elapsed(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+}
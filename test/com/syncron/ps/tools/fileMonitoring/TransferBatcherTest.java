@@ -0,0 +1,105 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link TransferBatcher}.
+ *
+ */
+public class TransferBatcherTest {
+
+	private static final long LINGER = 200;
+
+	private final BlockingQueue<List<Path>> submitted = new LinkedBlockingQueue<List<Path>>();
+
+	private FileMonitor monitor;
+	private TransferBatcher batcher;
+
+	private final MonitoredDirectory in = new MonitoredDirectory("in", "/in");
+	private final MonitoredDirectory out = new MonitoredDirectory("out", "/out");
+
+	@Before
+	public void setUp() throws IOException {
+		monitor = new FileMonitor(new HashMap<Path, MonitoredDirectory>()) {
+			@Override
+			void submitBatch(List<Path> files, MonitoredDirectory directory,
+					Destination destination) {
+				submitted.add(files);
+			}
+		};
+		Destination destination = monitor.addDestination("test", new RecordingSender(), 1);
+		batcher = new TransferBatcher(monitor, destination, 3, LINGER);
+	}
+
+	@After
+	public void tearDown() {
+		batcher.shutdown();
+		monitor.stop();
+	}
+
+	@Test
+	public void fullBatchIsSubmittedRightAway() {
+		batcher.add(Paths.get("in", "a"), in);
+		batcher.add(Paths.get("in", "b"), in);
+		assertTrue(submitted.isEmpty());
+		assertEquals(2, batcher.size());
+
+		batcher.add(Paths.get("in", "c"), in);
+		assertEquals(Arrays.asList(Paths.get("in", "a"), Paths.get("in", "b"),
+				Paths.get("in", "c")), submitted.poll());
+		assertEquals(0, batcher.size());
+	}
+
+	@Test
+	public void openBatchIsSubmittedAfterLinger() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		batcher.add(Paths.get("in", "a"), in);
+
+		assertEquals(Arrays.asList(Paths.get("in", "a")),
+				submitted.poll(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= LINGER);
+		assertNull("the batch is submitted once",
+				submitted.poll(2 * LINGER, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void directoriesAreBatchedSeparately() {
+		batcher.add(Paths.get("in", "a"), in);
+		batcher.add(Paths.get("out", "a"), out);
+		batcher.add(Paths.get("in", "b"), in);
+		batcher.add(Paths.get("in", "c"), in);
+
+		assertEquals(Arrays.asList(Paths.get("in", "a"), Paths.get("in", "b"),
+				Paths.get("in", "c")), submitted.poll());
+		assertEquals(1, batcher.size());
+	}
+
+	@Test
+	public void shutdownSubmitsOpenBatches() {
+		batcher.add(Paths.get("in", "a"), in);
+		batcher.add(Paths.get("out", "a"), out);
+
+		batcher.shutdown();
+
+		assertEquals(2, submitted.size());
+		assertEquals(0, batcher.size());
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link TransferExecutor}.
+ *
+ */
+public class TransferExecutorTest {
+
+	private TransferExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new TransferExecutor("test", 4);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(5000);
+	}
+
+	@Test
+	public void tasksOfOneKeyRunOneByOneInOrder() throws InterruptedException {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(50);
+		final int[] running = new int[1];
+		final boolean[] overlapped = new boolean[1];
+		for (int i = 0; i < 50; i++) {
+			final int task = i;
+			executor.submit("key", new Runnable() {
+				@Override
+				public void run() {
+					synchronized (running) {
+						if (++running[0] > 1) {
+							overlapped[0] = true;
+						}
+					}
+					order.add(task);
+					Thread.yield();
+					synchronized (running) {
+						running[0]--;
+					}
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		assertEquals(50, order.size());
+		for (int i = 0; i < 50; i++) {
+			assertEquals(Integer.valueOf(i), order.get(i));
+		}
+		assertTrue("tasks of one key overlapped", !overlapped[0]);
+	}
+
+	@Test
+	public void tasksWithoutKeyRunInParallel() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(4);
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 4; i++) {
+			executor.submit(null, new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		try {
+			assertTrue("all workers should be busy at once",
+					started.await(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void keyDoesNotBlockOtherKeys() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch other = new CountDownLatch(1);
+		executor.submit("slow", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		executor.submit("fast", new Runnable() {
+			@Override
+			public void run() {
+				other.countDown();
+			}
+		});
+		try {
+			assertTrue(other.await(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void shutdownRunsAcceptedTasks() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+		executor.submit("key", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.add(1);
+			}
+		});
+		for (int i = 2; i <= 3; i++) {
+			final int task = i;
+			executor.submit("key", new Runnable() {
+				@Override
+				public void run() {
+					done.add(task);
+				}
+			});
+		}
+		executor.shutdown();
+		release.countDown();
+		assertTrue(executor.awaitTermination(5000));
+		assertEquals(3, done.size());
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of {@link TransferHistory}.
+ *
+ */
+public class TransferHistoryTest {
+
+	private final TransferHistory history = new TransferHistory();
+
+	private final Path directory = Paths.get("in");
+	private final Path file = directory.resolve("a.txt");
+
+	@Test
+	public void fileIsPendingOnce() {
+		assertTrue(history.markPending(file));
+		assertFalse(history.markPending(file));
+		assertTrue(history.isPending(file));
+		assertEquals(1, history.getPendingCount());
+	}
+
+	@Test
+	public void deliveredVersionIsRemembered() {
+		history.markPending(file);
+		history.markDelivered(file, 1000);
+
+		assertFalse(history.isPending(file));
+		assertTrue(history.isDelivered(file, 1000));
+		assertFalse("a modified file is sent again", history.isDelivered(file, 2000));
+		assertFalse(history.isDelivered(directory.resolve("b.txt"), 1000));
+	}
+
+	@Test
+	public void failedFileIsNeitherPendingNorDelivered() {
+		history.markPending(file);
+		history.markFailed(file);
+
+		assertFalse(history.isPending(file));
+		assertFalse(history.isDelivered(file, 1000));
+		assertTrue("a failed file can be enqueued again", history.markPending(file));
+	}
+
+	@Test
+	public void retainForgetsRemovedFiles() {
+		Path other = directory.resolve("b.txt");
+		history.markDelivered(file, 1000);
+		history.markDelivered(other, 1000);
+
+		history.retain(directory, Collections.singleton("b.txt"));
+
+		assertFalse(history.isDelivered(file, 1000));
+		assertTrue(history.isDelivered(other, 1000));
+	}
+
+	@Test
+	public void deletedFilesAndDirectoriesAreForgotten() {
+		Path other = directory.resolve("b.txt");
+		Path nested = directory.resolve("sub").resolve("c.txt");
+		history.markDelivered(file, 1000);
+		history.markDelivered(other, 1000);
+		history.markDelivered(nested, 1000);
+
+		history.forget(file);
+		assertFalse(history.isDelivered(file, 1000));
+		assertTrue(history.isDelivered(other, 1000));
+
+		history.forget(nested.getParent());
+		assertFalse(history.isDelivered(nested, 1000));
+		assertFalse("the directory is not kept", history.getDeliveredFiles()
+				.containsKey(nested.getParent()));
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.syncron.ps.tools.fileMonitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * Tests of {@link TransferJournal}.
+ *
+ */
+public class TransferJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path state;
+
+	private final Path a = Paths.get("in", "a.txt");
+	private final Path b = Paths.get("in", "b.txt");
+	private final Path c = Paths.get("in", "c.txt");
+	private final Path d = Paths.get("in", "d.txt");
+
+	@Before
+	public void setUp() throws IOException {
+		state = folder.getRoot().toPath().resolve("state");
+	}
+
+	@Test
+	public void replayRestoresDeliveredAndPendingFiles() throws Exception {
+		TransferJournal journal = new TransferJournal(state);
+		journal.open(new TransferHistory());
+		journal.enqueued(a);
+		journal.enqueued(b);
+		journal.enqueued(c);
+		journal.enqueued(d);
+		journal.inFlight(a);
+		journal.completed(a, 1000);
+		journal.inFlight(b);
+		journal.dropped(c);
+		journal.close();
+
+		TransferHistory history = new TransferHistory();
+		List<Path> pending = new TransferJournal(state).replay(history);
+
+		assertEquals("files not delivered nor dropped, in order",
+				Arrays.asList(b, d), pending);
+		assertTrue(history.isDelivered(a, 1000));
+		assertFalse(history.isDelivered(b, 1000));
+		assertFalse(history.isDelivered(c, 1000));
+	}
+
+	@Test
+	public void replayForgetsRemovedFiles() throws Exception {
+		TransferHistory recorded = new TransferHistory();
+		TransferJournal journal = new TransferJournal(state);
+		journal.open(recorded);
+		recorded.setJournal(journal);
+		recorded.markDelivered(a, 1000);
+		recorded.markDelivered(b, 1000);
+		recorded.forget(a);
+		journal.close();
+
+		TransferHistory history = new TransferHistory();
+		new TransferJournal(state).replay(history);
+
+		assertFalse(history.isDelivered(a, 1000));
+		assertTrue(history.isDelivered(b, 1000));
+	}
+
+		@Test
+	public void replayWithoutJournalFindsNothing() throws Exception {
+		TransferHistory history = new TransferHistory();
+		assertTrue(new TransferJournal(state).replay(history).isEmpty());
+		assertTrue(history.getDeliveredFiles().isEmpty());
+	}
+
+	@Test
+	public void replaySkipsTornRecords() throws Exception {
+		TransferJournal journal = new TransferJournal(state);
+		journal.open(new TransferHistory());
+		journal.enqueued(a);
+		journal.completed(a, 1000);
+		journal.enqueued(b);
+		journal.close();
+		// A record cut short by a crash
+		Files.write(state.resolve("transfers.journal"), "C\t20".getBytes("UTF-8"),
+				StandardOpenOption.APPEND);
+
+		TransferHistory history = new TransferHistory();
+		List<Path> pending = new TransferJournal(state).replay(history);
+
+		assertEquals(Arrays.asList(b), pending);
+		assertTrue(history.isDelivered(a, 1000));
+	}
+
+	@Test
+	public void openCompactsToCurrentState() throws Exception {
+		TransferJournal journal = new TransferJournal(state);
+		journal.open(new TransferHistory());
+		for (int i = 0; i < 100; i++) {
+			journal.enqueued(a);
+			journal.inFlight(a);
+			journal.completed(a, i);
+		}
+		journal.enqueued(b);
+		journal.close();
+
+		TransferHistory history = new TransferHistory();
+		TransferJournal reopened = new TransferJournal(state);
+		List<Path> pending = reopened.replay(history);
+		for (Path file : pending) {
+			history.markPending(file);
+		}
+		reopened.open(history);
+		reopened.close();
+
+		List<String> records = Files.readAllLines(state.resolve("transfers.journal"),
+				Charset.forName("UTF-8"));
+		assertEquals("one record per live file", 2, records.size());
+
+		TransferHistory replayed = new TransferHistory();
+		assertEquals(Arrays.asList(b), new TransferJournal(state).replay(replayed));
+		assertTrue(replayed.isDelivered(a, 99));
+		assertFalse(replayed.isDelivered(a, 98));
+	}
+
+}